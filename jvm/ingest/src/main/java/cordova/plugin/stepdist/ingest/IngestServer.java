@@ -0,0 +1,374 @@
+//
+// IngestServer.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the ingest service.
+// Accepts gravity traces that devices upload in numbered chunks and re-counts their steps with the step counter of the phones, ...
+// ... one incremental StepCounter per session, so that a trace never has to be held in memory.
+// Every request runs on its own virtual thread, a session waits for its previous chunk without blocking a carrier thread.
+//
+//   POST   /sessions/{id}/chunks?chunk=n[&options]  Processes chunk n (starting at 0), options of the first chunk, see SessionOptions
+//   GET    /sessions/{id}                          Returns the current steps and distance
+//   DELETE /sessions/{id}                          Returns the final steps and distance and removes the session
+//
+// A repeated chunk (e.g., after a timeout of the client) is not processed again, a missing chunk is reported with 409 and the next expected chunk.
+// The memory use is bounded by the number of sessions, the chunk size, and the number of chunks that are buffered at once.
+//
+
+package cordova.plugin.stepdist.ingest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class IngestServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+    public static final long DEFAULT_IDLE_TIMEOUT = 600000; // Milliseconds without a request after which a session is removed
+
+    // Largest accepted chunk, about a minute of samples at 100 Hz
+    static final int MAX_CHUNK_BYTES = 256*1024;
+
+    // Chunks that are read and processed at once, further requests wait, which bounds the memory of the buffered chunks
+    private static final int MAX_BUFFERED_CHUNKS = 512;
+
+    // Pending connections, so that thousands of devices can connect at once
+    private static final int BACKLOG = 4096;
+
+    private static final Pattern SESSION_PATH = Pattern.compile("/sessions/([A-Za-z0-9._-]{1,64})(/chunks)?");
+    private static final Pattern CHUNK_PARAMETER = Pattern.compile("(?:^|&)chunk=(\\d{1,9})(?:&|$)");
+
+    static {
+        // The server writes the headers and the body of a response separately, with Nagle's algorithm the body would wait ...
+        // ... for the delayed acknowledgement of the headers (about 40 ms per request), unless configured otherwise
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService evictionExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().factory());
+    private final ConcurrentHashMap<String, IngestSession> sessions = new ConcurrentHashMap<>();
+    private final Semaphore sessionPermits;
+    private final Semaphore chunkPermits = new Semaphore(MAX_BUFFERED_CHUNKS);
+    private final long idleTimeout;
+    private final AtomicLong evictedSessions = new AtomicLong();
+    private final AtomicLong rejectedSessions = new AtomicLong();
+
+    public IngestServer(InetSocketAddress address, int maxSessions, long idleTimeout) throws IOException {
+        this.idleTimeout = idleTimeout;
+        sessionPermits = new Semaphore(maxSessions);
+        server = HttpServer.create(address, BACKLOG);
+        server.createContext("/sessions/", new HttpHandler() {
+            public void handle(HttpExchange exchange) {
+                handleExchange(exchange);
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        long evictionInterval = Math.max(1, idleTimeout/4);
+        evictionExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evictIdleSessions();
+            }
+        }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    // Stops accepting requests, requests in progress get up to a second to finish
+    public void stop() {
+        server.stop(1);
+        evictionExecutor.shutdownNow();
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getEvictedSessions() {
+        return evictedSessions.get();
+    }
+
+    public long getRejectedSessions() {
+        return rejectedSessions.get();
+    }
+
+    private void handleExchange(HttpExchange exchange) {
+        try {
+            Matcher matcher = SESSION_PATH.matcher(exchange.getRequestURI().getRawPath());
+            String method = exchange.getRequestMethod();
+            if (!matcher.matches()) {
+                sendError(exchange, 404, "Unknown path");
+            } else if (matcher.group(2) != null) {
+                if ("POST".equals(method)) {
+                    postChunk(exchange, matcher.group(1));
+                } else {
+                    sendError(exchange, 405, "Chunks are uploaded with POST");
+                }
+            } else if ("GET".equals(method)) {
+                getSession(exchange, matcher.group(1));
+            } else if ("DELETE".equals(method)) {
+                deleteSession(exchange, matcher.group(1));
+            } else {
+                sendError(exchange, 405, "Sessions are read with GET and closed with DELETE");
+            }
+        } catch (IllegalArgumentException e) {
+            trySendError(exchange, 400, e.getMessage());
+        } catch (InterruptedException e) {
+            trySendError(exchange, 503, "Shutting down");
+        } catch (IOException e) {
+            // The client has gone, there is nobody to respond to
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void postChunk(HttpExchange exchange, String id) throws IOException, InterruptedException {
+        String query = exchange.getRequestURI().getRawQuery();
+        Matcher chunkMatcher = CHUNK_PARAMETER.matcher(query != null ? query : "");
+        if (!chunkMatcher.find()) {
+            throw new IllegalArgumentException("Missing chunk number");
+        }
+        int chunkNumber = Integer.parseInt(chunkMatcher.group(1));
+
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null && Long.parseLong(contentLength) > MAX_CHUNK_BYTES) {
+            sendTooLarge(exchange);
+            return;
+        }
+
+        JSONObject result;
+        int status;
+        chunkPermits.acquire();
+        try {
+            byte[] data = readBody(exchange.getRequestBody());
+            if (data == null) {
+                sendTooLarge(exchange);
+                return;
+            }
+            TraceChunk chunk = TraceChunk.parse(data, data.length);
+
+            while (true) {
+                IngestSession session = sessions.get(id);
+                if (session == null) {
+                    if (chunkNumber != 0) {
+                        sendError(exchange, 404, "Unknown session, the upload starts with chunk 0");
+                        return;
+                    }
+                    session = createSession(id, SessionOptions.parse(query));
+                    if (session == null) {
+                        exchange.getResponseHeaders().set("Retry-After", "10");
+                        sendError(exchange, 503, "Too many sessions");
+                        return;
+                    }
+                }
+
+                session.lock.lock();
+                try {
+                    if (session.isClosed()) {
+                        continue; // Removed in the meantime, looked up again
+                    }
+
+                    session.touch(now());
+                    if (chunkNumber > session.getNextChunk()) {
+                        status = 409;
+                        result = session.getResult();
+                        result.put("error", "Missing chunk " + session.getNextChunk());
+                    } else {
+                        if (chunkNumber == session.getNextChunk()) {
+                            session.addChunk(chunk);
+                        }
+                        status = 200;
+                        result = session.getResult();
+                    }
+                } finally {
+                    session.lock.unlock();
+                }
+                break;
+            }
+        } finally {
+            chunkPermits.release();
+        }
+
+        send(exchange, status, result);
+    }
+
+    private void getSession(HttpExchange exchange, String id) throws IOException {
+        IngestSession session = sessions.get(id);
+        JSONObject result = null;
+        if (session != null) {
+            session.lock.lock();
+            try {
+                if (!session.isClosed()) {
+                    session.touch(now());
+                    result = session.getResult();
+                }
+            } finally {
+                session.lock.unlock();
+            }
+        }
+
+        if (result == null) {
+            sendError(exchange, 404, "Unknown session");
+        } else {
+            send(exchange, 200, result);
+        }
+    }
+
+    private void deleteSession(HttpExchange exchange, String id) throws IOException {
+        IngestSession session = sessions.get(id);
+        JSONObject result = null;
+        if (session != null) {
+            session.lock.lock();
+            try {
+                if (!session.isClosed()) {
+                    result = session.getResult();
+                    removeSession(session);
+                }
+            } finally {
+                session.lock.unlock();
+            }
+        }
+
+        if (result == null) {
+            sendError(exchange, 404, "Unknown session");
+        } else {
+            send(exchange, 200, result);
+        }
+    }
+
+    // Returns null if the maximum number of sessions has been reached
+    private IngestSession createSession(String id, SessionOptions options) {
+        if (!sessionPermits.tryAcquire()) {
+            rejectedSessions.incrementAndGet();
+            return null;
+        }
+
+        IngestSession session = new IngestSession(id, options, now());
+        IngestSession existingSession = sessions.putIfAbsent(id, session);
+        if (existingSession != null) {
+            sessionPermits.release();
+            return existingSession;
+        }
+        return session;
+    }
+
+    // Must be called while holding the lock of the session
+    private void removeSession(IngestSession session) {
+        session.close();
+        sessions.remove(session.getId(), session);
+        sessionPermits.release();
+    }
+
+    // Removes the sessions of devices that have stopped uploading without closing their session
+    private void evictIdleSessions() {
+        long now = now();
+        for (IngestSession session : sessions.values()) {
+            if (now-session.getLastAccess() > idleTimeout && session.lock.tryLock()) {
+                try {
+                    if (!session.isClosed() && now-session.getLastAccess() > idleTimeout) {
+                        removeSession(session);
+                        evictedSessions.incrementAndGet();
+                    }
+                } finally {
+                    session.lock.unlock();
+                }
+            }
+        }
+    }
+
+    // Returns null if the body is larger than MAX_CHUNK_BYTES (e.g., with chunked transfer encoding)
+    private static byte[] readBody(InputStream input) throws IOException {
+        byte[] data = new byte[8192];
+        int length = 0;
+        while (true) {
+            if (length == data.length) {
+                if (length > MAX_CHUNK_BYTES) {
+                    return null;
+                }
+                data = Arrays.copyOf(data, Math.min(data.length*2, MAX_CHUNK_BYTES+1));
+            }
+            int read = input.read(data, length, data.length-length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length > MAX_CHUNK_BYTES ? null : Arrays.copyOf(data, length);
+    }
+
+    private static long now() {
+        return System.nanoTime()/1000000;
+    }
+
+    private static void send(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        byte[] data = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, data.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(data);
+        output.close();
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        JSONObject body = new JSONObject();
+        body.put("error", message);
+        send(exchange, status, body);
+    }
+
+    // The rest of the body is not read, the connection is closed so that the client does not send its next request after it
+    private static void sendTooLarge(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Connection", "close");
+        sendError(exchange, 413, "Chunks must not be larger than " + MAX_CHUNK_BYTES + " bytes");
+    }
+
+    private static void trySendError(HttpExchange exchange, int status, String message) {
+        try {
+            sendError(exchange, status, message);
+        } catch (IOException e) {
+            // The client has gone, or the response has already been started
+        }
+    }
+
+    // Runs the service until the process is stopped: IngestServer [port]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        final IngestServer server = new IngestServer(new InetSocketAddress(port), DEFAULT_MAX_SESSIONS, DEFAULT_IDLE_TIMEOUT);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                server.stop();
+            }
+        }));
+        System.out.println("Ingest service listening on port " + server.getPort());
+    }
+}
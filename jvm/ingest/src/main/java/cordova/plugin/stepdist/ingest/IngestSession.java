@@ -0,0 +1,117 @@
+//
+// IngestSession.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the state of one uploading device.
+// Passes the samples of each chunk through the MotionResampler onto the grid of the update interval and on to an incremental StepCounter, ...
+// ... the same stages as with adaptive sampling on the phone, so that the state does not grow with the length of the trace.
+// The distance is the heuristic of the DistanceService (step length from the body height and the step frequency).
+//
+
+package cordova.plugin.stepdist.ingest;
+
+import cordova.plugin.stepdist.MotionResampler;
+import cordova.plugin.stepdist.StepCounter;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+final class IngestSession implements MotionResampler.ResamplerDelegate, StepCounter.StepCounterDelegate {
+
+    // Chunks of a session are processed one after another. A ReentrantLock instead of synchronized, ...
+    // ... so that a virtual thread that waits for the session does not pin its carrier thread.
+    final ReentrantLock lock = new ReentrantLock();
+
+    private final String id;
+    private final StepCounter stepCounter;
+    private final MotionResampler motionResampler;
+    private final double stepLengthFactor;
+    private final double bodyHeight;
+
+    // Only accessed while holding the lock
+    private int nextChunk;
+    private long samples;
+    private int steps;
+    private double distance;
+    private boolean isClosed;
+
+    private volatile long lastAccess; // Milliseconds, System.nanoTime()/1e6 of the last request
+
+    IngestSession(String id, SessionOptions options, long now) {
+        this.id = id;
+        stepLengthFactor = options.stepLengthFactor;
+        bodyHeight = options.bodyHeight;
+        stepCounter = new StepCounter(options.updateInterval, options.betterStrideFactor, options.deviationLength,
+                options.deviationAmplitude, options.minStrideAmplitude, options.smoothingTimeframe);
+        stepCounter.setDelegate(this);
+        stepCounter.resetData();
+        motionResampler = new MotionResampler(options.updateInterval, this);
+        lastAccess = now;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    int getNextChunk() {
+        return nextChunk;
+    }
+
+    boolean isClosed() {
+        return isClosed;
+    }
+
+    // Marks the session as removed, requests that still hold a reference then look it up again
+    void close() {
+        isClosed = true;
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch(long now) {
+        lastAccess = now;
+    }
+
+    // Processes the samples of the next chunk
+    void addChunk(TraceChunk chunk) {
+        for (int k = 0; k < chunk.size(); k++) {
+            motionResampler.addSample(chunk.getTimestamp(k), chunk.getX(k), chunk.getY(k), chunk.getZ(k));
+        }
+        samples += chunk.size();
+        nextChunk++;
+    }
+
+    JSONObject getResult() {
+        JSONObject result = new JSONObject();
+        result.put("session", id);
+        result.put("chunks", nextChunk);
+        result.put("samples", samples);
+        result.put("steps", steps);
+        result.put("distance", Math.round(distance));
+        result.put("stepsPerMinute", stepCounter.getStepsPerMinute());
+        return result;
+    }
+
+    // Called from within the MotionResampler for every point of the uniform grid
+    @Override
+    public void gridPointDidOccur(long timestamp, double x, double y, double z) {
+        stepCounter.processMotionData(x, y, z, timestamp/1000000);
+    }
+
+    // Called from within the StepCounter, count may also decrease when recent steps are replaced
+    @Override
+    public void stepCountDidChange(int count, float frequency) {
+        distance += (count-steps)*(stepLengthFactor*bodyHeight*Math.sqrt(frequency));
+        steps = count;
+    }
+
+    @Override
+    public void provisionalStepCountDidChange(int provisionalCount) {
+        // Provisional steps are not enabled
+    }
+}
@@ -0,0 +1,300 @@
+//
+// LoadGenerator.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the load generator of the ingest service.
+// Uploads synthetic walking traces of many sessions at once, each session on its own virtual thread chunk after chunk as a device would, ...
+// ... and reports the throughput, the latencies of the chunk uploads, and the steps found compared with the true steps.
+// Without a chunk interval, the sessions upload as fast as possible (throughput), with one, they upload like devices at that pace ...
+// ... (latency at the resulting load). The traces are generated before the run, so that the generator mostly measures the service.
+//
+
+package cordova.plugin.stepdist.ingest;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class LoadGenerator {
+
+    private static final double G = 9.81;
+    private static final double SAMPLE_INTERVAL = 0.02; // Seconds, the rate of a gravity sensor at SENSOR_DELAY_GAME
+    private static final double BODY_HEIGHT = 1.8;
+    private static final long REQUEST_TIMEOUT = 60; // Seconds
+
+    // Distinct traces, further sessions upload the same traces under their own ids
+    private static final int TRACES = 64;
+
+    // Attempts per request, a device uploads a chunk again if the connection fails (e.g., an idle connection closed by the server)
+    // Chunks are numbered, so that a repeated chunk is not counted twice
+    private static final int MAX_ATTEMPTS = 3;
+
+    private LoadGenerator() {
+    }
+
+    // Uploads the given number of sessions at once, each with chunksPerSession chunks of samplesPerChunk samples, and closes them
+    // With a chunkInterval (milliseconds) other than 0, each session uploads one chunk per interval, starting at a random offset
+    public static Report run(final URI baseUri, int sessions, int chunksPerSession, final int samplesPerChunk, final long chunkInterval) throws InterruptedException {
+        int traces = Math.min(sessions, TRACES);
+        final byte[][][] chunks = new byte[traces][chunksPerSession][];
+        final int[] trueSteps = new int[traces];
+        for (int trace = 0; trace < traces; trace++) {
+            WalkingTrace walkingTrace = new WalkingTrace(trace);
+            StringBuilder chunk = new StringBuilder(samplesPerChunk*40);
+            for (int chunkNumber = 0; chunkNumber < chunksPerSession; chunkNumber++) {
+                chunk.setLength(0);
+                for (int k = 0; k < samplesPerChunk; k++) {
+                    walkingTrace.appendSample(chunk);
+                }
+                chunks[trace][chunkNumber] = chunk.toString().getBytes(StandardCharsets.US_ASCII);
+            }
+            trueSteps[trace] = walkingTrace.getSteps();
+        }
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        final HttpClient client = HttpClient.newBuilder()
+                .executor(executor)
+                .connectTimeout(Duration.ofSeconds(REQUEST_TIMEOUT))
+                .build();
+
+        final long[] latencies = new long[sessions*chunksPerSession]; // Nanoseconds, each session writes its own range
+        final Counters counters = new Counters();
+        List<Future<int[]>> results = new ArrayList<>();
+
+        long start = System.nanoTime();
+        try {
+            for (int session = 0; session < sessions; session++) {
+                final int sessionIndex = session;
+                final int trace = session % traces;
+                results.add(executor.submit(new Callable<int[]>() {
+                    public int[] call() throws InterruptedException {
+                        int steps = uploadSession(client, baseUri, sessionIndex, chunks[trace], samplesPerChunk, chunkInterval, latencies, counters);
+                        return new int[] {trueSteps[trace], steps};
+                    }
+                }));
+            }
+
+            long totalTrueSteps = 0;
+            long totalSteps = 0;
+            for (Future<int[]> result : results) {
+                try {
+                    int[] sessionSteps = result.get();
+                    totalTrueSteps += sessionSteps[0];
+                    totalSteps += sessionSteps[1];
+                } catch (ExecutionException e) {
+                    counters.failedSessions.incrementAndGet();
+                }
+            }
+            long elapsed = System.nanoTime()-start;
+
+            return new Report(sessions, latencies, counters, elapsed, totalTrueSteps, totalSteps);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Returns the steps of the final result, or 0 if the session failed
+    private static int uploadSession(HttpClient client, URI baseUri, int sessionIndex, byte[][] chunks, int samplesPerChunk, long chunkInterval,
+                                     long[] latencies, Counters counters) throws InterruptedException {
+        String id = "load-" + sessionIndex;
+        long sessionStart = System.nanoTime();
+        if (chunkInterval > 0) {
+            sessionStart += new Random(sessionIndex).nextInt((int) Math.min(chunkInterval, Integer.MAX_VALUE))*1000000L;
+        }
+
+        for (int chunkNumber = 0; chunkNumber < chunks.length; chunkNumber++) {
+            if (chunkInterval > 0) {
+                long delay = sessionStart + chunkNumber*chunkInterval*1000000 - System.nanoTime();
+                if (delay > 0) {
+                    Thread.sleep(delay/1000000, (int) (delay % 1000000));
+                }
+            }
+
+            String query = "chunk=" + chunkNumber + (chunkNumber == 0 ? "&bodyHeight=" + BODY_HEIGHT : "");
+            HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/sessions/" + id + "/chunks?" + query))
+                    .timeout(Duration.ofSeconds(REQUEST_TIMEOUT))
+                    .header("Content-Type", "text/csv")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(chunks[chunkNumber]))
+                    .build();
+
+            long requestStart = System.nanoTime();
+            HttpResponse<String> response = send(client, request, counters);
+            latencies[sessionIndex*chunks.length + chunkNumber] = System.nanoTime()-requestStart;
+            if (response == null || response.statusCode() != 200) {
+                counters.failedSessions.incrementAndGet();
+                return 0;
+            }
+            counters.samples.addAndGet(samplesPerChunk);
+            counters.bytes.addAndGet(chunks[chunkNumber].length);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/sessions/" + id))
+                .timeout(Duration.ofSeconds(REQUEST_TIMEOUT))
+                .DELETE()
+                .build();
+        HttpResponse<String> response = send(client, request, counters);
+        if (response == null || response.statusCode() != 200) {
+            counters.failedSessions.incrementAndGet();
+            return 0;
+        }
+        return new JSONObject(response.body()).getInt("steps");
+    }
+
+    // Returns null if all attempts have failed
+    private static HttpResponse<String> send(HttpClient client, HttpRequest request, Counters counters) throws InterruptedException {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                return client.send(request, HttpResponse.BodyHandlers.ofString());
+            } catch (IOException e) {
+                counters.retries.incrementAndGet();
+            }
+        }
+        return null;
+    }
+
+    // Counted by all sessions of a run
+    private static final class Counters {
+        final AtomicLong failedSessions = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong samples = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+    }
+
+    // Results of a run, latencies of the chunk uploads only (the requests that carry the load), including retries
+    public static final class Report {
+        public final int sessions;
+        public final long requests;
+        public final long failedSessions;
+        public final long retries;
+        public final long samples;
+        public final long bytes;
+        public final double seconds;
+        public final long trueSteps;
+        public final long steps;
+        public final double p50; // Milliseconds
+        public final double p99;
+        public final double max;
+
+        Report(int sessions, long[] latencies, Counters counters, long elapsedNanos, long trueSteps, long steps) {
+            this.sessions = sessions;
+            failedSessions = counters.failedSessions.get();
+            retries = counters.retries.get();
+            samples = counters.samples.get();
+            bytes = counters.bytes.get();
+            seconds = elapsedNanos/1e9;
+            this.trueSteps = trueSteps;
+            this.steps = steps;
+
+            // Latencies of 0 belong to chunks that have not been sent after a failure
+            long[] sorted = new long[latencies.length];
+            int count = 0;
+            for (long latency : latencies) {
+                if (latency > 0) {
+                    sorted[count++] = latency;
+                }
+            }
+            sorted = Arrays.copyOf(sorted, count);
+            Arrays.sort(sorted);
+            requests = count;
+            p50 = getPercentile(sorted, 0.5);
+            p99 = getPercentile(sorted, 0.99);
+            max = count > 0 ? sorted[count-1]/1e6 : 0;
+        }
+
+        private static double getPercentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[(int) Math.min(sorted.length-1, Math.ceil(percentile*sorted.length)-1)]/1e6;
+        }
+
+        public double getRequestsPerSecond() {
+            return requests/seconds;
+        }
+
+        public double getSamplesPerSecond() {
+            return samples/seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d sessions (%d failed), %d chunks (%d retries) in %.1f s: %.0f chunks/s, %.2f million samples/s, %.1f MB/s, " +
+                            "latency p50 %.1f ms, p99 %.1f ms, max %.1f ms, %d of %d true steps",
+                    sessions, failedSessions, requests, retries, seconds, getRequestsPerSecond(), getSamplesPerSecond()/1e6, bytes/seconds/1e6,
+                    p50, p99, max, steps, trueSteps);
+        }
+    }
+
+    // Gravity of a phone in the trouser pocket while walking, the thigh swings the gravity direction once per stride
+    // A simplified walking segment of the SyntheticSession of the step counter tests
+    static final class WalkingTrace {
+        private static final long START = 1790000000000L; // Milliseconds since epoch
+
+        private final Random random;
+        private final double basePitch;
+        private final double baseRoll;
+        private final double strideFrequency; // Hz, one stride equals two steps
+        private final double swingAmplitude; // Radians
+        private double phase;
+        private long sample;
+
+        WalkingTrace(long seed) {
+            random = new Random(seed);
+            basePitch = 0.1 + 0.3*random.nextDouble();
+            baseRoll = -0.3 + 0.6*random.nextDouble();
+            strideFrequency = 0.8 + 0.2*random.nextDouble();
+            swingAmplitude = 0.25 + 0.2*random.nextDouble();
+        }
+
+        // Appends the next sample as a line of timestamp,x,y,z
+        void appendSample(StringBuilder builder) {
+            double swing = Math.sin(phase) + 0.15*Math.sin(2*phase+0.5);
+            double pitch = basePitch + swingAmplitude*swing;
+            double roll = baseRoll + 0.2*swingAmplitude*swing;
+            double x = G*Math.cos(pitch)*Math.sin(roll) + 0.03*random.nextGaussian();
+            double y = G*Math.cos(pitch)*Math.cos(roll) + 0.03*random.nextGaussian();
+            double z = G*Math.sin(pitch) + 0.03*random.nextGaussian();
+            builder.append(START + Math.round(sample*SAMPLE_INTERVAL*1000)).append(',')
+                    .append((float) x).append(',')
+                    .append((float) y).append(',')
+                    .append((float) z).append('\n');
+
+            sample++;
+            phase += 2*Math.PI*strideFrequency*SAMPLE_INTERVAL;
+        }
+
+        // Steps that have been completed until the last appended sample
+        int getSteps() {
+            return (int) ((phase - 2*Math.PI*strideFrequency*SAMPLE_INTERVAL)/Math.PI);
+        }
+    }
+
+    // Runs against a running service: LoadGenerator [url [sessions [chunks [samples per chunk [chunk interval in ms]]]]]
+    public static void main(String[] args) throws InterruptedException {
+        URI baseUri = URI.create(args.length > 0 ? args[0] : "http://localhost:" + IngestServer.DEFAULT_PORT);
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int chunks = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int samplesPerChunk = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        long chunkInterval = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        System.out.println(run(baseUri, sessions, chunks, samplesPerChunk, chunkInterval));
+    }
+}
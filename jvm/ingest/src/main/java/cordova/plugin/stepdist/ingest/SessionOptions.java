@@ -0,0 +1,86 @@
+//
+// SessionOptions.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the options of a session, taken from the query of its first chunk.
+// Same names and defaults as the options of the plugin (see www/stepdistplugin.js).
+//
+
+package cordova.plugin.stepdist.ingest;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+final class SessionOptions {
+
+    double updateInterval = 0.1;
+    double betterStrideFactor = 1.2;
+    double deviationLength = 0.35;
+    double deviationAmplitude = 0.35;
+    double minStrideAmplitude = 0.2;
+    int smoothingTimeframe = 6;
+    double stepLengthFactor = 0.33;
+    double bodyHeight = 0; // Meters, 0 if unknown, the distance is then 0 as on the phone
+
+    // Parses the known options of the query, other parameters (e.g., the chunk number) are ignored
+    static SessionOptions parse(String query) {
+        SessionOptions options = new SessionOptions();
+        if (query == null) {
+            return options;
+        }
+
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String name = parameter.substring(0, separator);
+            String value = URLDecoder.decode(parameter.substring(separator+1), StandardCharsets.UTF_8);
+            try {
+                switch (name) {
+                    case "updateInterval":
+                        options.updateInterval = parseRange(name, value, 0.01, 1);
+                        break;
+                    case "betterStrideFactor":
+                        options.betterStrideFactor = parseRange(name, value, 1, 10);
+                        break;
+                    case "deviationLength":
+                        options.deviationLength = parseRange(name, value, 0, 1);
+                        break;
+                    case "deviationAmplitude":
+                        options.deviationAmplitude = parseRange(name, value, 0, 1);
+                        break;
+                    case "minStrideAmplitude":
+                        options.minStrideAmplitude = parseRange(name, value, 0, 10);
+                        break;
+                    case "smoothingTimeframe":
+                        options.smoothingTimeframe = (int) parseRange(name, value, 1, 64);
+                        break;
+                    case "stepLengthFactor":
+                        options.stepLengthFactor = parseRange(name, value, 0, 1);
+                        break;
+                    case "bodyHeight":
+                        options.bodyHeight = parseRange(name, value, 0, 3);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value of " + name);
+            }
+        }
+
+        return options;
+    }
+
+    // The ranges keep the per-session state bounded, e.g., the smoothing timeframe sizes the ring buffers of the step counter
+    private static double parseRange(String name, String value, double min, double max) {
+        double number = Double.parseDouble(value);
+        if (!(number >= min && number <= max)) {
+            throw new IllegalArgumentException(name + " must be between " + min + " and " + max);
+        }
+        return number;
+    }
+}
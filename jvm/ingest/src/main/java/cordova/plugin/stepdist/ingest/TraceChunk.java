@@ -0,0 +1,215 @@
+//
+// TraceChunk.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains one uploaded chunk of a gravity trace.
+// Lines of "timestamp,x,y,z" with the timestamp in milliseconds since epoch (fractions allowed) and gravity in m/s^2.
+// A chunk is parsed completely before any of its samples is processed, so that a malformed chunk leaves the session unchanged.
+// The numbers are parsed from the bytes without allocations per line, in the same way as by the SensorLogImporter.
+//
+
+package cordova.plugin.stepdist.ingest;
+
+import java.util.Arrays;
+
+final class TraceChunk {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Exact powers of ten for the number parsing, doubles are exact up to 10^22
+    private static final double[] DOUBLE_POWERS = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long[] LONG_POWERS = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+            10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+            1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+    };
+
+    // Digits beyond this are not significant for sensor values and would overflow the mantissa
+    private static final int MAX_DIGITS = 18;
+
+    // Milliseconds to nanoseconds
+    private static final int TIME_EXPONENT = 6;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY]; // Nanoseconds since epoch
+    private double[] values = new double[INITIAL_CAPACITY*3];
+    private int size;
+
+    // Number that has been parsed last
+    private long mantissa;
+    private int exponent;
+    private boolean negative;
+
+    // Parses the given bytes, blank lines and comment lines (starting with #) are skipped
+    static TraceChunk parse(byte[] data, int length) {
+        TraceChunk chunk = new TraceChunk();
+        int lineNumber = 0;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd;
+            while (contentEnd > lineStart && (data[contentEnd-1] == '\r' || data[contentEnd-1] == ' ')) {
+                contentEnd--;
+            }
+            lineNumber++;
+
+            if (contentEnd > lineStart && data[lineStart] != '#' && !chunk.parseLine(data, lineStart, contentEnd)) {
+                throw new IllegalArgumentException("Expected timestamp,x,y,z in line " + lineNumber);
+            }
+            lineStart = lineEnd+1;
+        }
+
+        return chunk;
+    }
+
+    // Parses the four columns of a data line, returns false if one of them is missing or not a number
+    private boolean parseLine(byte[] data, int start, int end) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size*2);
+            values = Arrays.copyOf(values, size*6);
+        }
+
+        int position = start;
+        for (int column = 0; column < 4; column++) {
+            if (column > 0) {
+                if (position >= end || data[position] != ',') {
+                    return false;
+                }
+                position++;
+            }
+
+            position = parseNumber(data, position, end);
+            if (position < 0) {
+                return false;
+            }
+            if (column == 0) {
+                timestamps[size] = toNanoseconds();
+            } else {
+                values[size*3 + column-1] = toDouble();
+            }
+        }
+        if (position != end) {
+            return false;
+        }
+
+        size++;
+        return true;
+    }
+
+    // Parses a decimal number in plain or scientific notation into mantissa, exponent, and negative
+    // Returns the position after the number, or -1 if there is no number at the position
+    private int parseNumber(byte[] data, int position, int end) {
+        while (position < end && data[position] == ' ') {
+            position++;
+        }
+
+        negative = false;
+        if (position < end && (data[position] == '-' || data[position] == '+')) {
+            negative = data[position] == '-';
+            position++;
+        }
+
+        mantissa = 0;
+        exponent = 0;
+        int digits = 0;
+        boolean hasDigits = false;
+        boolean isFraction = false;
+        while (position < end) {
+            byte character = data[position];
+            if (character >= '0' && character <= '9') {
+                hasDigits = true;
+                if (digits < MAX_DIGITS) {
+                    if (mantissa != 0 || character != '0') {
+                        digits++;
+                    }
+                    mantissa = mantissa*10 + (character-'0');
+                    if (isFraction) {
+                        exponent--;
+                    }
+                } else if (!isFraction) {
+                    exponent++;
+                }
+            } else if (!isFraction && character == '.') {
+                isFraction = true;
+            } else {
+                break;
+            }
+            position++;
+        }
+
+        if (!hasDigits) {
+            return -1;
+        }
+
+        if (position < end && (data[position] == 'e' || data[position] == 'E')) {
+            position++;
+            boolean isNegativeExponent = false;
+            if (position < end && (data[position] == '-' || data[position] == '+')) {
+                isNegativeExponent = data[position] == '-';
+                position++;
+            }
+            int scientificExponent = 0;
+            while (position < end && data[position] >= '0' && data[position] <= '9') {
+                scientificExponent = Math.min(scientificExponent*10 + (data[position]-'0'), 1000);
+                position++;
+            }
+            exponent += isNegativeExponent ? -scientificExponent : scientificExponent;
+        }
+
+        while (position < end && data[position] == ' ') {
+            position++;
+        }
+        return position;
+    }
+
+    private double toDouble() {
+        double value;
+        if (exponent >= 0) {
+            value = exponent < DOUBLE_POWERS.length ? mantissa*DOUBLE_POWERS[exponent] : mantissa*Math.pow(10, exponent);
+        } else {
+            value = -exponent < DOUBLE_POWERS.length ? mantissa/DOUBLE_POWERS[-exponent] : mantissa/Math.pow(10, -exponent);
+        }
+
+        return negative ? -value : value;
+    }
+
+    // Integer arithmetic, so that timestamps since epoch keep their nanoseconds
+    private long toNanoseconds() {
+        int nanosecondExponent = exponent + TIME_EXPONENT;
+        long value;
+        if (nanosecondExponent >= 0) {
+            value = nanosecondExponent < LONG_POWERS.length ? mantissa*LONG_POWERS[nanosecondExponent] : Long.MAX_VALUE;
+        } else {
+            value = -nanosecondExponent < LONG_POWERS.length ? mantissa/LONG_POWERS[-nanosecondExponent] : 0;
+        }
+
+        return negative ? -value : value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    double getX(int index) {
+        return values[index*3];
+    }
+
+    double getY(int index) {
+        return values[index*3+1];
+    }
+
+    double getZ(int index) {
+        return values[index*3+2];
+    }
+}
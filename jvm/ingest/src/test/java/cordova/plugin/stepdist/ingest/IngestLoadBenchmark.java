@@ -0,0 +1,52 @@
+//
+// IngestLoadBenchmark.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the load benchmark of the ingest service.
+// Runs the load generator against a local instance with increasing numbers of concurrent sessions, once as fast as possible (throughput) ...
+// ... and once with a chunk per session every 10 seconds (latency of devices that upload periodically).
+//
+
+package cordova.plugin.stepdist.ingest;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+public class IngestLoadBenchmark {
+
+    private static final int[] CONCURRENT_SESSIONS = {1000, 2000, 5000};
+    private static final int CHUNKS_PER_SESSION = 20;
+    private static final int SAMPLES_PER_CHUNK = 500; // 10 seconds at 50 Hz
+    private static final long CHUNK_INTERVAL = 10000; // Milliseconds
+
+    @Test
+    public void measureThroughputAndLatency() throws Exception {
+        IngestServer server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                IngestServer.DEFAULT_MAX_SESSIONS, IngestServer.DEFAULT_IDLE_TIMEOUT);
+        server.start();
+        try {
+            URI baseUri = URI.create("http://localhost:" + server.getPort());
+            LoadGenerator.run(baseUri, 200, 5, SAMPLES_PER_CHUNK, 0); // Warmup
+
+            for (int sessions : CONCURRENT_SESSIONS) {
+                LoadGenerator.Report report = LoadGenerator.run(baseUri, sessions, CHUNKS_PER_SESSION, SAMPLES_PER_CHUNK, 0);
+                System.out.println("Ingest service, as fast as possible: " + report);
+                assertEquals(0, report.failedSessions);
+            }
+            for (int sessions : CONCURRENT_SESSIONS) {
+                LoadGenerator.Report report = LoadGenerator.run(baseUri, sessions, 3, SAMPLES_PER_CHUNK, CHUNK_INTERVAL);
+                System.out.println("Ingest service, a chunk per session every " + CHUNK_INTERVAL/1000 + " s: " + report);
+                assertEquals(0, report.failedSessions);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+//
+// IngestServerTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the tests of the ingest service against a local instance.
+// A trace uploaded in chunks must give the same steps as the step counter on the whole trace, ...
+// ... repeated and missing chunks must not change the result, and the limits must hold under thousands of concurrent sessions.
+//
+
+package cordova.plugin.stepdist.ingest;
+
+import cordova.plugin.stepdist.MotionResampler;
+import cordova.plugin.stepdist.StepCounter;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IngestServerTest {
+
+    private static final int CONCURRENT_SESSIONS = 2000;
+
+    // Regression bound of the difference from the true steps of the walking traces
+    private static final double MAX_STEP_ERROR = 0.05;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private IngestServer server;
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void chunkedUploadMatchesWholeTrace() throws Exception {
+        startServer(IngestServer.DEFAULT_MAX_SESSIONS, IngestServer.DEFAULT_IDLE_TIMEOUT);
+
+        // Three minutes of walking in chunks of different sizes
+        LoadGenerator.WalkingTrace trace = new LoadGenerator.WalkingTrace(3);
+        StringBuilder wholeTrace = new StringBuilder();
+        int[] chunkSizes = {1, 499, 1500, 37, 3000, 2963};
+        JSONObject result = null;
+        for (int chunkNumber = 0; chunkNumber < chunkSizes.length; chunkNumber++) {
+            StringBuilder chunk = new StringBuilder();
+            for (int k = 0; k < chunkSizes[chunkNumber]; k++) {
+                trace.appendSample(chunk);
+            }
+            wholeTrace.append(chunk);
+
+            HttpResponse<String> response = send("POST", "/sessions/walk/chunks?chunk=" + chunkNumber + "&bodyHeight=1.8", chunk.toString());
+            assertEquals(response.body(), 200, response.statusCode());
+            result = new JSONObject(response.body());
+        }
+
+        int steps = countSteps(wholeTrace.toString());
+        assertEquals(steps, result.getInt("steps"));
+        assertEquals(8000, result.getInt("samples"));
+        assertTrue(result.getInt("distance") > 0);
+        assertTrue("Steps " + steps + " of " + trace.getSteps(), Math.abs(steps/(double) trace.getSteps() - 1) <= MAX_STEP_ERROR);
+
+        HttpResponse<String> response = send("DELETE", "/sessions/walk", null);
+        assertEquals(200, response.statusCode());
+        assertEquals(steps, new JSONObject(response.body()).getInt("steps"));
+        assertEquals(0, server.getSessionCount());
+    }
+
+    @Test
+    public void repeatedAndMissingChunks() throws Exception {
+        startServer(IngestServer.DEFAULT_MAX_SESSIONS, IngestServer.DEFAULT_IDLE_TIMEOUT);
+        String chunk = createChunk(new LoadGenerator.WalkingTrace(1), 500);
+
+        assertEquals(404, send("POST", "/sessions/late/chunks?chunk=1", chunk).statusCode());
+        assertEquals(400, send("POST", "/sessions/walk/chunks", chunk).statusCode());
+
+        JSONObject first = new JSONObject(send("POST", "/sessions/walk/chunks?chunk=0", chunk).body());
+        HttpResponse<String> repeated = send("POST", "/sessions/walk/chunks?chunk=0", chunk);
+        assertEquals(200, repeated.statusCode());
+        assertEquals(first.toString(), new JSONObject(repeated.body()).toString());
+
+        HttpResponse<String> missing = send("POST", "/sessions/walk/chunks?chunk=2", chunk);
+        assertEquals(409, missing.statusCode());
+        assertEquals(1, new JSONObject(missing.body()).getInt("chunks"));
+
+        assertEquals(200, send("GET", "/sessions/walk", null).statusCode());
+        assertEquals(200, send("DELETE", "/sessions/walk", null).statusCode());
+        assertEquals(404, send("GET", "/sessions/walk", null).statusCode());
+        assertEquals(404, send("DELETE", "/sessions/walk", null).statusCode());
+    }
+
+    @Test
+    public void limitsAreEnforced() throws Exception {
+        startServer(2, 300);
+        String chunk = createChunk(new LoadGenerator.WalkingTrace(1), 100);
+
+        // A malformed chunk is rejected as a whole and leaves the session unchanged
+        HttpResponse<String> malformed = send("POST", "/sessions/first/chunks?chunk=0", chunk + "1790000000000,1,2\n");
+        assertEquals(400, malformed.statusCode());
+        assertEquals(0, server.getSessionCount());
+        assertEquals(400, send("POST", "/sessions/first/chunks?chunk=0&smoothingTimeframe=100000", chunk).statusCode());
+
+        StringBuilder largeChunk = new StringBuilder();
+        while (largeChunk.length() <= IngestServer.MAX_CHUNK_BYTES) {
+            largeChunk.append(chunk);
+        }
+        assertEquals(413, send("POST", "/sessions/first/chunks?chunk=0", largeChunk.toString()).statusCode());
+
+        assertEquals(200, send("POST", "/sessions/first/chunks?chunk=0", chunk).statusCode());
+        assertEquals(200, send("POST", "/sessions/second/chunks?chunk=0", chunk).statusCode());
+        assertEquals(503, send("POST", "/sessions/third/chunks?chunk=0", chunk).statusCode());
+        assertEquals(1, server.getRejectedSessions());
+
+        // Sessions without requests are evicted, which makes room for new ones
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getSessionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, server.getSessionCount());
+        assertEquals(2, server.getEvictedSessions());
+        assertEquals(200, send("POST", "/sessions/third/chunks?chunk=0", chunk).statusCode());
+    }
+
+    @Test
+    public void thousandsOfConcurrentSessions() throws Exception {
+        startServer(IngestServer.DEFAULT_MAX_SESSIONS, IngestServer.DEFAULT_IDLE_TIMEOUT);
+
+        // Warmup, so that the latencies are those of a running service and not of the compiler
+        LoadGenerator.run(getBaseUri(), 200, 5, 500, 0);
+
+        // Each session uploads 40 seconds of walking in 4 chunks, one chunk every 5 seconds as a device that uploads periodically
+        LoadGenerator.Report report = LoadGenerator.run(getBaseUri(), CONCURRENT_SESSIONS, 4, 500, 5000);
+        System.out.println("Ingest service: " + report);
+
+        assertEquals(0, report.failedSessions);
+        assertEquals(CONCURRENT_SESSIONS*4, report.requests);
+        assertTrue(report.toString(), Math.abs(report.steps/(double) report.trueSteps - 1) <= MAX_STEP_ERROR);
+        assertEquals(0, server.getSessionCount());
+        assertEquals(0, server.getRejectedSessions());
+    }
+
+    // Step counter of the phones on the whole trace, with the same resampling as the service
+    private static int countSteps(String trace) {
+        final StepCounter stepCounter = new StepCounter(0.1, 1.2, 0.35, 0.35, 0.2, 6);
+        stepCounter.setDelegate(new StepCounter.StepCounterDelegate() {
+            public void stepCountDidChange(int count, float frequency) {
+            }
+
+            public void provisionalStepCountDidChange(int provisionalCount) {
+            }
+        });
+        stepCounter.resetData();
+        MotionResampler motionResampler = new MotionResampler(0.1, new MotionResampler.ResamplerDelegate() {
+            public void gridPointDidOccur(long timestamp, double x, double y, double z) {
+                stepCounter.processMotionData(x, y, z, timestamp/1000000);
+            }
+        });
+
+        for (String line : trace.split("\n")) {
+            String[] values = line.split(",");
+            motionResampler.addSample(Math.round(Double.parseDouble(values[0])*1e6),
+                    Double.parseDouble(values[1]), Double.parseDouble(values[2]), Double.parseDouble(values[3]));
+        }
+        return stepCounter.getStepsTotal();
+    }
+
+    private static String createChunk(LoadGenerator.WalkingTrace trace, int samples) {
+        StringBuilder chunk = new StringBuilder();
+        for (int k = 0; k < samples; k++) {
+            trace.appendSample(chunk);
+        }
+        return chunk.toString();
+    }
+
+    private void startServer(int maxSessions, long idleTimeout) throws IOException {
+        server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), maxSessions, idleTimeout);
+        server.start();
+    }
+
+    private URI getBaseUri() {
+        return URI.create("http://localhost:" + server.getPort());
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest.BodyPublisher publisher = body != null ? HttpRequest.BodyPublishers.ofString(body, StandardCharsets.US_ASCII) : HttpRequest.BodyPublishers.noBody();
+        HttpRequest request = HttpRequest.newBuilder(getBaseUri().resolve(path)).method(method, publisher).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
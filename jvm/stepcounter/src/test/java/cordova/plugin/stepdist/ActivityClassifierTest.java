@@ -0,0 +1,121 @@
+//
+// ActivityClassifierTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the tests of the activity classifier on synthetic sessions.
+// Periodic vibrations of a slow vehicle must not be taken for walking, and stairs must only follow the barometric altitude.
+//
+
+package cordova.plugin.stepdist;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActivityClassifierTest {
+
+    private static final double UPDATE_INTERVAL = 0.1;
+    private static final double DURATION = 120;
+    private static final double SETTLE_TIME = 20; // Seconds until the cadence and the activity have settled
+
+    // Noise of the barometric altitude (m)
+    private static final double PRESSURE_ALTITUDE_NOISE = 0.1;
+
+    // Buses, trams, and stop-and-go traffic between the slow vehicle speed and the vehicle speed of the classifier
+    @Test
+    public void periodicVibrationsAtBusSpeedAreVehicle() {
+        for (double speed : new double[]{3, 5, 7}) {
+            double share = classify(SyntheticSession.Mode.VEHICLE, speed, false, 0, ActivityClassifier.activities.vehicle);
+            assertTrue("Vehicle at " + speed + " m/s recognized for " + share, share >= 0.95);
+        }
+    }
+
+    // A run reaches the same speeds, but with the cadence and motion energy that a vehicle does not have
+    @Test
+    public void runAtBusSpeedIsRunning() {
+        for (double speed : new double[]{3, 4}) {
+            double share = classify(SyntheticSession.Mode.RUNNING, speed, false, 0, ActivityClassifier.activities.running);
+            assertTrue("Run at " + speed + " m/s recognized for " + share, share >= 0.95);
+        }
+    }
+
+    @Test
+    public void walkIsWalking() {
+        double share = classify(SyntheticSession.Mode.WALKING, 1.4, false, 0, ActivityClassifier.activities.walking);
+        assertTrue("Walk recognized for " + share, share >= 0.95);
+    }
+
+    // The noise of the barometer must not be taken for stairs, unlike a steady climb
+    @Test
+    public void stairsOnlyFromBarometer() {
+        assertEquals(0, classify(SyntheticSession.Mode.WALKING, 0.5, true, 0, ActivityClassifier.activities.stairs), 0);
+
+        double share = classify(SyntheticSession.Mode.WALKING, 0.5, true, 0.3, ActivityClassifier.activities.stairs);
+        assertTrue("Stairs recognized for " + share, share >= 0.9);
+        share = classify(SyntheticSession.Mode.WALKING, 0.5, true, -0.3, ActivityClassifier.activities.stairs);
+        assertTrue("Stairs down recognized for " + share, share >= 0.9);
+
+        // Without a barometer, even a steady climb is walking, as the GNSS altitude is not considered
+        assertEquals(0, classify(SyntheticSession.Mode.WALKING, 0.5, false, 0.3, ActivityClassifier.activities.stairs), 0);
+    }
+
+    // Feeds a session of the given mode to the step counter and the classifier as the DistanceService does, ...
+    // ... along with a GNSS fix per second and, if given, a barometer sample per second
+    // Returns the share of the time after settling in which the expected activity has been reported
+    private static double classify(SyntheticSession.Mode mode, double speed, boolean hasBarometer, double verticalSpeed, ActivityClassifier.activities expected) {
+        SyntheticSession session = new SyntheticSession(7, new SyntheticSession.Mode[]{mode}, new double[]{DURATION});
+        StepCounter stepCounter = createStepCounter();
+        ActivityClassifier activityClassifier = new ActivityClassifier();
+        Random random = new Random(7);
+
+        int samples = 0;
+        int matches = 0;
+        long nextFixTime = 0;
+        while (session.getTime() < DURATION) {
+            long timestamp = session.getTimeMillis();
+            if (timestamp >= nextFixTime) {
+                activityClassifier.addLocation(timestamp, true, (float) speed);
+                if (hasBarometer) {
+                    activityClassifier.addPressureAltitude(timestamp, session.getTime()*verticalSpeed + random.nextGaussian()*PRESSURE_ALTITUDE_NOISE);
+                }
+                nextFixTime = timestamp + 1000;
+            }
+
+            ActivityClassifier.activities previousActivity = activityClassifier.getActivity();
+            ActivityClassifier.activities activity = activityClassifier.addSample(timestamp, session.getGravityX(), session.getGravityY(), session.getGravityZ(),
+                    stepCounter.getCadence(), stepCounter.getStrideAmplitude());
+            if (activity != previousActivity) {
+                stepCounter.setSuspended(activity == ActivityClassifier.activities.vehicle);
+            }
+            stepCounter.processMotionData(session.getGravityX(), session.getGravityY(), session.getGravityZ(), timestamp);
+
+            if (session.getTime() >= SETTLE_TIME) {
+                samples++;
+                if (activity == expected) {
+                    matches++;
+                }
+            }
+            session.advance(UPDATE_INTERVAL);
+        }
+
+        return (double) matches/samples;
+    }
+
+    private static StepCounter createStepCounter() {
+        StepCounter stepCounter = new StepCounter(UPDATE_INTERVAL, 1.2, 0.35, 0.35, 0.2, 6);
+        stepCounter.setDelegate(new StepCounter.StepCounterDelegate() {
+            public void stepCountDidChange(int count, float frequency) {
+            }
+
+            public void provisionalStepCountDidChange(int provisionalCount) {
+            }
+        });
+        stepCounter.resetData();
+        return stepCounter;
+    }
+}
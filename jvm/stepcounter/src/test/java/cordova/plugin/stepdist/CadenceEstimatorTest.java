@@ -0,0 +1,50 @@
+//
+// CadenceEstimatorTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the tests of the cadence estimator at different update intervals.
+// The window of the sliding DFT is sized in seconds, so the estimate must not depend on the update interval.
+//
+
+package cordova.plugin.stepdist;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class CadenceEstimatorTest {
+
+    private static final double[] UPDATE_INTERVALS = {0.02, 0.05, 0.1, 0.2};
+    private static final double[] STRIDE_FREQUENCIES = {0.5, 0.9, 1.5};
+
+    // Relative error of the estimated step frequency
+    private static final double TOLERANCE = 0.05;
+
+    @Test
+    public void estimateIsIndependentOfTheUpdateInterval() {
+        for (double updateInterval : UPDATE_INTERVALS) {
+            for (double strideFrequency : STRIDE_FREQUENCIES) {
+                double stepsPerSecond = estimate(updateInterval, strideFrequency);
+                System.out.println(String.format(Locale.US, "Cadence at %.2f s and a stride frequency of %.1f Hz: %.3f steps/s (expected %.3f)",
+                        updateInterval, strideFrequency, stepsPerSecond, 2*strideFrequency));
+                assertEquals("Steps per second at " + updateInterval + " s and " + strideFrequency + " Hz",
+                        2*strideFrequency, stepsPerSecond, TOLERANCE*2*strideFrequency);
+            }
+        }
+    }
+
+    // Thigh swing at the stride frequency with a harmonic at the step frequency, as in the gravity sensor data of a trouser pocket
+    private static double estimate(double updateInterval, double strideFrequency) {
+        CadenceEstimator estimator = new CadenceEstimator(updateInterval);
+        for (double time = 0; time < 30; time += updateInterval) {
+            double phase = 2*Math.PI*strideFrequency*time;
+            double swing = 0.35*Math.sin(phase) + 0.1*Math.sin(2*phase+0.5);
+            estimator.addSample(9.81*Math.sin(0.2*swing), 9.81*Math.cos(0.3+swing), 9.81*Math.sin(0.3+swing));
+        }
+        return estimator.getStepsPerSecond();
+    }
+}
@@ -0,0 +1,145 @@
+//
+// GravitySourceReplayTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the replay comparison of both gravity sources.
+// Replays synthetic sessions once with the values of the gravity sensor and once with the raw accelerometer values ...
+// ... through the GravityFilter, both read once per update interval as by the StepCounterThread of the DistanceService.
+// The steps counted in vehicles without the suspension by the activity classification are reported as well.
+//
+
+package cordova.plugin.stepdist;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+public class GravitySourceReplayTest {
+
+    private static final double UPDATE_INTERVAL = 0.1;
+
+    // The accelerometer is sampled at 50 Hz for the GravityFilter, see TrackingScheduler.ACCELEROMETER_UPDATE_INTERVAL
+    private static final double ACCELEROMETER_UPDATE_INTERVAL = 0.02;
+    private static final int ACCELEROMETER_SAMPLES_PER_UPDATE = (int) Math.round(UPDATE_INTERVAL/ACCELEROMETER_UPDATE_INTERVAL);
+
+    private static final int SESSIONS = 8;
+    private static final double SESSION_DURATION = 4*3600;
+
+    // Regression bounds of the differences from the true steps
+    private static final double MAX_GRAVITY_SENSOR_ERROR = 0.01; // Over all sessions
+    private static final double MAX_ACCELEROMETER_ERROR = 0.02; // Of a single session
+    private static final double MAX_ACCELEROMETER_MEAN_ERROR = 0.01; // Mean of the absolute errors of all sessions
+
+    @Test
+    public void compareGravitySensorWithAccelerometer() {
+        int modes = SyntheticSession.Mode.values().length;
+        long[] trueSteps = new long[modes];
+        long[] gravitySteps = new long[modes];
+        long[] accelerometerSteps = new long[modes];
+        long gravityVehicleSteps = 0; // Without suspension, as without the activity classification
+        long accelerometerVehicleSteps = 0;
+        double maxAccelerometerError = 0;
+        double accelerometerErrorSum = 0;
+
+        for (long seed = 0; seed < SESSIONS; seed++) {
+            SyntheticSession session = new SyntheticSession(seed);
+            StepCounter gravityCounter = createStepCounter();
+            StepCounter accelerometerCounter = createStepCounter();
+            accelerometerCounter.setMinStrideAmplitudeFactor(GravityFilter.MIN_STRIDE_AMPLITUDE_FACTOR);
+            StepCounter unsuspendedGravityCounter = createStepCounter();
+            StepCounter unsuspendedAccelerometerCounter = createStepCounter();
+            unsuspendedAccelerometerCounter.setMinStrideAmplitudeFactor(GravityFilter.MIN_STRIDE_AMPLITUDE_FACTOR);
+            GravityFilter gravityFilter = new GravityFilter();
+
+            int sample = 0;
+            while (session.getTime() < SESSION_DURATION) {
+                SyntheticSession.Mode mode = session.getMode();
+                gravityFilter.addSample(Math.round(session.getTime()*1e9), session.getAccelerationX(), session.getAccelerationY(), session.getAccelerationZ());
+
+                if (sample % ACCELEROMETER_SAMPLES_PER_UPDATE == 0) {
+                    int gravityBefore = gravityCounter.getStepsTotal();
+                    int accelerometerBefore = accelerometerCounter.getStepsTotal();
+                    // The vehicle would be detected by GNSS speed, see ActivityClassifier
+                    gravityCounter.setSuspended(mode == SyntheticSession.Mode.VEHICLE);
+                    gravityCounter.processMotionData(session.getGravityX(), session.getGravityY(), session.getGravityZ(), session.getTimeMillis());
+                    accelerometerCounter.setSuspended(mode == SyntheticSession.Mode.VEHICLE);
+                    accelerometerCounter.processMotionData(gravityFilter.getGravityX(), gravityFilter.getGravityY(), gravityFilter.getGravityZ(), session.getTimeMillis());
+                    gravitySteps[mode.ordinal()] += gravityCounter.getStepsTotal() - gravityBefore;
+                    accelerometerSteps[mode.ordinal()] += accelerometerCounter.getStepsTotal() - accelerometerBefore;
+
+                    int unsuspendedGravityBefore = unsuspendedGravityCounter.getStepsTotal();
+                    int unsuspendedAccelerometerBefore = unsuspendedAccelerometerCounter.getStepsTotal();
+                    unsuspendedGravityCounter.processMotionData(session.getGravityX(), session.getGravityY(), session.getGravityZ(), session.getTimeMillis());
+                    unsuspendedAccelerometerCounter.processMotionData(gravityFilter.getGravityX(), gravityFilter.getGravityY(), gravityFilter.getGravityZ(), session.getTimeMillis());
+                    if (mode == SyntheticSession.Mode.VEHICLE) {
+                        gravityVehicleSteps += unsuspendedGravityCounter.getStepsTotal() - unsuspendedGravityBefore;
+                        accelerometerVehicleSteps += unsuspendedAccelerometerCounter.getStepsTotal() - unsuspendedAccelerometerBefore;
+                    }
+                }
+
+                int stepsBefore = session.getSteps();
+                session.advance(ACCELEROMETER_UPDATE_INTERVAL);
+                trueSteps[mode.ordinal()] += session.getSteps() - stepsBefore;
+                sample++;
+            }
+
+            double accelerometerError = Math.abs(accelerometerCounter.getStepsTotal() - session.getSteps())/(double) session.getSteps();
+            maxAccelerometerError = Math.max(maxAccelerometerError, accelerometerError);
+            accelerometerErrorSum += accelerometerError;
+            System.out.println(String.format(Locale.US, "Session %d: %d true steps, gravity sensor %d, accelerometer %d",
+                    seed, session.getSteps(), gravityCounter.getStepsTotal(), accelerometerCounter.getStepsTotal()));
+        }
+
+        long trueTotal = sum(trueSteps);
+        long gravityTotal = sum(gravitySteps);
+        long accelerometerTotal = sum(accelerometerSteps);
+        System.out.println(String.format(Locale.US, "Gravity sources over %d sessions of %.0f h: %d true steps, gravity sensor %d (%+.2f%%), accelerometer %d (%+.2f%%), " +
+                        "difference %+.2f%%, mean absolute error of the accelerometer per session %.1f%% (max %.1f%%)",
+                SESSIONS, SESSION_DURATION/3600, trueTotal,
+                gravityTotal, getError(gravityTotal, trueTotal),
+                accelerometerTotal, getError(accelerometerTotal, trueTotal),
+                getError(accelerometerTotal, gravityTotal),
+                100*accelerometerErrorSum/SESSIONS, 100*maxAccelerometerError));
+        for (SyntheticSession.Mode mode : SyntheticSession.Mode.values()) {
+            int index = mode.ordinal();
+            System.out.println(String.format(Locale.US, "  %s: %d true steps, gravity sensor %d, accelerometer %d",
+                    mode, trueSteps[index], gravitySteps[index], accelerometerSteps[index]));
+        }
+        System.out.println(String.format(Locale.US, "  VEHICLE without suspension: gravity sensor %d, accelerometer %d",
+                gravityVehicleSteps, accelerometerVehicleSteps));
+
+        assertTrue("Gravity sensor error " + getError(gravityTotal, trueTotal) + "%", Math.abs(gravityTotal-trueTotal) <= MAX_GRAVITY_SENSOR_ERROR*trueTotal);
+        assertTrue("Accelerometer error " + 100*maxAccelerometerError + "% in a session", maxAccelerometerError <= MAX_ACCELEROMETER_ERROR);
+        assertTrue("Accelerometer mean error " + 100*accelerometerErrorSum/SESSIONS + "%", accelerometerErrorSum/SESSIONS <= MAX_ACCELEROMETER_MEAN_ERROR);
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    // Relative difference in percent
+    private static double getError(long steps, long reference) {
+        return 100.0*(steps-reference)/reference;
+    }
+
+    private static StepCounter createStepCounter() {
+        StepCounter stepCounter = new StepCounter(UPDATE_INTERVAL, 1.2, 0.35, 0.35, 0.2, 6);
+        stepCounter.setDelegate(new StepCounter.StepCounterDelegate() {
+            public void stepCountDidChange(int count, float frequency) {
+            }
+
+            public void provisionalStepCountDidChange(int provisionalCount) {
+            }
+        });
+        stepCounter.resetData();
+        return stepCounter;
+    }
+}
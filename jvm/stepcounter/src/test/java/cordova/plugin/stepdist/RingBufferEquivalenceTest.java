@@ -0,0 +1,83 @@
+//
+// RingBufferEquivalenceTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the equivalence replay of the ring buffers.
+// Replays synthetic traces through the step counter and through the list-based reference (ListStepCounter) ...
+// ... and requires the same sequence of step events, including frequencies, steps per minute, and step dates.
+//
+
+package cordova.plugin.stepdist;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RingBufferEquivalenceTest {
+
+    private static final int TRACES = 20;
+    private static final int SAMPLES = 20000;
+
+    @Test
+    public void stepEventsMatchListBasedStepCounter() {
+        int steps = 0;
+        for (long seed = 0; seed < TRACES; seed++) {
+            double[][] trace = SyntheticTrace.create(seed, SAMPLES);
+            List<String> expected = replayReference(trace);
+            List<String> actual = replay(trace);
+            assertEquals("Step events of trace " + seed, expected, actual);
+            steps += Integer.parseInt(actual.get(actual.size()-1));
+        }
+
+        System.out.println("Ring buffers: " + TRACES + " traces of " + SAMPLES + " samples gave the same step events as the list-based step counter (" + steps + " steps)");
+    }
+
+    static List<String> replay(double[][] trace) {
+        final List<String> events = new ArrayList<>();
+        final StepCounter stepCounter = new StepCounter(SyntheticTrace.UPDATE_INTERVAL, 1.2, 0.35, 0.35, 0.2, 6);
+        stepCounter.setDelegate(new StepCounter.StepCounterDelegate() {
+            public void stepCountDidChange(int count, float frequency) {
+                events.add(count + ":" + frequency + ":" + stepCounter.getStepsPerMinute() + ":" + stepCounter.getStepDate(count-1));
+            }
+
+            public void provisionalStepCountDidChange(int provisionalCount) {
+            }
+        });
+        stepCounter.resetData();
+
+        long timestamp = 0;
+        for (double[] datapoint : trace) {
+            timestamp += 100;
+            stepCounter.processMotionData(datapoint[0], datapoint[1], datapoint[2], timestamp);
+        }
+        events.add(String.valueOf(stepCounter.getStepsTotal()));
+        return events;
+    }
+
+    static List<String> replayReference(double[][] trace) {
+        final List<String> events = new ArrayList<>();
+        final ListStepCounter stepCounter = new ListStepCounter(SyntheticTrace.UPDATE_INTERVAL, 1.2, 0.35, 0.35, 0.2, 6);
+        stepCounter.setDelegate(new StepCounter.StepCounterDelegate() {
+            public void stepCountDidChange(int count, float frequency) {
+                events.add(count + ":" + frequency + ":" + stepCounter.getStepsPerMinute() + ":" + stepCounter.getStepDate(count-1));
+            }
+
+            public void provisionalStepCountDidChange(int provisionalCount) {
+            }
+        });
+        stepCounter.resetData();
+
+        long timestamp = 0;
+        for (double[] datapoint : trace) {
+            timestamp += 100;
+            stepCounter.processMotionData(datapoint[0], datapoint[1], datapoint[2], timestamp);
+        }
+        events.add(String.valueOf(stepCounter.getStepsTotal()));
+        return events;
+    }
+}
@@ -0,0 +1,63 @@
+//
+// SensorLogImporterBenchmark.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the throughput benchmark of the sensor log importer.
+// Writes a Sensor Logger file of 4 hours at 100 Hz (several mapped chunks) and reports the best throughput of several imports in MB/s and lines/s, ...
+// ... run with: mvn -f jvm/pom.xml -Pbenchmark test
+//
+
+package cordova.plugin.stepdist;
+
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+public class SensorLogImporterBenchmark {
+
+    private static final double SAMPLE_INTERVAL = 0.01;
+    private static final int LINES = 1440000;
+    private static final int REPETITIONS = 5;
+    private static final long EPOCH_NANOS = 1700000000123456789L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void throughput() throws Exception {
+        File file = new File(folder.getRoot(), "Gravity.csv");
+        SyntheticSession session = new SyntheticSession(11);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 20);
+        try {
+            writer.write("time,seconds_elapsed,z,y,x\n");
+            for (int k = 0; k < LINES; k++) {
+                writer.write((EPOCH_NANOS + k*10000000L) + "," + session.getTime() + "," + session.getGravityZ() + "," + session.getGravityY() + "," + session.getGravityX() + "\n");
+                session.advance(SAMPLE_INTERVAL);
+            }
+        } finally {
+            writer.close();
+        }
+
+        long best = Long.MAX_VALUE;
+        JSONObject result = null;
+        for (int repetition = 0; repetition < REPETITIONS; repetition++) {
+            long start = System.nanoTime();
+            result = new SensorLogImporter(SensorLogImporterTest.createStepCounter(), SensorLogImporterTest.UPDATE_INTERVAL).importFile(file, "auto");
+            best = Math.min(best, System.nanoTime()-start);
+        }
+
+        double seconds = best/1e9;
+        System.out.println(String.format(Locale.US, "Sensor log import: %.0f MB/s, %.2f million lines/s (%d MB, %d lines, %d steps, best of %d)",
+                file.length()/1e6/seconds, LINES/1e6/seconds, file.length()/1000000, LINES, result.getInt("steps"), REPETITIONS));
+    }
+}
@@ -0,0 +1,187 @@
+//
+// SensorLogImporterTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the tests of the sensor log importer.
+// Writes the same synthetic session in the formats of several sensor-logging apps and checks that each import counts ...
+// ... the same steps as the step counter that processes the session directly.
+//
+
+package cordova.plugin.stepdist;
+
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensorLogImporterTest {
+
+    static final double UPDATE_INTERVAL = 0.1;
+    private static final int SAMPLES = 36000; // One hour
+    private static final long EPOCH_NANOS = 1700000000123456789L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void gravityFormatsMatchTheDirectCount() throws Exception {
+        Session session = new Session(3, SAMPLES);
+        int expected = session.countDirectly();
+        assertTrue(expected > 0);
+
+        // phyphox: semicolon, decimal comma, scientific notation, seconds since the start
+        File phyphox = write("phyphox.csv", "\"Time (s)\";\"Gravity x (m/s^2)\";\"Gravity y (m/s^2)\";\"Gravity z (m/s^2)\"\r\n", session, new Line() {
+            public String format(int k, double[] gravity, double[] acceleration) {
+                return String.format(Locale.GERMANY, "%.9E;%.9E;%.9E;%.9E\r\n", k*UPDATE_INTERVAL, gravity[0], gravity[1], gravity[2]);
+            }
+        });
+        // Sensor Logger: one file per sensor, nanoseconds since epoch, the axes in reverse order, a broken last line
+        File sensorLogger = write("Gravity.csv", "time,seconds_elapsed,z,y,x\n", session, new Line() {
+            public String format(int k, double[] gravity, double[] acceleration) {
+                return (EPOCH_NANOS + k*100000000L) + "," + k*UPDATE_INTERVAL + "," + gravity[2] + "," + gravity[1] + "," + gravity[0] + (k == SAMPLES-1 ? "\n1,2,NaN,," : "") + "\n";
+            }
+        });
+        // AndroSensor: several sensors in g, the time comes last
+        File androSensor = write("andro.csv", "GYROSCOPE X (rad/s);GYROSCOPE Y (rad/s);GYROSCOPE Z (rad/s);GRAVITY X (g);GRAVITY Y (g);GRAVITY Z (g);Time since start in ms\n", session, new Line() {
+            public String format(int k, double[] gravity, double[] acceleration) {
+                return "0.1;0.2;0.3;" + gravity[0]/StepCounter.GRAVITY + ";" + gravity[1]/StepCounter.GRAVITY + ";" + gravity[2]/StepCounter.GRAVITY + ";" + k*100 + "\n";
+            }
+        });
+
+        for (File file : new File[] {phyphox, sensorLogger, androSensor}) {
+            JSONObject result = importFile(file, "auto");
+            assertTrue(file.getName(), result.getBoolean("gravity"));
+            assertEquals(file.getName(), SAMPLES, result.getLong("samples"));
+            assertEquals(file.getName(), expected, result.getInt("steps"));
+        }
+    }
+
+    @Test
+    public void physicsToolboxColumnsAreInG() throws Exception {
+        Session session = new Session(5, SAMPLES);
+
+        File physicsToolbox = write("physics-toolbox.csv", "time_ms,gFx,gFy,gFz,TgF\n", session, new Line() {
+            public String format(int k, double[] gravity, double[] acceleration) {
+                double x = acceleration[0]/StepCounter.GRAVITY;
+                double y = acceleration[1]/StepCounter.GRAVITY;
+                double z = acceleration[2]/StepCounter.GRAVITY;
+                return k*100 + "," + x + "," + y + "," + z + "," + Math.sqrt(x*x+y*y+z*z) + "\n";
+            }
+        });
+        File accelerometer = write("accelerometer.csv", "time_ms,acceleration x (m/s^2),acceleration y (m/s^2),acceleration z (m/s^2)\n", session, new Line() {
+            public String format(int k, double[] gravity, double[] acceleration) {
+                return k*100 + "," + acceleration[0] + "," + acceleration[1] + "," + acceleration[2] + "\n";
+            }
+        });
+
+        JSONObject result = importFile(physicsToolbox, "auto");
+        JSONObject reference = importFile(accelerometer, "auto");
+        assertFalse(result.getBoolean("gravity"));
+        assertEquals(SAMPLES, result.getLong("samples"));
+        assertEquals(reference.getInt("steps"), result.getInt("steps"));
+        assertTrue("Too few steps: " + result.getInt("steps") + " of " + session.trueSteps, result.getInt("steps") > 0.7*session.trueSteps);
+    }
+
+    // Without a unit in the header, relative timestamps start small in any unit, so the unit follows from the time between rows
+    @Test
+    public void relativeTimeWithoutUnitIsDerivedFromTheRows() throws Exception {
+        Session session = new Session(3, SAMPLES);
+        int expected = session.countDirectly();
+
+        String[] units = {"seconds", "milliseconds", "microseconds", "nanoseconds"};
+        final long[] rowIntervals = {0, 100L, 100000L, 100000000L}; // Time between rows in the respective unit, seconds are written as fractions
+        for (int unit = 0; unit < units.length; unit++) {
+            final long rowInterval = rowIntervals[unit];
+            File file = write(units[unit] + ".csv", "time,gravity x,gravity y,gravity z\n", session, new Line() {
+                public String format(int k, double[] gravity, double[] acceleration) {
+                    String time = rowInterval == 0 ? String.format(Locale.US, "%.1f", k*UPDATE_INTERVAL) : String.valueOf(k*rowInterval);
+                    return time + "," + gravity[0] + "," + gravity[1] + "," + gravity[2] + "\n";
+                }
+            });
+
+            JSONObject result = importFile(file, "auto");
+            assertEquals(units[unit], (SAMPLES-1)*UPDATE_INTERVAL, result.getDouble("durationSeconds"), 1e-6);
+            assertEquals(units[unit], expected, result.getInt("steps"));
+        }
+    }
+
+    static StepCounter createStepCounter() {
+        StepCounter stepCounter = new StepCounter(UPDATE_INTERVAL, 1.2, 0.35, 0.35, 0.2, 6);
+        stepCounter.setDelegate(new StepCounter.StepCounterDelegate() {
+            public void stepCountDidChange(int count, float frequency) {
+            }
+
+            public void provisionalStepCountDidChange(int provisionalCount) {
+            }
+        });
+        return stepCounter;
+    }
+
+    private static JSONObject importFile(File file, String gravitySource) throws Exception {
+        return new SensorLogImporter(createStepCounter(), UPDATE_INTERVAL).importFile(file, gravitySource);
+    }
+
+    private File write(String name, String header, Session session, Line line) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write(header);
+            for (int k = 0; k < session.gravity.length; k++) {
+                writer.write(line.format(k, session.gravity[k], session.acceleration[k]));
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private interface Line {
+        String format(int k, double[] gravity, double[] acceleration);
+    }
+
+    // A synthetic session without vehicles, sampled on the grid of the update interval
+    private static class Session {
+        final double[][] gravity;
+        final double[][] acceleration;
+        final int trueSteps;
+
+        Session(long seed, int samples) {
+            SyntheticSession.Mode[] modes = {SyntheticSession.Mode.WALKING, SyntheticSession.Mode.STILL, SyntheticSession.Mode.RUNNING,
+                    SyntheticSession.Mode.WALKING, SyntheticSession.Mode.STILL, SyntheticSession.Mode.WALKING};
+            double[] durations = {900, 120, 600, 900, 300, 780};
+            SyntheticSession session = new SyntheticSession(seed, modes, durations);
+            gravity = new double[samples][];
+            acceleration = new double[samples][];
+            for (int k = 0; k < samples; k++) {
+                gravity[k] = new double[] {session.getGravityX(), session.getGravityY(), session.getGravityZ()};
+                acceleration[k] = new double[] {session.getAccelerationX(), session.getAccelerationY(), session.getAccelerationZ()};
+                session.advance(UPDATE_INTERVAL);
+            }
+            trueSteps = session.getSteps();
+        }
+
+        // Same datapoints as the import, timestamps since epoch do not matter
+        int countDirectly() {
+            StepCounter stepCounter = createStepCounter();
+            stepCounter.resetData();
+            for (int k = 0; k < gravity.length; k++) {
+                stepCounter.processMotionData(gravity[k][0], gravity[k][1], gravity[k][2], k*100L);
+            }
+            return stepCounter.getStepsTotal();
+        }
+    }
+}
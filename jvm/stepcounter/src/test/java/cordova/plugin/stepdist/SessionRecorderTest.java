@@ -0,0 +1,206 @@
+//
+// SessionRecorderTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the tests of the session recorder.
+// Covers the truncation records, failed exports of corrupt journals, the number of exports that are kept, ...
+// ... and that records are neither lost during a long export nor dropped without a trace.
+//
+
+package cordova.plugin.stepdist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File journalFile;
+    private File exportDirectory;
+    private SessionRecorder sessionRecorder;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = new File(folder.getRoot(), "stepdist-session.bin");
+        exportDirectory = folder.newFolder("exports");
+        sessionRecorder = new SessionRecorder(journalFile, exportDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        sessionRecorder.close();
+    }
+
+    @Test
+    public void exportContainsTruncations() throws Exception {
+        sessionRecorder.start();
+        sessionRecorder.recordStep(1000);
+        sessionRecorder.recordStep(1500);
+        sessionRecorder.recordTruncation(1600, 1);
+        sessionRecorder.recordStep(1550);
+        sessionRecorder.recordDistance(1700, 2, 1, 0);
+
+        Export export = export("csv");
+        assertNull(export.message);
+        String csv = new String(Files.readAllBytes(new File(export.path).toPath()), StandardCharsets.UTF_8);
+        assertEquals("type,timestamp,steps,distance,elevation,latitude,longitude,altitude,accuracy\n" +
+                "step,1000,,,,,,,\n" +
+                "step,1500,,,,,,,\n" +
+                "truncation,1600,1,,,,,,\n" +
+                "step,1550,,,,,,,\n" +
+                "distance,1700,2,1,0,,,,\n", csv);
+    }
+
+    @Test
+    public void failedExportLeavesNoFile() throws Exception {
+        sessionRecorder.start();
+        sessionRecorder.flush();
+        export("csv");
+
+        // A record type that does not exist, e.g., from a journal that was written by a newer version
+        sessionRecorder.close();
+        FileOutputStream output = new FileOutputStream(journalFile, true);
+        output.write(new byte[] {42, 0, 0, 0, 0, 0, 0, 0, 0});
+        output.close();
+        sessionRecorder = new SessionRecorder(journalFile, exportDirectory);
+
+        Export export = export("csv");
+        assertNull(export.path);
+        assertNotNull(export.message);
+        assertEquals(1, exportDirectory.listFiles().length);
+    }
+
+    @Test
+    public void oldExportsAreDeleted() throws Exception {
+        sessionRecorder.start();
+        sessionRecorder.recordStep(1000);
+        String path = null;
+        for (int k = 0; k < 10; k++) {
+            path = export(k % 2 == 0 ? "csv" : "gpx").path;
+            // The exports are ordered by their modification time, which may have a resolution of a second
+            new File(path).setLastModified(k*1000L);
+        }
+
+        File[] exports = exportDirectory.listFiles();
+        assertEquals(3, exports.length);
+        assertTrue(new File(path).exists());
+    }
+
+    // A long export runs from a snapshot of the journal, the records that arrive meanwhile are written and left for the next export
+    @Test
+    public void recordsAreKeptDuringLongExport() throws Exception {
+        sessionRecorder.start();
+        sessionRecorder.recordStep(1000);
+        final CountDownLatch exportStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Export firstExport = new Export();
+        sessionRecorder.export("csv", new SessionRecorder.ExportCallback() {
+            public void exportDidFinish(String path, long droppedRecords) {
+                firstExport.path = path;
+                exportStarted.countDown();
+                await(release);
+            }
+
+            public void exportDidFail(String message) {
+                exportStarted.countDown();
+                await(release);
+            }
+        });
+        assertTrue(exportStarted.await(10, TimeUnit.SECONDS));
+
+        for (int k = 0; k < 10000; k++) {
+            sessionRecorder.recordStep(2000+k);
+        }
+        release.countDown();
+
+        Export export = export("csv");
+        assertEquals(0, export.droppedRecords);
+        assertEquals(0, sessionRecorder.getDroppedRecords());
+        assertEquals(1, countRows(firstExport.path, "step,"));
+        assertEquals(10001, countRows(export.path, "step,"));
+    }
+
+    @Test
+    public void droppedRecordsAreExported() throws Exception {
+        sessionRecorder.close();
+        sessionRecorder = new SessionRecorder(journalFile, exportDirectory, 0);
+        sessionRecorder.start();
+        for (int k = 0; k < 3; k++) {
+            sessionRecorder.recordStep(1000+k);
+        }
+
+        Export export = export("csv");
+        assertEquals(3, export.droppedRecords);
+        String csv = new String(Files.readAllBytes(new File(export.path).toPath()), StandardCharsets.UTF_8);
+        assertEquals("type,timestamp,steps,distance,elevation,latitude,longitude,altitude,accuracy\n" +
+                "dropped,,3,,,,,,\n", csv);
+
+        export = export("gpx");
+        assertEquals(3, export.droppedRecords);
+        String gpx = new String(Files.readAllBytes(new File(export.path).toPath()), StandardCharsets.UTF_8);
+        assertTrue(gpx.contains("<metadata><desc>Dropped records: 3</desc></metadata>"));
+    }
+
+    private Export export(String format) throws InterruptedException {
+        final Export export = new Export();
+        final CountDownLatch done = new CountDownLatch(1);
+        sessionRecorder.export(format, new SessionRecorder.ExportCallback() {
+            public void exportDidFinish(String path, long droppedRecords) {
+                export.path = path;
+                export.droppedRecords = droppedRecords;
+                done.countDown();
+            }
+
+            public void exportDidFail(String message) {
+                export.message = message;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return export;
+    }
+
+    private static int countRows(String path, String prefix) throws IOException {
+        int rows = 0;
+        for (String line : Files.readAllLines(new File(path).toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith(prefix)) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Export {
+        String path;
+        long droppedRecords;
+        String message;
+    }
+}
@@ -0,0 +1,52 @@
+//
+// StepCounterBenchmark.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the benchmark of the step counter against the list-based reference (ListStepCounter).
+// Reports the best time per sample of several replays of the same trace, run with: mvn -f jvm/pom.xml -Pbenchmark test
+//
+
+package cordova.plugin.stepdist;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+public class StepCounterBenchmark {
+
+    private static final int SAMPLES = 200000;
+    private static final int REPETITIONS = 8;
+
+    @Test
+    public void timePerSample() {
+        double[][] trace = SyntheticTrace.create(7, SAMPLES);
+
+        double reference = Double.MAX_VALUE;
+        double current = Double.MAX_VALUE;
+        for (int repetition = 0; repetition < REPETITIONS; repetition++) {
+            long start = System.nanoTime();
+            RingBufferEquivalenceTest.replayReference(trace);
+            long middle = System.nanoTime();
+            RingBufferEquivalenceTest.replay(trace);
+            long end = System.nanoTime();
+            reference = Math.min(reference, (middle-start)/(double) SAMPLES);
+            current = Math.min(current, (end-middle)/(double) SAMPLES);
+        }
+
+        // Both implementations share the cadence estimator
+        double cadence = Double.MAX_VALUE;
+        for (int repetition = 0; repetition < REPETITIONS; repetition++) {
+            CadenceEstimator cadenceEstimator = new CadenceEstimator(SyntheticTrace.UPDATE_INTERVAL);
+            long start = System.nanoTime();
+            for (double[] datapoint : trace) {
+                cadenceEstimator.addSample(datapoint[0], datapoint[1], datapoint[2]);
+            }
+            cadence = Math.min(cadence, (System.nanoTime()-start)/(double) SAMPLES);
+        }
+
+        System.out.println(String.format(Locale.US, "Step counter: list-based %.0f ns/sample, ring buffers %.0f ns/sample, of which the cadence estimator %.0f ns/sample (%d samples, best of %d)",
+                reference, current, cadence, SAMPLES, REPETITIONS));
+    }
+}
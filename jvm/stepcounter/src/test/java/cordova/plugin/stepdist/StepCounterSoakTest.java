@@ -0,0 +1,201 @@
+//
+// StepCounterSoakTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the soak suite of the step counter.
+// Runs the step counter (with its step timeline, cadence estimator, and provisional step detector) over a synthetic day ...
+// ... of lying still, walking, running, and riding vehicles, and fails if it exceeds the heap, allocation, or latency budgets.
+//
+
+package cordova.plugin.stepdist;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StepCounterSoakTest {
+
+    private static final double UPDATE_INTERVAL = 0.1;
+    private static final int HOURS = 24;
+    private static final int SAMPLES_PER_HOUR = (int) Math.round(3600/UPDATE_INTERVAL);
+
+    // The first hour warms up the JIT compiler and is not part of the allocation and latency budgets
+    private static final int WARMUP_HOURS = 1;
+
+    // Budgets, the build fails if one of them is exceeded
+    private static final long RETAINED_HEAP_BUDGET = 512*1024; // Bytes reachable from the step counter at the end of the day
+    private static final long HEAP_GROWTH_BUDGET = 256*1024; // Bytes the retained heap may grow after the warmup
+    private static final double ALLOCATION_BUDGET = 2; // Bytes allocated by the step counter per sample on average, only a pattern break or a new representative stride allocates
+    private static final long LATENCY_P99_BUDGET = 25000; // Nanoseconds to process a sample
+    private static final long LATENCY_P999_BUDGET = 250000;
+    private static final double LATENCY_GROWTH_BUDGET = 2; // Mean latency of the last hour relative to the first hour after the warmup
+    private static final int SNAPSHOT_BUDGET = 256*1024; // Bytes of a pause snapshot
+
+    // Pauses are simulated with a snapshot of the state, as the DistanceService takes one
+    private static final int SNAPSHOT_HOURS = 2;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void dayOfMixedActivity() {
+        soak(1, false);
+    }
+
+    @Test
+    public void dayOfMixedActivityWithProvisionalSteps() {
+        soak(2, true);
+    }
+
+    private void soak(long seed, boolean provisionalSteps) {
+        SyntheticSession session = new SyntheticSession(seed);
+        LatencyHistogram latencies = new LatencyHistogram();
+        double[] hourlyLatency = new double[HOURS];
+        int[] truth = new int[SyntheticSession.Mode.values().length];
+        int[] counted = new int[truth.length];
+        final int[] stepEvents = new int[1];
+
+        long baselineHeap = getRetainedHeap();
+        StepCounter stepCounter = new StepCounter(UPDATE_INTERVAL, 1.2, 0.35, 0.35, 0.2, 6);
+        stepCounter.setDelegate(new StepCounter.StepCounterDelegate() {
+            public void stepCountDidChange(int count, float frequency) {
+                stepEvents[0]++;
+            }
+
+            public void provisionalStepCountDidChange(int provisionalCount) {
+            }
+        });
+        stepCounter.setProvisionalSteps(provisionalSteps);
+        stepCounter.resetData();
+
+        long warmHeap = 0;
+        long allocation = 0; // Bytes allocated by the step counter after the warmup
+        int maxSnapshot = 0;
+        for (int hour = 0; hour < HOURS; hour++) {
+            if (hour == WARMUP_HOURS) {
+                warmHeap = getRetainedHeap() - baselineHeap;
+            }
+
+            long hourStart = System.nanoTime();
+            for (int sample = 0; sample < SAMPLES_PER_HOUR; sample++) {
+                SyntheticSession.Mode mode = session.getMode();
+                int steps = stepCounter.getStepsTotal();
+                int trueSteps = session.getSteps();
+
+                long allocationStart = getAllocatedBytes();
+                long start = System.nanoTime();
+                // The vehicle would be detected by GNSS speed, see ActivityClassifier
+                stepCounter.setSuspended(mode == SyntheticSession.Mode.VEHICLE);
+                stepCounter.processMotionData(session.getGravityX(), session.getGravityY(), session.getGravityZ(), session.getTimeMillis());
+                stepCounter.getProvisionalStepsTotal();
+                stepCounter.getStepsPerMinute();
+                long latency = System.nanoTime() - start;
+                if (hour >= WARMUP_HOURS) {
+                    latencies.add(latency);
+                    allocation += getAllocatedBytes() - allocationStart;
+                }
+
+                session.advance(UPDATE_INTERVAL);
+                truth[mode.ordinal()] += session.getSteps() - trueSteps;
+                counted[mode.ordinal()] += stepCounter.getStepsTotal() - steps;
+            }
+            hourlyLatency[hour] = (System.nanoTime() - hourStart)/(double) SAMPLES_PER_HOUR;
+
+            if ((hour+1) % SNAPSHOT_HOURS == 0) {
+                int steps = stepCounter.getStepsTotal();
+                byte[] snapshot = stepCounter.saveState();
+                maxSnapshot = Math.max(maxSnapshot, snapshot.length);
+                assertTrue(stepCounter.restoreState(snapshot));
+                assertEquals(steps, stepCounter.getStepsTotal());
+                assertArrayEquals(snapshot, stepCounter.saveState());
+            }
+        }
+        double allocationPerSample = allocation/(double) ((HOURS-WARMUP_HOURS)*SAMPLES_PER_HOUR);
+        long retainedHeap = getRetainedHeap() - baselineHeap;
+        assertTrue(stepEvents[0] > 0 && stepCounter.getStepsTotal() > 0);
+
+        double lastHourLatency = hourlyLatency[HOURS-1];
+        double firstHourLatency = Double.MAX_VALUE;
+        for (int hour = WARMUP_HOURS; hour < Math.min(HOURS, WARMUP_HOURS+3); hour++) {
+            firstHourLatency = Math.min(firstHourLatency, hourlyLatency[hour]);
+        }
+
+        int walkingTruth = truth[SyntheticSession.Mode.WALKING.ordinal()] + truth[SyntheticSession.Mode.RUNNING.ordinal()];
+        int walkingCounted = counted[SyntheticSession.Mode.WALKING.ordinal()] + counted[SyntheticSession.Mode.RUNNING.ordinal()];
+        System.out.println(String.format(Locale.US,
+                "Soak %dh (seed %d, provisional %b): %d of %d steps while walking or running, %d in vehicles (suspended), %d while still; " +
+                        "retained heap %d KB (+%d KB after warmup), %.1f B/sample, latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us, " +
+                        "mean %.0f ns/sample in the first and %.0f ns/sample in the last hour, snapshot %d KB",
+                HOURS, seed, provisionalSteps, walkingCounted, walkingTruth,
+                counted[SyntheticSession.Mode.VEHICLE.ordinal()], counted[SyntheticSession.Mode.STILL.ordinal()],
+                retainedHeap/1024, (retainedHeap-warmHeap)/1024, allocationPerSample,
+                latencies.getPercentile(0.5)/1000.0, latencies.getPercentile(0.99)/1000.0, latencies.getPercentile(0.999)/1000.0, latencies.getMax()/1000.0,
+                firstHourLatency, lastHourLatency, maxSnapshot/1024));
+
+        // The soak is only meaningful if the synthetic walking is counted
+        assertTrue("Too few steps counted: " + walkingCounted + " of " + walkingTruth, walkingCounted > 0.9*walkingTruth);
+        assertEquals("Steps counted while suspended", 0, counted[SyntheticSession.Mode.VEHICLE.ordinal()]);
+
+        assertTrue("Retained heap " + retainedHeap + " B exceeds the budget", retainedHeap <= RETAINED_HEAP_BUDGET);
+        assertTrue("Retained heap grew by " + (retainedHeap-warmHeap) + " B after the warmup", retainedHeap-warmHeap <= HEAP_GROWTH_BUDGET);
+        assertTrue("Allocation of " + allocationPerSample + " B/sample exceeds the budget", allocationPerSample <= ALLOCATION_BUDGET);
+        assertTrue("Latency p99 of " + latencies.getPercentile(0.99) + " ns exceeds the budget", latencies.getPercentile(0.99) <= LATENCY_P99_BUDGET);
+        assertTrue("Latency p99.9 of " + latencies.getPercentile(0.999) + " ns exceeds the budget", latencies.getPercentile(0.999) <= LATENCY_P999_BUDGET);
+        assertTrue("Mean latency grew from " + firstHourLatency + " ns to " + lastHourLatency + " ns", lastHourLatency <= LATENCY_GROWTH_BUDGET*firstHourLatency);
+        assertTrue("Snapshot of " + maxSnapshot + " B exceeds the budget", maxSnapshot <= SNAPSHOT_BUDGET);
+    }
+
+    // Heap in use after full collections, the minimum of several collections to exclude objects of other threads in flight
+    private static long getRetainedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int k = 0; k < 5; k++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    // Bytes allocated by the current thread so far, the call itself does not allocate
+    private static long getAllocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Histogram of latencies in buckets of 100 nanoseconds up to 10 milliseconds, so that recording does not allocate
+    static class LatencyHistogram {
+        private static final long BUCKET = 100;
+        private final long[] counts = new long[100000];
+        private long total;
+        private long max;
+
+        void add(long latency) {
+            counts[(int) Math.min(counts.length-1, latency/BUCKET)]++;
+            total++;
+            max = Math.max(max, latency);
+        }
+
+        // Upper end of the bucket that holds the percentile
+        long getPercentile(double percentile) {
+            long rank = (long) Math.ceil(percentile*total);
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    return (bucket+1)*BUCKET;
+                }
+            }
+            return max;
+        }
+
+        long getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+//
+// SyntheticSession.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains a generator of synthetic sensor sessions.
+// Models a phone in the trouser pocket that is lying still, walking, running, or riding a vehicle, and provides ...
+// ... the gravity sensor values, the raw accelerometer values, and the true number of steps at any time.
+// A walking stride swings the thigh (and with it the gravity direction) once, every step adds an impact along gravity.
+//
+
+package cordova.plugin.stepdist;
+
+import java.util.Random;
+
+final class SyntheticSession {
+
+    enum Mode { STILL, WALKING, RUNNING, VEHICLE }
+
+    private static final double G = 9.81;
+
+    // Distance of the phone from the hip (m), turns the angular acceleration of the thigh into a linear one
+    private static final double THIGH_RADIUS = 0.3;
+
+    private final Random random;
+    private final Mode[] script; // Fixed schedule, null for a random one
+    private final double[] scriptDurations;
+    private int scriptPosition;
+
+    private double time; // Seconds since the start
+    private Mode mode;
+    private double modeEnd;
+
+    // Parameters of the current segment
+    private double basePitch;
+    private double baseRoll;
+    private double strideFrequency; // Hz, one stride equals two steps
+    private double swingAmplitude; // Radians of the thigh swing
+    private double impactAmplitude; // m/s^2 of the step impacts
+    private double frequencyDrift;
+
+    private double phase; // Radians of the stride cycle, counts the steps in pi
+    private double stepPhase;
+    private int steps;
+
+    private double swayPhase;
+    private double roadAcceleration; // Random walk of the longitudinal acceleration in a vehicle
+
+    private final double[] gravity = new double[3];
+    private final double[] acceleration = new double[3];
+
+    // Random schedule of all modes with segments between 20 seconds and 15 minutes
+    SyntheticSession(long seed) {
+        this(seed, null, null);
+    }
+
+    // Fixed schedule, the session stays still after the last segment
+    SyntheticSession(long seed, Mode[] modes, double[] durations) {
+        random = new Random(seed);
+        script = modes;
+        scriptDurations = durations;
+        startSegment();
+        update(0);
+    }
+
+    double getTime() {
+        return time;
+    }
+
+    long getTimeMillis() {
+        return Math.round(time*1000);
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    // True number of steps since the start
+    int getSteps() {
+        return steps;
+    }
+
+    double getGravityX() {
+        return gravity[0];
+    }
+
+    double getGravityY() {
+        return gravity[1];
+    }
+
+    double getGravityZ() {
+        return gravity[2];
+    }
+
+    double getAccelerationX() {
+        return acceleration[0];
+    }
+
+    double getAccelerationY() {
+        return acceleration[1];
+    }
+
+    double getAccelerationZ() {
+        return acceleration[2];
+    }
+
+    // Moves the session forward, the values then describe the new time
+    void advance(double seconds) {
+        time += seconds;
+        if (time >= modeEnd) {
+            startSegment();
+        }
+        update(seconds);
+    }
+
+    private void startSegment() {
+        if (script != null) {
+            if (scriptPosition < script.length) {
+                mode = script[scriptPosition];
+                modeEnd = time + scriptDurations[scriptPosition];
+                scriptPosition++;
+            } else {
+                mode = Mode.STILL;
+                modeEnd = Double.MAX_VALUE;
+            }
+        } else {
+            double draw = random.nextDouble();
+            mode = draw < 0.4 ? Mode.STILL : draw < 0.75 ? Mode.WALKING : draw < 0.85 ? Mode.RUNNING : Mode.VEHICLE;
+            modeEnd = time + 20*Math.pow(45, random.nextDouble());
+        }
+
+        basePitch = 0.1 + 0.3*random.nextDouble();
+        baseRoll = -0.3 + 0.6*random.nextDouble();
+        frequencyDrift = 0;
+        if (mode == Mode.WALKING) {
+            strideFrequency = 0.8 + 0.2*random.nextDouble();
+            swingAmplitude = 0.25 + 0.2*random.nextDouble();
+            impactAmplitude = 2 + random.nextDouble();
+        } else if (mode == Mode.RUNNING) {
+            strideFrequency = 1.3 + 0.2*random.nextDouble();
+            swingAmplitude = 0.5 + 0.2*random.nextDouble();
+            impactAmplitude = 6 + 4*random.nextDouble();
+        }
+    }
+
+    private void update(double seconds) {
+        double pitch = basePitch;
+        double roll = baseRoll;
+        double along = 0; // Linear acceleration along gravity
+        double forward = 0; // Linear acceleration along the z-axis of the phone
+
+        if (mode == Mode.WALKING || mode == Mode.RUNNING) {
+            // The cadence drifts slowly within a segment
+            frequencyDrift = Math.max(-0.05, Math.min(0.05, frequencyDrift + 0.002*random.nextGaussian()*Math.sqrt(seconds)));
+            double frequency = strideFrequency*(1+frequencyDrift);
+            phase += 2*Math.PI*frequency*seconds;
+            while (phase - stepPhase >= Math.PI) {
+                stepPhase += Math.PI;
+                steps++;
+            }
+
+            double swing = Math.sin(phase) + 0.15*Math.sin(2*phase+0.5);
+            pitch += swingAmplitude*swing;
+            roll += 0.2*swingAmplitude*swing;
+            double angularFrequency = 2*Math.PI*frequency;
+            forward = -THIGH_RADIUS*swingAmplitude*angularFrequency*angularFrequency*Math.sin(phase);
+            // Each step is a bounce with a sharp heel strike
+            double bounce = Math.cos(2*phase);
+            along = impactAmplitude*(0.6*bounce + Math.pow(Math.max(0, bounce), 8));
+        } else if (mode == Mode.VEHICLE) {
+            swayPhase += 2*Math.PI*0.3*seconds;
+            pitch += 0.04*Math.sin(swayPhase);
+            roll += 0.03*Math.sin(1.7*swayPhase);
+            roadAcceleration = Math.max(-2, Math.min(2, roadAcceleration + 0.3*random.nextGaussian()*Math.sqrt(seconds)));
+            forward = roadAcceleration + 0.6*Math.sin(2*Math.PI*17*time);
+        } else {
+            phase = stepPhase;
+        }
+
+        gravity[0] = G*Math.cos(pitch)*Math.sin(roll);
+        gravity[1] = G*Math.cos(pitch)*Math.cos(roll);
+        gravity[2] = G*Math.sin(pitch);
+
+        double gravityNoise = mode == Mode.STILL ? 0.005 : 0.03;
+        double accelerationNoise = mode == Mode.STILL ? 0.02 : mode == Mode.VEHICLE ? 0.4 : 0.2;
+        for (int axis = 0; axis <= 2; axis++) {
+            acceleration[axis] = gravity[axis]*(1 + along/G) + accelerationNoise*random.nextGaussian();
+            gravity[axis] += gravityNoise*random.nextGaussian();
+        }
+        acceleration[2] += forward;
+    }
+}
@@ -0,0 +1,57 @@
+//
+// SyntheticTrace.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains a generator of synthetic gravity traces at an update interval of 0.1 seconds.
+// Alternates between idle segments, walking-like segments of varying cadence and amplitude, and jitter ...
+// ... with noise on all axes. Used for the replays that compare two implementations, see SyntheticSession for realistic sessions.
+//
+
+package cordova.plugin.stepdist;
+
+import java.util.Random;
+
+final class SyntheticTrace {
+
+    static final double UPDATE_INTERVAL = 0.1;
+
+    private SyntheticTrace() {
+    }
+
+    // Returns the datapoints, each having a x-, y-, and z-axis
+    static double[][] create(long seed, int samples) {
+        Random random = new Random(seed);
+        double[][] trace = new double[samples][3];
+        double phase = 0;
+        int mode = 0;
+        int remaining = 0;
+        double frequency = 0.9;
+        double amplitude = 2.0;
+
+        for (int k = 0; k < samples; k++) {
+            if (remaining-- <= 0) {
+                mode = random.nextInt(4);
+                remaining = 50 + random.nextInt(600);
+                frequency = 0.6 + random.nextDouble()*1.2;
+                amplitude = 0.5 + random.nextDouble()*4;
+            }
+            phase += 2*Math.PI*frequency*UPDATE_INTERVAL;
+
+            double signal;
+            if (mode == 0) {
+                signal = 0;
+            } else if (mode == 3) {
+                signal = amplitude*0.3*Math.sin(phase*3.1);
+            } else {
+                signal = amplitude*Math.sin(phase) + 0.4*amplitude*Math.sin(2*phase+0.7);
+            }
+            trace[k][0] = 1.0 + signal*0.3 + random.nextGaussian()*0.15;
+            trace[k][1] = 9.0 + signal + random.nextGaussian()*0.2;
+            trace[k][2] = 2.0 - 0.5*signal + random.nextGaussian()*0.1;
+        }
+
+        return trace;
+    }
+}
@@ -0,0 +1,383 @@
+//
+// TrackingScheduleSimulationTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the simulation of the tracking schedule.
+// Drives the TrackingScheduler of the DistanceService on a virtual clock with a fake motion sensor and a fake GNSS receiver, ...
+// ... which replay a synthetic session, and reports per simulated hour the wakeups, the active processing time, ...
+// ... the GNSS-on time, and the events sent over the bridge of each configuration.
+// The processing of the datapoints (activity classification, suspension, step counter, step batches) is the same as in the DistanceService, ...
+// ... with the GNSS duty cycle the calibration windows of the DistanceService are emulated instead of the activity classification.
+//
+
+package cordova.plugin.stepdist;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrackingScheduleSimulationTest {
+
+    private static final double MILLISECONDS_PER_HOUR = 3600000;
+
+    // The session is precomputed on the grid of the fastest sensor rate, so that the generation is not part of the processing time
+    private static final long GRID_INTERVAL = 20; // Milliseconds
+    private static final SyntheticSession.Mode[] MODES = {
+            SyntheticSession.Mode.STILL, SyntheticSession.Mode.WALKING, SyntheticSession.Mode.VEHICLE,
+            SyntheticSession.Mode.RUNNING, SyntheticSession.Mode.STILL, SyntheticSession.Mode.WALKING};
+    private static final double[] DURATIONS = {1200, 1500, 900, 600, 1800, 1200};
+    private static final long SESSION_DURATION = 7200000; // Milliseconds
+
+    // GNSS fixes once per second, not aligned with the sensor events, at the typical speed of each mode (m/s)
+    private static final long GNSS_INTERVAL = 1000;
+    private static final long GNSS_PHASE = 437;
+    private static final double[] SPEEDS = {0, 1.4, 3, 12};
+    private static final double DISTANCE_WALKED_TO_CALIBRATE = 40; // Meters, as set by the plugin by default
+
+    // Settings of the StepBatcher as subscribed by the plugin by default
+    private static final int MAX_BATCH_SIZE = 32;
+    private static final long MAX_BATCH_DELAY = 1000;
+
+    // Regression bounds of the difference from the true steps of each configuration, see GravitySourceReplayTest
+    private static final double MAX_GRAVITY_SENSOR_ERROR = 0.05;
+    private static final double MAX_ACCELEROMETER_ERROR = 0.05;
+
+    private static float[][] gravity;
+    private static float[][] acceleration;
+    private static SyntheticSession.Mode[] modes;
+    private static double[] traveledDistance; // Meters since the start
+    private static int trueSteps;
+
+    @BeforeClass
+    public static void createSession() {
+        int samples = (int) (SESSION_DURATION/GRID_INTERVAL) + 1;
+        gravity = new float[3][samples];
+        acceleration = new float[3][samples];
+        modes = new SyntheticSession.Mode[samples];
+        traveledDistance = new double[samples];
+
+        SyntheticSession session = new SyntheticSession(7, MODES, DURATIONS);
+        for (int k = 0; k < samples; k++) {
+            gravity[0][k] = (float) session.getGravityX();
+            gravity[1][k] = (float) session.getGravityY();
+            gravity[2][k] = (float) session.getGravityZ();
+            acceleration[0][k] = (float) session.getAccelerationX();
+            acceleration[1][k] = (float) session.getAccelerationY();
+            acceleration[2][k] = (float) session.getAccelerationZ();
+            modes[k] = session.getMode();
+            if (k > 0) {
+                traveledDistance[k] = traveledDistance[k-1] + SPEEDS[modes[k].ordinal()]*GRID_INTERVAL/1000.0;
+            }
+            session.advance(GRID_INTERVAL/1000.0);
+        }
+        trueSteps = session.getSteps();
+    }
+
+    @Test
+    public void compareConfigurations() throws JSONException {
+        Configuration[] configurations = {
+                new Configuration("timer 0.1 s, gravity sensor", 0.1, false, false, 0, false),
+                new Configuration("timer 0.05 s, gravity sensor", 0.05, false, false, 0, false),
+                new Configuration("timer 0.1 s, accelerometer", 0.1, true, false, 0, false),
+                new Configuration("adaptive 0.1 s, gravity sensor", 0.1, false, true, 0, false),
+                new Configuration("adaptive 0.1 s, accelerometer", 0.1, true, true, 0, false),
+                new Configuration("timer 0.1 s, gravity sensor, distance filter 10 m", 0.1, false, false, 10, false),
+                new Configuration("timer 0.1 s, gravity sensor, GNSS duty cycle", 0.1, false, false, 0, true)};
+
+        // The first configuration runs once before, so that the JIT compilation is not counted as processing time
+        new Simulation(configurations[0]).run();
+
+        Simulation[] simulations = new Simulation[configurations.length];
+        double hours = SESSION_DURATION/MILLISECONDS_PER_HOUR;
+        System.out.println(String.format(Locale.US, "Tracking schedule over %.0f simulated hours with %d true steps, per hour:", hours, trueSteps));
+        for (int k = 0; k < configurations.length; k++) {
+            Simulation simulation = new Simulation(configurations[k]);
+            simulation.run();
+            simulations[k] = simulation;
+
+            System.out.println(String.format(Locale.US, "  %s: %.0f wakeups, %.1f ms processing, %.1f min GNSS on, %.0f bridge events " +
+                            "(%.0f sensor events, %.0f location events, %d steps)",
+                    configurations[k].name, simulation.clock.getWakeups()/hours, simulation.clock.getProcessingNanos()/1e6/hours,
+                    simulation.gnssMillis/60000.0/hours, simulation.bridgeEvents/hours, simulation.sensorEvents/hours,
+                    simulation.locationEvents/hours, simulation.stepCounter.getStepsTotal()));
+        }
+
+        for (Simulation simulation : simulations) {
+            Configuration configuration = simulation.configuration;
+            JSONObject powerStats = simulation.powerStats;
+
+            // The resources are held for the whole session (GNSS only without the duty cycle), the power monitor on the device counts the same times
+            if (!configuration.gnssDutyCycle) {
+                assertEquals(configuration.name, SESSION_DURATION, simulation.gnssMillis);
+            }
+            assertEquals(configuration.name, SESSION_DURATION, simulation.wakeLockMillis);
+            assertEquals(configuration.name, simulation.gnssMillis, powerStats.getLong("gnssMillis"));
+            assertEquals(configuration.name, simulation.wakeLockMillis, powerStats.getLong("wakeLockMillis"));
+            assertEquals(configuration.name, simulation.sensorEvents, powerStats.getLong("sensorEvents"));
+            assertEquals(configuration.name, simulation.locationEvents, powerStats.getLong("locationEvents"));
+
+            // The timer fires once per update interval while tracking, adaptive sampling gets by without it
+            long expectedTimerTicks = configuration.adaptiveSampling ? 0 : Math.round(SESSION_DURATION/(configuration.updateInterval*1000));
+            assertEquals(configuration.name, expectedTimerTicks, powerStats.getLong("timerTicks"), 1);
+
+            double stepError = simulation.stepCounter.getStepsTotal()/(double) trueSteps - 1;
+            double maxStepError = configuration.useAccelerometer ? MAX_ACCELEROMETER_ERROR : MAX_GRAVITY_SENSOR_ERROR;
+            assertTrue(configuration.name + ": step error of " + stepError, Math.abs(stepError) <= maxStepError);
+            assertEquals(configuration.name, simulation.stepCounter.getStepsTotal(), simulation.stepsDispatched);
+            assertTrue(configuration.name, simulation.bridgeEvents > 0);
+        }
+
+        // Adaptive sampling reduces the rate of either motion sensor while the device is not moved and does without the timer
+        assertTrue(simulations[3].clock.getWakeups() < simulations[0].clock.getWakeups());
+        assertTrue(simulations[3].powerStats.getLong("lowRateMillis") > 0);
+        assertTrue(simulations[4].clock.getWakeups() < simulations[2].clock.getWakeups());
+        assertTrue(simulations[4].sensorEvents < simulations[2].sensorEvents);
+        assertTrue(simulations[4].powerStats.getLong("lowRateMillis") > 0);
+        // A shorter update interval adds wakeups, the accelerometer needs a higher rate than the gravity sensor
+        assertTrue(simulations[1].clock.getWakeups() > simulations[0].clock.getWakeups());
+        assertTrue(simulations[2].sensorEvents > simulations[0].sensorEvents);
+        // The distance filter drops the fixes while the device is hardly moved
+        assertTrue(simulations[5].locationEvents < simulations[0].locationEvents);
+        // The GNSS duty cycle keeps the receiver off for most of the session, but calibrates the walking and the running cadence
+        Simulation dutyCycle = simulations[6];
+        assertTrue(dutyCycle.gnssMillis < SESSION_DURATION/4);
+        assertTrue(dutyCycle.calibrations >= 2);
+        assertTrue(dutyCycle.stepLengthModel.isCalibrated(1.8f));
+        assertTrue(dutyCycle.stepLengthModel.isCalibrated(2.8f));
+    }
+
+    private static final class Configuration {
+        final String name;
+        final double updateInterval;
+        final boolean useAccelerometer;
+        final boolean adaptiveSampling;
+        final int horizontalDistanceFilter; // Meters
+        final boolean gnssDutyCycle; // Without the activity classification, as in the DistanceService
+
+        Configuration(String name, double updateInterval, boolean useAccelerometer, boolean adaptiveSampling, int horizontalDistanceFilter,
+                      boolean gnssDutyCycle) {
+            this.name = name;
+            this.updateInterval = updateInterval;
+            this.useAccelerometer = useAccelerometer;
+            this.adaptiveSampling = adaptiveSampling;
+            this.horizontalDistanceFilter = horizontalDistanceFilter;
+            this.gnssDutyCycle = gnssDutyCycle;
+        }
+    }
+
+    // Stands in for the DistanceService: provides the fake resources and processes the datapoints of the TrackingScheduler
+    private static final class Simulation implements TrackingScheduler.Resources, TrackingScheduler.TrackingDelegate, StepCounter.StepCounterDelegate {
+
+        final Configuration configuration;
+        final VirtualClock clock = new VirtualClock();
+        final PowerMonitor powerMonitor = new PowerMonitor(clock.elapsedRealtime());
+        final TrackingScheduler trackingScheduler;
+        final StepCounter stepCounter;
+        final ActivityClassifier activityClassifier = new ActivityClassifier();
+        final StepBatcher stepBatcher;
+        final StepLengthModel stepLengthModel = new StepLengthModel();
+        JSONObject powerStats;
+
+        // Each registration gets a new generation, so that the events of a replaced registration stop
+        private int sensorGeneration;
+        private int gnssGeneration;
+        private double lastFixDistance = -1;
+
+        // Calibration window of the GNSS duty cycle, restarted whenever the receiver stops
+        private double windowStartDistance = -1;
+        private long windowStartTime;
+        private int windowStartSteps;
+        int calibrations;
+        private long lastStepDate;
+
+        private long gnssSince = -1;
+        long gnssMillis;
+        private long wakeLockSince = -1;
+        long wakeLockMillis;
+
+        long sensorEvents;
+        long locationEvents;
+        long bridgeEvents;
+        int stepsDispatched;
+
+        Simulation(Configuration configuration) {
+            this.configuration = configuration;
+            trackingScheduler = new TrackingScheduler(clock, this, this, powerMonitor,
+                    configuration.updateInterval, configuration.useAccelerometer, configuration.adaptiveSampling, configuration.gnssDutyCycle);
+            stepCounter = new StepCounter(configuration.updateInterval, 1.2, 0.35, 0.35, 0.2, 6);
+            stepCounter.setDelegate(this);
+            if (configuration.useAccelerometer) {
+                stepCounter.setMinStrideAmplitudeFactor(GravityFilter.MIN_STRIDE_AMPLITUDE_FACTOR);
+            }
+            stepCounter.resetData();
+            stepBatcher = new StepBatcher(clock.asExecutor(), MAX_BATCH_SIZE, MAX_BATCH_DELAY, new StepBatcher.BatchCallback() {
+                public void batchDidFill(byte[] packedSteps) {
+                    bridgeEvents++;
+                }
+            });
+        }
+
+        // Starts the measurement as the DistanceService does, and stops it at the end of the session
+        void run() throws JSONException {
+            trackingScheduler.acquireResources();
+            activityClassifier.reset();
+            trackingScheduler.startTracking();
+            clock.runUntil(VirtualClock.UPTIME + SESSION_DURATION);
+            trackingScheduler.stopTracking();
+            trackingScheduler.releaseResources();
+            stepBatcher.flush();
+            powerStats = powerMonitor.getStats(clock.elapsedRealtime());
+        }
+
+        private int getGridIndex() {
+            return (int) Math.min((clock.elapsedRealtime()-VirtualClock.UPTIME)/GRID_INTERVAL, modes.length-1);
+        }
+
+        @Override
+        public void registerMotionSensor(boolean accelerometer, double samplingInterval) {
+            final int generation = ++sensorGeneration;
+            final float[][] values = accelerometer ? acceleration : gravity;
+            final long samplingPeriod = Math.round(samplingInterval*1000);
+            clock.postDelayed(new Runnable() {
+                public void run() {
+                    if (generation != sensorGeneration) {
+                        return;
+                    }
+
+                    int index = getGridIndex();
+                    sensorEvents++;
+                    trackingScheduler.sensorEventDidOccur(clock.elapsedRealtime()*1000000, values[0][index], values[1][index], values[2][index]);
+                    if (generation == sensorGeneration) {
+                        clock.postDelayed(this, samplingPeriod);
+                    }
+                }
+            }, samplingPeriod);
+        }
+
+        @Override
+        public void unregisterMotionSensor() {
+            sensorGeneration++;
+        }
+
+        // Fixes are delivered once the device has moved by the distance filter, the receiver stays on in between
+        @Override
+        public boolean startLocationUpdates() {
+            final int generation = ++gnssGeneration;
+            gnssSince = clock.elapsedRealtime();
+            clock.postDelayed(new Runnable() {
+                public void run() {
+                    if (generation != gnssGeneration) {
+                        return;
+                    }
+
+                    int index = getGridIndex();
+                    if (lastFixDistance < 0 || traveledDistance[index]-lastFixDistance >= configuration.horizontalDistanceFilter) {
+                        lastFixDistance = traveledDistance[index];
+                        locationEvents++;
+                        long processingStart = System.nanoTime();
+                        powerMonitor.locationEventDidOccur();
+                        if (configuration.gnssDutyCycle) {
+                            calibrate(traveledDistance[index]);
+                        } else {
+                            activityClassifier.addLocation(clock.currentTimeMillis(), true, (float) SPEEDS[modes[index].ordinal()]);
+                        }
+                        powerMonitor.processingDidEnd(processingStart);
+                    }
+                    clock.postDelayed(this, GNSS_INTERVAL);
+                }
+            }, GNSS_PHASE);
+            return true;
+        }
+
+        // Feeds the step length model once the window covers the calibration distance, as updateStepLengthModel of the DistanceService
+        private void calibrate(double distance) {
+            if (windowStartDistance < 0 || distance-windowStartDistance < DISTANCE_WALKED_TO_CALIBRATE) {
+                if (windowStartDistance < 0) {
+                    windowStartDistance = distance;
+                    windowStartTime = clock.elapsedRealtime();
+                    windowStartSteps = stepCounter.getStepsTotal();
+                }
+                return;
+            }
+
+            int steps = stepCounter.getStepsTotal()-windowStartSteps;
+            double durationInSeconds = (clock.elapsedRealtime()-windowStartTime)/1000.0;
+            if (steps > 0) {
+                stepLengthModel.addCalibration((float) (steps/durationInSeconds), (float) ((distance-windowStartDistance)/steps));
+                trackingScheduler.calibrationDidOccur();
+                calibrations++;
+            }
+            windowStartDistance = distance;
+            windowStartTime = clock.elapsedRealtime();
+            windowStartSteps = stepCounter.getStepsTotal();
+        }
+
+        @Override
+        public void stopLocationUpdates() {
+            gnssGeneration++;
+            windowStartDistance = -1;
+            if (gnssSince >= 0) {
+                gnssMillis += clock.elapsedRealtime()-gnssSince;
+                gnssSince = -1;
+            }
+        }
+
+        @Override
+        public void acquireWakeLock() {
+            wakeLockSince = clock.elapsedRealtime();
+        }
+
+        @Override
+        public void releaseWakeLock() {
+            if (wakeLockSince >= 0) {
+                wakeLockMillis += clock.elapsedRealtime()-wakeLockSince;
+                wakeLockSince = -1;
+            }
+        }
+
+        // Same as processMotionData of the DistanceService with the activity classification enabled, or with the GNSS duty cycle instead
+        @Override
+        public void motionDataDidOccur(double x, double y, double z, long timestamp) {
+            if (!configuration.gnssDutyCycle) {
+                ActivityClassifier.activities previousActivity = activityClassifier.getActivity();
+                ActivityClassifier.activities activity = activityClassifier.addSample(timestamp, x, y, z, stepCounter.getCadence(), stepCounter.getStrideAmplitude());
+                if (activity != previousActivity) {
+                    stepCounter.setSuspended(activity == ActivityClassifier.activities.vehicle);
+                }
+            }
+
+            stepCounter.processMotionData(x, y, z, timestamp);
+            trackingScheduler.updateLocationDemand(lastStepDate, stepLengthModel.isCalibrated((float) stepCounter.getCadence()));
+        }
+
+        // Every change is one distance event, the steps are sent in batches (see recordSession of the DistanceService)
+        @Override
+        public void stepCountDidChange(int count, float frequency) {
+            if (stepsDispatched > count) {
+                stepBatcher.addTruncation(stepsDispatched-count);
+                stepsDispatched = count;
+            }
+            if (count > 0) {
+                lastStepDate = stepCounter.getStepDate(count-1);
+            }
+            float strideAmplitude = (float) stepCounter.getStrideAmplitude();
+            for (; stepsDispatched < count; stepsDispatched++) {
+                stepBatcher.addStep(stepCounter.getStepDate(stepsDispatched), frequency, strideAmplitude);
+            }
+            bridgeEvents++;
+        }
+
+        @Override
+        public void provisionalStepCountDidChange(int provisionalCount) {
+            bridgeEvents++;
+        }
+    }
+}
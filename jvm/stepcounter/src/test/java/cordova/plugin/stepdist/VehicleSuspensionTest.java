@@ -0,0 +1,96 @@
+//
+// VehicleSuspensionTest.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the tests of the suspension of the step counter while riding a vehicle.
+// The datapoints before a vehicle ride must not form strides with the datapoints after it, ...
+// ... so that the step counter continues after the ride as if it was started then.
+//
+
+package cordova.plugin.stepdist;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VehicleSuspensionTest {
+
+    private static final double UPDATE_INTERVAL = 0.1;
+
+    private static final SyntheticSession.Mode[] MODES = {
+            SyntheticSession.Mode.WALKING, SyntheticSession.Mode.VEHICLE, SyntheticSession.Mode.WALKING, SyntheticSession.Mode.STILL};
+
+    @Test
+    public void noStepsAcrossVehicleRide() {
+        for (long seed = 0; seed < 20; seed++) {
+            // The ride ends at different points of the stride cycle
+            double[] durations = {60 + seed*0.37, 120 + seed*0.53, 60, 10};
+            SyntheticSession session = new SyntheticSession(seed, MODES, durations);
+            StepCounter stepCounter = createStepCounter();
+            StepCounter restartedStepCounter = createStepCounter(); // Only gets the datapoints after the ride
+
+            long suspendTime = -1;
+            long resumeTime = -1;
+            int stepsBeforeRide = 0;
+            while (session.getTime() < durations[0]+durations[1]+durations[2]+durations[3]) {
+                boolean isVehicle = session.getMode() == SyntheticSession.Mode.VEHICLE;
+                if (isVehicle && suspendTime < 0) {
+                    suspendTime = session.getTimeMillis();
+                    stepsBeforeRide = stepCounter.getStepsTotal();
+                } else if (!isVehicle && suspendTime >= 0 && resumeTime < 0) {
+                    resumeTime = session.getTimeMillis();
+                    assertEquals("Steps counted during the ride", stepsBeforeRide, stepCounter.getStepsTotal());
+                }
+
+                stepCounter.setSuspended(isVehicle);
+                stepCounter.processMotionData(session.getGravityX(), session.getGravityY(), session.getGravityZ(), session.getTimeMillis());
+                if (resumeTime >= 0) {
+                    restartedStepCounter.processMotionData(session.getGravityX(), session.getGravityY(), session.getGravityZ(), session.getTimeMillis());
+                }
+                session.advance(UPDATE_INTERVAL);
+            }
+
+            assertTrue(stepsBeforeRide > 0 && restartedStepCounter.getStepsTotal() > 0);
+            assertEquals("Steps after the ride of session " + seed, restartedStepCounter.getStepsTotal(), stepCounter.getStepsTotal()-stepsBeforeRide);
+            for (int step = 0; step < stepCounter.getStepsTotal(); step++) {
+                long stepDate = stepCounter.getStepDate(step);
+                assertFalse("Step dated within the ride of session " + seed, stepDate > suspendTime && stepDate < resumeTime);
+            }
+        }
+    }
+
+    // A snapshot taken during a ride keeps the steps before it
+    @Test
+    public void snapshotDuringRideRestoresWithoutSteps() {
+        double[] durations = {60, 120, 60, 10};
+        SyntheticSession session = new SyntheticSession(1, MODES, durations);
+        StepCounter stepCounter = createStepCounter();
+        while (session.getMode() != SyntheticSession.Mode.VEHICLE || session.getTime() < durations[0]+durations[1]/2) {
+            stepCounter.setSuspended(session.getMode() == SyntheticSession.Mode.VEHICLE);
+            stepCounter.processMotionData(session.getGravityX(), session.getGravityY(), session.getGravityZ(), session.getTimeMillis());
+            session.advance(UPDATE_INTERVAL);
+        }
+
+        int steps = stepCounter.getStepsTotal();
+        StepCounter restoredStepCounter = createStepCounter();
+        assertTrue(restoredStepCounter.restoreState(stepCounter.saveState()));
+        assertEquals(steps, restoredStepCounter.getStepsTotal());
+    }
+
+    private static StepCounter createStepCounter() {
+        StepCounter stepCounter = new StepCounter(UPDATE_INTERVAL, 1.2, 0.35, 0.35, 0.2, 6);
+        stepCounter.setDelegate(new StepCounter.StepCounterDelegate() {
+            public void stepCountDidChange(int count, float frequency) {
+            }
+
+            public void provisionalStepCountDidChange(int provisionalCount) {
+            }
+        });
+        stepCounter.resetData();
+        return stepCounter;
+    }
+}
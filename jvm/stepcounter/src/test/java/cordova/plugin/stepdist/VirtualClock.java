@@ -0,0 +1,210 @@
+//
+// VirtualClock.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains a scheduler on a virtual clock.
+// Runs the posted tasks in the order of their due times on the calling thread, the clock only advances from one task to the next.
+// Counts the wakeups (instants at which at least one task ran, tasks due at the same instant share a wakeup) and the processing time of the tasks.
+//
+
+package cordova.plugin.stepdist;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+final class VirtualClock implements Scheduler {
+
+    // Wall clock time at zero elapsed realtime (milliseconds since epoch)
+    static final long EPOCH = 1790000000000L;
+
+    // Elapsed realtime at the start, never 0 on a device (e.g., the PowerMonitor regards a time of 0 as not held)
+    static final long UPTIME = 600000;
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now = UPTIME; // Milliseconds, elapsed realtime
+    private long sequence;
+
+    private long wakeups;
+    private long lastWakeup = -1;
+    private long processingNanos;
+
+    @Override
+    public long elapsedRealtime() {
+        return now;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return EPOCH + now;
+    }
+
+    @Override
+    public void post(Runnable runnable) {
+        postDelayed(runnable, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        schedule(runnable, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        for (Task task : tasks) {
+            if (task.runnable == runnable) {
+                task.isCancelled = true;
+            }
+        }
+    }
+
+    private Task schedule(Runnable runnable, long delayMillis) {
+        Task task = new Task(now + Math.max(0, delayMillis), sequence++, runnable);
+        tasks.add(task);
+        return task;
+    }
+
+    // Runs all tasks that are due until the given time (milliseconds, elapsed realtime) and then sets the clock to it
+    void runUntil(long time) {
+        while (!tasks.isEmpty() && tasks.peek().time <= time) {
+            Task task = tasks.poll();
+            if (task.isCancelled) {
+                continue;
+            }
+
+            now = task.time;
+            if (now != lastWakeup) {
+                lastWakeup = now;
+                wakeups++;
+            }
+            long processingStart = System.nanoTime();
+            task.runnable.run();
+            processingNanos += System.nanoTime()-processingStart;
+        }
+        now = Math.max(now, time);
+    }
+
+    long getWakeups() {
+        return wakeups;
+    }
+
+    long getProcessingNanos() {
+        return processingNanos;
+    }
+
+    // Executor on the same clock, e.g., for the StepBatcher, which only needs execute and schedule
+    ScheduledExecutorService asExecutor() {
+        return new Executor();
+    }
+
+    private final class Executor extends AbstractExecutorService implements ScheduledExecutorService {
+
+        @Override
+        public void execute(Runnable command) {
+            post(command);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return VirtualClock.this.schedule(command, unit.toMillis(delay));
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+
+    private final class Task implements ScheduledFuture<Object>, Comparable<Delayed> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+        boolean isCancelled;
+
+        Task(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time-now, TimeUnit.MILLISECONDS);
+        }
+
+        // Tasks that are due at the same time run in the order in which they were posted
+        @Override
+        public int compareTo(Delayed other) {
+            Task otherTask = (Task) other;
+            return time != otherTask.time ? Long.compare(time, otherTask.time) : Long.compare(sequence, otherTask.sequence);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            isCancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return isCancelled || time <= now;
+        }
+
+        @Override
+        public Object get() {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+//
+// ActivityClassifier.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the streaming activity classifier.
+// Distinguishes being still, walking, running, climbing stairs, and riding a vehicle based on motion energy, cadence, stride amplitude, and GNSS speed.
+// Climbing stairs is only recognized on devices with a barometer, as the GNSS altitude is far too noisy for the vertical speed of stairs.
+//
+
+package cordova.plugin.stepdist;
+
+public class ActivityClassifier {
+
+    enum activities {
+        still, walking, running, stairs, vehicle
+    }
+
+    // Weight of a new sample in the running mean and energy of the gravity components, same as in the MotionResampler
+    private static final double ENERGY_SMOOTHING = 0.1;
+
+    // Motion energy below which the device is regarded as not moved
+    private static final double STILL_ENERGY = 0.02;
+
+    // GNSS speeds (m/s) of a vehicle, from the lower one on only a plausible run is regarded as being on foot (see isPlausibleRun)
+    private static final double VEHICLE_SPEED = 8;
+    private static final double SLOW_VEHICLE_SPEED = 2.5;
+
+    // Longest step (m) of a runner, a GNSS speed above cadence times this length cannot be covered on foot
+    private static final double MAX_STEP_LENGTH = 2;
+
+    // Motion energy of a run, buses, trams, and stop-and-go traffic stay far below it even if they vibrate periodically
+    private static final double RUNNING_ENERGY = 2;
+
+    // Steps per second from which on walking is regarded as running, and the stride amplitude (m/s^2) that supports it
+    private static final double RUNNING_STEPS_PER_SECOND = 2.5;
+    private static final double RUNNING_MIN_STEPS_PER_SECOND = 2.1;
+    private static final double RUNNING_AMPLITUDE = 6;
+
+    // Vertical speed (m/s) of the barometric altitude that is regarded as climbing stairs when walking
+    private static final double STAIRS_VERTICAL_SPEED = 0.2;
+
+    // Time constants (seconds) of the low-pass filters of the barometric altitude and of its derivative, ...
+    // ... the noise of the barometer (about 0.1 m) would otherwise exceed the altitude change between two samples
+    private static final double ALTITUDE_TIME_CONSTANT = 2;
+    private static final double VERTICAL_SPEED_TIME_CONSTANT = 3;
+
+    // GNSS fixes and barometer samples older than this (milliseconds) are not considered
+    private static final long MAX_FIX_AGE = 10000;
+
+    // A new activity is only taken over once it has been found for this long (milliseconds)
+    private static final long SWITCH_DURATION = 5000;
+
+    private double meanX;
+    private double meanY;
+    private double meanZ;
+    private double motionEnergy;
+    private boolean hasSample;
+
+    // Written by the location and pressure events, which are delivered on the same thread as the samples (the main looper of the DistanceService)
+    private double speed;
+    private long lastFixTime;
+    private boolean hasSpeed;
+    private double altitude;
+    private double verticalSpeed;
+    private long lastPressureTime;
+
+    private activities activity = activities.still; // Also read by the location events
+    private activities candidate = activities.still;
+    private long candidateSince;
+
+    public void reset() {
+        hasSample = false;
+        motionEnergy = 0;
+        speed = 0;
+        lastFixTime = 0;
+        hasSpeed = false;
+        altitude = 0;
+        verticalSpeed = 0;
+        lastPressureTime = 0;
+        activity = activities.still;
+        candidate = activities.still;
+        candidateSince = 0;
+    }
+
+    // Adds a gravity datapoint at the given time (milliseconds since epoch) along with the current features of the stride pipeline
+    // Returns the activity, which only changes after the new one has been found for SWITCH_DURATION
+    public activities addSample(long timestamp, double x, double y, double z, double stepsPerSecond, double strideAmplitude) {
+        updateMotionEnergy(x, y, z);
+
+        activities newCandidate = classify(timestamp, stepsPerSecond, strideAmplitude);
+        if (newCandidate != candidate) {
+            candidate = newCandidate;
+            candidateSince = timestamp;
+        } else if (candidate != activity && timestamp-candidateSince >= SWITCH_DURATION) {
+            activity = candidate;
+        }
+
+        return activity;
+    }
+
+    // Adds a GNSS fix, the speed is only used if the location provider measured it
+    public void addLocation(long timestamp, boolean hasSpeed, float speed) {
+        this.hasSpeed = hasSpeed;
+        this.speed = hasSpeed ? speed : 0;
+        lastFixTime = timestamp;
+    }
+
+    // Adds the altitude (m) derived from a barometer sample, only its changes are used
+    // The filter weights are derived from the actual time between samples, as the barometer may deliver them irregularly
+    public void addPressureAltitude(long timestamp, double altitude) {
+        if (lastPressureTime == 0 || timestamp-lastPressureTime > MAX_FIX_AGE) {
+            this.altitude = altitude;
+            verticalSpeed = 0;
+            lastPressureTime = timestamp;
+            return;
+        }
+        if (timestamp <= lastPressureTime) {
+            return;
+        }
+
+        double deltaInSeconds = (timestamp-lastPressureTime)/1000.0;
+        double previousAltitude = this.altitude;
+        this.altitude += deltaInSeconds/(ALTITUDE_TIME_CONSTANT+deltaInSeconds)*(altitude-this.altitude);
+        double currentVerticalSpeed = (this.altitude-previousAltitude)/deltaInSeconds;
+        verticalSpeed += deltaInSeconds/(VERTICAL_SPEED_TIME_CONSTANT+deltaInSeconds)*(currentVerticalSpeed-verticalSpeed);
+        lastPressureTime = timestamp;
+    }
+
+    public activities getActivity() {
+        return activity;
+    }
+
+    private activities classify(long timestamp, double stepsPerSecond, double strideAmplitude) {
+        boolean hasRecentFix = lastFixTime != 0 && timestamp-lastFixTime <= MAX_FIX_AGE;
+        boolean hasRecentPressure = lastPressureTime != 0 && timestamp-lastPressureTime <= MAX_FIX_AGE;
+        boolean isPeriodic = stepsPerSecond > 0;
+
+        if (hasRecentFix && hasSpeed && (speed >= VEHICLE_SPEED || (speed >= SLOW_VEHICLE_SPEED && !isPlausibleRun(stepsPerSecond)))) {
+            return activities.vehicle;
+        }
+        if (isPeriodic && motionEnergy >= STILL_ENERGY) {
+            if (stepsPerSecond >= RUNNING_STEPS_PER_SECOND || (stepsPerSecond >= RUNNING_MIN_STEPS_PER_SECOND && strideAmplitude >= RUNNING_AMPLITUDE)) {
+                return activities.running;
+            }
+            if (hasRecentPressure && Math.abs(verticalSpeed) >= STAIRS_VERTICAL_SPEED) {
+                return activities.stairs;
+            }
+            return activities.walking;
+        }
+        // Vibrations without periodic movement, e.g., when a vehicle stops, do not end a ride
+        if (activity == activities.vehicle && motionEnergy >= STILL_ENERGY) {
+            return activities.vehicle;
+        }
+
+        return activities.still;
+    }
+
+    // Checks whether the GNSS speed can be reached on foot with the current cadence and motion energy
+    // The vibrations of buses and trams may show a cadence, but only a run moves the device strongly enough and fast enough for such a speed
+    private boolean isPlausibleRun(double stepsPerSecond) {
+        return stepsPerSecond >= RUNNING_MIN_STEPS_PER_SECOND && speed <= stepsPerSecond*MAX_STEP_LENGTH && motionEnergy >= RUNNING_ENERGY;
+    }
+
+    // Exponentially weighted variance of the gravity components, low when the device is not moved
+    private void updateMotionEnergy(double x, double y, double z) {
+        if (!hasSample) {
+            hasSample = true;
+            meanX = x;
+            meanY = y;
+            meanZ = z;
+            return;
+        }
+
+        meanX += ENERGY_SMOOTHING*(x-meanX);
+        meanY += ENERGY_SMOOTHING*(y-meanY);
+        meanZ += ENERGY_SMOOTHING*(z-meanZ);
+        double deviation = (x-meanX)*(x-meanX) + (y-meanY)*(y-meanY) + (z-meanZ)*(z-meanZ);
+        motionEnergy += ENERGY_SMOOTHING*(deviation-motionEnergy);
+    }
+}
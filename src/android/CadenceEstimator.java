@@ -0,0 +1,232 @@
+//
+// CadenceEstimator.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the streaming cadence estimator.
+// Tracks the dominant stride frequency of the gravity sensor data with a sliding DFT over a fixed window.
+//
+
+package cordova.plugin.stepdist;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class CadenceEstimator {
+
+    // Window of the sliding DFT (seconds), the number of samples (the DFT size) follows from the update interval, e.g., 64 at 0.1 seconds
+    // A fixed number of samples would shorten the window at faster intervals until the lowest stride frequencies fall below the first bin
+    private static final double WINDOW_DURATION = 6.4;
+    private static final int MIN_WINDOW = 16;
+
+    // Range of stride frequencies (Hz) that are tracked, one stride represents two steps
+    private static final double MIN_STRIDE_FREQUENCY = 0.4;
+    private static final double MAX_STRIDE_FREQUENCY = 1.7;
+
+    // Damping of the sliding DFT to keep it numerically stable over long sessions
+    private static final double DAMPING = 0.9999;
+
+    // Weight of a new estimate in the exponential smoothing of the output
+    private static final double SMOOTHING = 0.2;
+
+    // Minimum share of the power within the tracked band that the peak must have to be regarded as periodic movement
+    private static final double MIN_PEAK_SHARE = 0.25;
+
+    // If the power at half of the peak frequency is at least this share of the peak power, the peak is regarded as harmonic
+    private static final double SUBHARMONIC_SHARE = 0.5;
+
+    private final double updateInterval;
+    private final int window; // DFT size in samples
+    private final int firstBin; // First tracked DFT bin, two below the tracked band so that a windowed peak can be interpolated
+    private final int binCount;
+    private final double[] binCos;
+    private final double[] binSin;
+    private final double dampingOfWindow;
+
+    private final double[] samples; // Ring of the past samples, interleaved x, y, z
+    private final double[] real; // DFT bins per axis, binCount values for each axis
+    private final double[] imaginary;
+    private final double[] bandPowers = new double[3];
+    private int position;
+    private int sampleCount;
+
+    private double stepsPerSecond;
+    private int dominantAxis;
+
+    public CadenceEstimator(double updateInterval) {
+        this.updateInterval = updateInterval;
+        window = Math.max(MIN_WINDOW, (int) Math.ceil(WINDOW_DURATION/updateInterval - 1e-9));
+
+        // Bin k of the DFT represents k/(window*updateInterval) Hz
+        double windowSeconds = window*updateInterval;
+        firstBin = Math.max(1, (int) Math.floor(MIN_STRIDE_FREQUENCY*windowSeconds) - 2);
+        int lastBin = Math.min(window/2, (int) Math.ceil(MAX_STRIDE_FREQUENCY*windowSeconds) + 2);
+        binCount = Math.max(5, lastBin-firstBin+1);
+
+        binCos = new double[binCount];
+        binSin = new double[binCount];
+        for (int bin = 0; bin < binCount; bin++) {
+            double angle = 2*Math.PI*(firstBin+bin)/window;
+            binCos[bin] = Math.cos(angle);
+            binSin[bin] = Math.sin(angle);
+        }
+        dampingOfWindow = Math.pow(DAMPING, window);
+
+        samples = new double[window*3];
+        real = new double[binCount*3];
+        imaginary = new double[binCount*3];
+    }
+
+    public void reset() {
+        for (int k = 0; k < samples.length; k++) {
+            samples[k] = 0;
+        }
+        for (int k = 0; k < real.length; k++) {
+            real[k] = 0;
+            imaginary[k] = 0;
+        }
+        for (int axis = 0; axis <= 2; axis++) {
+            bandPowers[axis] = 0;
+        }
+        position = 0;
+        sampleCount = 0;
+        stepsPerSecond = 0;
+        dominantAxis = 0;
+    }
+
+    // Adds one sample of each axis and updates the estimate, constant time per sample and without allocations
+    public void addSample(double x, double y, double z) {
+        int offset = position*3;
+        updateBins(0, x, samples[offset]);
+        updateBins(1, y, samples[offset+1]);
+        updateBins(2, z, samples[offset+2]);
+        samples[offset] = x;
+        samples[offset+1] = y;
+        samples[offset+2] = z;
+
+        position = (position+1) % window;
+        if (sampleCount < window) {
+            sampleCount++;
+        }
+
+        if (sampleCount == window) {
+            updateEstimate();
+        }
+    }
+
+    // Sliding DFT: X(n) = e^(j*2*pi*k/N) * (r*X(n-1) + x(n) - r^N*x(n-N))
+    private void updateBins(int axis, double newSample, double oldSample) {
+        double delta = newSample - dampingOfWindow*oldSample;
+        int offset = axis*binCount;
+        for (int bin = 0; bin < binCount; bin++) {
+            double re = DAMPING*real[offset+bin] + delta;
+            double im = DAMPING*imaginary[offset+bin];
+            real[offset+bin] = re*binCos[bin] - im*binSin[bin];
+            imaginary[offset+bin] = re*binSin[bin] + im*binCos[bin];
+        }
+    }
+
+    // Power of a bin after applying a Hann window, which is a convolution with (-1/4, 1/2, -1/4) in the frequency domain
+    // The window reduces the leakage between bins, so that the interpolation of the peak is more accurate
+    private double getPower(int axis, int bin) {
+        int index = axis*binCount+bin;
+        double re = 0.5*real[index] - 0.25*(real[index-1]+real[index+1]);
+        double im = 0.5*imaginary[index] - 0.25*(imaginary[index-1]+imaginary[index+1]);
+        return re*re + im*im;
+    }
+
+    // Looks for the strongest bin of all axes and interpolates its position to obtain a sub-bin resolution
+    private void updateEstimate() {
+        int peakAxis = 0;
+        int peakBin = 0;
+        double peakPower = 0;
+        for (int axis = 0; axis <= 2; axis++) {
+            bandPowers[axis] = 0;
+            for (int bin = 2; bin < binCount-2; bin++) {
+                double power = getPower(axis, bin);
+                bandPowers[axis] += power;
+                if (power > peakPower) {
+                    peakPower = power;
+                    peakBin = bin;
+                    peakAxis = axis;
+                }
+            }
+        }
+
+        if (peakPower == 0 || peakPower < MIN_PEAK_SHARE*bandPowers[peakAxis]) {
+            stepsPerSecond = 0;
+            return;
+        }
+
+        // The gravity signal often has a strong harmonic at the step frequency, prefer the stride frequency in that case
+        int subharmonicBin = (firstBin+peakBin)/2 - firstBin;
+        if (subharmonicBin >= 2 && subharmonicBin < peakBin-1 && getPower(peakAxis, subharmonicBin) >= SUBHARMONIC_SHARE*peakPower) {
+            peakBin = subharmonicBin;
+            for (int bin = subharmonicBin-1; bin <= subharmonicBin+1; bin++) {
+                if (bin >= 2 && bin < binCount-2 && getPower(peakAxis, bin) > getPower(peakAxis, peakBin)) {
+                    peakBin = bin;
+                }
+            }
+        }
+
+        // Parabolic interpolation of the magnitudes around the peak
+        double previous = Math.sqrt(getPower(peakAxis, peakBin-1));
+        double peak = Math.sqrt(getPower(peakAxis, peakBin));
+        double next = Math.sqrt(getPower(peakAxis, peakBin+1));
+        double denominator = previous - 2*peak + next;
+        double offset = denominator == 0 ? 0 : 0.5*(previous-next)/denominator;
+        offset = Math.max(-0.5, Math.min(0.5, offset));
+
+        double strideFrequency = (firstBin+peakBin+offset)/(window*updateInterval);
+        double estimate = 2*strideFrequency;
+
+        stepsPerSecond = stepsPerSecond == 0 ? estimate : stepsPerSecond + SMOOTHING*(estimate-stepsPerSecond);
+        dominantAxis = peakAxis;
+    }
+
+    // Writes the window and the DFT bins, so that the estimate can be continued after a pause
+    public void writeState(DataOutputStream output) throws IOException {
+        output.writeInt(binCount);
+        for (double sample : samples) {
+            output.writeDouble(sample);
+        }
+        for (int k = 0; k < real.length; k++) {
+            output.writeDouble(real[k]);
+            output.writeDouble(imaginary[k]);
+        }
+        output.writeInt(position);
+        output.writeInt(sampleCount);
+        output.writeDouble(stepsPerSecond);
+        output.writeInt(dominantAxis);
+    }
+
+    // Reads a state written by writeState, which must stem from an estimator with the same update interval
+    public void readState(DataInputStream input) throws IOException {
+        if (input.readInt() != binCount) {
+            throw new IOException("Cadence estimator state does not match the update interval");
+        }
+        for (int k = 0; k < samples.length; k++) {
+            samples[k] = input.readDouble();
+        }
+        for (int k = 0; k < real.length; k++) {
+            real[k] = input.readDouble();
+            imaginary[k] = input.readDouble();
+        }
+        position = input.readInt();
+        sampleCount = input.readInt();
+        stepsPerSecond = input.readDouble();
+        dominantAxis = input.readInt();
+    }
+
+    // Returns the smoothed step frequency, or zero if no periodic movement is present
+    public double getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+
+    // Returns the axis that currently carries the strongest periodic movement
+    public int getDominantAxis() {
+        return dominantAxis;
+    }
+}
@@ -27,25 +27,46 @@ import android.location.LocationManager;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
+import android.util.Base64;
+import android.util.Log;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.Math.abs;
 import static java.lang.Math.sqrt;
 
-public class DistanceService extends Service implements LocationListener, SensorEventListener, StepCounter.StepCounterDelegate {
+public class DistanceService extends Service implements LocationListener, SensorEventListener, StepCounter.StepCounterDelegate,
+        TrackingScheduler.Resources, TrackingScheduler.TrackingDelegate {
+
+    private static final String TAG = "StepDistPlugin";
+
+    // The foreground notification only depends on the parent Cordova application and is therefore built once per process.
+    private static Notification notification;
 
     private final IBinder mBinder = new LocalBinder();
+    private Scheduler scheduler; // The main looper, which runs the sensor, location, and timer callbacks, and therefore all processing of the measurement
+    private TrackingScheduler trackingScheduler; // Timer, motion sensor, GNSS, and wake lock (see TrackingScheduler)
 
     private SensorManager sensorManager;
     private LocationManager locationManager;
@@ -53,12 +74,44 @@ public class DistanceService extends Service implements LocationListener, Sensor
     private WakeLock wakeLock;
     private StepCounter stepCounter;
     private SharedPreferences preferences;
-    private DistanceServiceDelegate delegate;
+    private final List<ListenerRegistration> listeners = new CopyOnWriteArrayList<>();
+    private SessionRecorder sessionRecorder;
+    private StepLengthModel stepLengthModel = new StepLengthModel();
+    private PowerMonitor powerMonitor;
+    private final ActivityClassifier activityClassifier = new ActivityClassifier();
+    private LatencyTracer latencyTracer;
+    private final SegmentTracker segmentTracker = new SegmentTracker(); // Only accessed on the main looper, which also runs the step counter and updates the counters
+    private static final int SEGMENT_OPEN = 0;
+    private static final int SEGMENT_CLOSE = 1;
+    private static final int SEGMENT_GET = 2;
+    private boolean classifyActivity; // Suspends the stride analysis and the calibration while riding a vehicle
+    private static final double PRESSURE_UPDATE_INTERVAL = 1; // Seconds between barometer samples, which only serve the recognition of stairs
+
+    // Passes the barometric altitude to the activity classifier, registered separately from the motion sensor, ...
+    // ... as the TrackingScheduler unregisters and registers the motion sensor when changing the sampling rate.
+    private final SensorEventListener pressureListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            activityClassifier.addPressureAltitude(scheduler.currentTimeMillis(), SensorManager.getAltitude(SensorManager.PRESSURE_STANDARD_ATMOSPHERE, event.values[0]));
+        }
 
-    private List<Location> locationEvents;
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            // No need for action
+        }
+    };
+
+    // The calibration window is kept as running values instead of a list of location events, so that each event takes constant time
+    private int locationEventCount;
+    private long firstLocationTime;
+    private Location lastLocation;
+    private float locationEventsDistance; // Cumulative distance between the location events of the window, starting with the second one
     private List<Float> altitudeEvents;
 
     private double sensorUpdateInterval;
+    private boolean useAccelerometer;
+    private boolean adaptiveSampling;
+    private boolean gnssDutyCycle; // Only keeps the GNSS localization on while a calibration is needed (see TrackingScheduler)
     private int horizontalDistanceFilter;
     private double horizontalAccuracyFilter;
     private int verticalDistanceFilter;
@@ -77,25 +130,51 @@ public class DistanceService extends Service implements LocationListener, Sensor
     private int stepsTakenPersistent;
     private int stepsTakenProvisional;
     private int stepsTakenTotal;
+    private int stepsRecorded;
+    private long lastStepDate; // Milliseconds since epoch, decides whether GNSS is needed for a calibration (see TrackingScheduler)
+    private int[] stepsTakenProvisionalPerBand = new int[StepLengthModel.BAND_COUNT];
+    private float committedCalibrationDistance;
+    private int committedCalibrationSteps;
+    private long committedCalibrationTime;
     private long lastCalibrated;
     private boolean calibrationInProgress;
     private boolean enableGPSCalibration;
 
-    private volatile boolean isTracking;
+    private boolean isTracking; // Only accessed on the main looper
+    private boolean isPaused; // The state of a paused measurement is kept in memory and as snapshot in the preferences
+    private static final int SNAPSHOT_VERSION = 1; // Format of the snapshots of paused measurements
+    private boolean isReady;
 
-    // Used to compensate for fluctuating sampling rates.
-    // DistanceService handles sensor data (as opposed to the iOS implementation), ...
-    // ... to ensure that the foreground service consititutes the event listener.
-    private volatile double gravityX;
-    private volatile double gravityY;
-    private volatile double gravityZ;
+    // Startup and time-to-first-step measurements (elapsed realtime in milliseconds), only used for logging.
+    private long bindTime;
+    private long firstSampleTime;
+    private boolean firstStepLogged;
+    private boolean firstProvisionalStepLogged;
+
+    // Fetches the system services and starts loading the shared preferences from disk in the background.
+    // Reading a value later on only blocks if the preferences have not been loaded until then.
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        scheduler = new HandlerScheduler();
+        sensorManager = (SensorManager) getApplicationContext().getSystemService(Context.SENSOR_SERVICE);
+        locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
+        powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,"StepDistPlugin:AllowStepCounting");
+        preferences = getSharedPreferences("sharedPreferences", Context.MODE_PRIVATE);
+        sessionRecorder = new SessionRecorder(new File(getCacheDir(), "stepdist-session.bin"), getCacheDir());
+        powerMonitor = new PowerMonitor(scheduler.elapsedRealtime());
+        latencyTracer = new LatencyTracer(new File(getFilesDir(), "stepdist-trace.json"));
+    }
 
     // Method that is called when the native interface (stepdistplugin.java) starts and binds to this foreground service.
-    // Initializes the background processing and starts the GNSS localization used for the step length calibration.
-    // A wake lock is set to prevent the CPU from sleeping when the device is in sleep ...
-    // ... registering and running a foreground service is not enough to prevent the CPU from sleeping.
+    // Only the parameters and the step counter are set up synchronously, everything else is deferred (see completeStartup), ...
+    // ... so that the binding returns as fast as possible after the app launch.
     @Override
     public IBinder onBind(Intent intent) {
+        bindTime = SystemClock.elapsedRealtime();
+
         horizontalDistanceFilter = intent.getIntExtra("horizontalDistanceFilter", 0);
         horizontalAccuracyFilter = intent.getDoubleExtra("horizontalAccuracyFilter", 0);
         verticalDistanceFilter = intent.getIntExtra("verticalDistanceFilter", 0);
@@ -103,68 +182,183 @@ public class DistanceService extends Service implements LocationListener, Sensor
         distanceWalkedToCalibrate = intent.getDoubleExtra("distanceWalkedToCalibrate", 0);
         stepLengthFactor = intent.getDoubleExtra("stepLengthFactor", 0);
         sensorUpdateInterval = intent.getDoubleExtra("updateInterval", 0);
+        useAccelerometer = "accelerometer".equals(intent.getStringExtra("gravitySource"));
+        adaptiveSampling = intent.getBooleanExtra("adaptiveSampling", false);
+        classifyActivity = intent.getBooleanExtra("activityClassification", false);
+        // The activity classification needs the GNSS speed at all times
+        gnssDutyCycle = intent.getBooleanExtra("gnssDutyCycle", true) && !classifyActivity;
+        if (intent.getBooleanExtra("enableTracing", false)) {
+            latencyTracer.start();
+        }
 
-        JSONObject stepCounterOptions = new JSONObject();
-        try {
-            stepCounterOptions.put("updateInterval", intent.getDoubleExtra("updateInterval", 0));
-            stepCounterOptions.put("betterStrideFactor", intent.getDoubleExtra("betterStrideFactor", 0));
-            stepCounterOptions.put("deviationLength", intent.getDoubleExtra("deviationLength", 0));
-            stepCounterOptions.put("deviationAmplitude", intent.getDoubleExtra("deviationAmplitude", 0));
-            stepCounterOptions.put("minStrideAmplitude", intent.getDoubleExtra("minStrideAmplitude", 0));
-            stepCounterOptions.put("smoothingTimeframe", intent.getIntExtra("smoothingTimeframe", 0));
-        } catch (JSONException e) {
-            System.out.println("Error stepCounterOptions");
+        stepCounter = new StepCounter(sensorUpdateInterval,
+                intent.getDoubleExtra("betterStrideFactor", 0),
+                intent.getDoubleExtra("deviationLength", 0),
+                intent.getDoubleExtra("deviationAmplitude", 0),
+                intent.getDoubleExtra("minStrideAmplitude", 0),
+                intent.getIntExtra("smoothingTimeframe", 0));
+        stepCounter.setDelegate(this);
+        if (useAccelerometer) {
+            stepCounter.setMinStrideAmplitudeFactor(GravityFilter.MIN_STRIDE_AMPLITUDE_FACTOR);
         }
+        stepCounter.setProvisionalSteps(intent.getBooleanExtra("provisionalSteps", false));
+        // DistanceService handles sensor data (as opposed to the iOS implementation), ...
+        // ... to ensure that the foreground service consititutes the event listener.
+        trackingScheduler = new TrackingScheduler(scheduler, this, this, powerMonitor, sensorUpdateInterval, useAccelerometer, adaptiveSampling, gnssDutyCycle);
 
-        try {
-            stepCounter = new StepCounter(getApplicationContext(), stepCounterOptions);
-            stepCounter.setDelegate(this);
-        } catch (JSONException e) {
-            e.printStackTrace();
+        isTracking = false;
+        isReady = false;
+
+        startForeground(1, getNotification());
+        scheduler.post(startupRunnable);
+
+        return mBinder;
+    }
+
+    // Deferred part of the startup, runs on the main looper right after the binding has been returned.
+    // Starts the GNSS localization used for the step length calibration, acquires the wake lock, and loads the persisted data.
+    private final Runnable startupRunnable = new Runnable() {
+        public void run() {
+            completeStartup();
+        }
+    };
+
+    private void completeStartup() {
+        trackingScheduler.acquireResources();
+
+        loadBodyHeight();
+        loadStepLength();
+
+        isReady = true;
+        Log.d(TAG, "Bind to ready: " + (SystemClock.elapsedRealtime()-bindTime) + " ms");
+
+        // The native interface may have asked for the plugin status before the persisted data was available.
+        if (!listeners.isEmpty()) {
+            sendPluginInfo();
         }
+    }
 
+    // Resources of the TrackingScheduler, which decides when they are held.
+    // The location updates are delivered on the main looper, as they are requested from it.
+    @Override
+    public boolean startLocationUpdates() {
         try {
             Criteria criteria = new Criteria();
             criteria.setAccuracy(Criteria.ACCURACY_FINE);
             criteria.setHorizontalAccuracy(Criteria.ACCURACY_HIGH);
             criteria.setVerticalAccuracy(Criteria.ACCURACY_HIGH);
             criteria.setPowerRequirement(Criteria.POWER_HIGH);
-            locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
             locationManager.requestLocationUpdates(0, horizontalDistanceFilter, criteria, this, null);
+            return true;
         } catch (SecurityException securityException) {
             securityException.printStackTrace();
+            return false;
         }
+    }
 
-        sensorManager = (SensorManager) getApplicationContext().getSystemService(Context.SENSOR_SERVICE);
+    // The calibration window and the altitude window must not span the time without fixes, so that they are closed like after an inaccurate fix.
+    @Override
+    public void stopLocationUpdates() {
+        locationManager.removeUpdates(this);
+        if (calibrationInProgress) {
+            persistProvisionalDistance();
+        }
+        clearLocationEvents();
+        calibrationCandidateDistance = 0;
+        resetCalibrationCommit();
+        if (altitudeEvents != null) {
+            altitudeEvents.clear();
+        }
+    }
 
-        powerManager = (PowerManager) getSystemService(POWER_SERVICE);
-        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,"StepDistPlugin:AllowStepCounting");
+    @Override
+    public void acquireWakeLock() {
         wakeLock.acquire();
+    }
 
-        preferences = getSharedPreferences("sharedPreferences", Context.MODE_PRIVATE);
-        loadBodyHeight();
-        loadStepLength();
+    @Override
+    public void releaseWakeLock() {
+        wakeLock.release();
+    }
 
-        isTracking = false;
+    @Override
+    public void registerMotionSensor(boolean accelerometer, double samplingInterval) {
+        assert sensorManager != null;
+        sensorManager.unregisterListener(this);
+        Sensor sensor = sensorManager.getDefaultSensor(accelerometer ? Sensor.TYPE_ACCELEROMETER : Sensor.TYPE_GRAVITY);
+        sensorManager.registerListener(this, sensor, (int) (samplingInterval*1000000));
+    }
 
-        startForeground(1, buildNotification());
+    @Override
+    public void unregisterMotionSensor() {
+        sensorManager.unregisterListener(this);
+    }
 
-        return mBinder;
+    // Updates parameters of the running service without rebinding, which would reset the step counter and restart the GNSS localization.
+    // Only the given options are changed. The step counter applies its options before the next datapoint, ...
+    // ... the options of this service are applied on the main looper, which also processes the location events.
+    // The update interval and the gravity source can only be set when binding.
+    public void updateOptions(final JSONObject options) {
+        stepCounter.updateOptions(options);
+        if (options.has("enableTracing")) {
+            if (options.optBoolean("enableTracing", false)) {
+                latencyTracer.start();
+            } else {
+                latencyTracer.stop();
+            }
+        }
+
+        scheduler.post(new Runnable() {
+            public void run() {
+                horizontalAccuracyFilter = options.optDouble("horizontalAccuracyFilter", horizontalAccuracyFilter);
+                verticalAccuracyFilter = options.optDouble("verticalAccuracyFilter", verticalAccuracyFilter);
+                distanceWalkedToCalibrate = options.optDouble("distanceWalkedToCalibrate", distanceWalkedToCalibrate);
+                stepLengthFactor = options.optDouble("stepLengthFactor", stepLengthFactor);
+
+                int verticalDistanceFilter = options.optInt("verticalDistanceFilter", DistanceService.this.verticalDistanceFilter);
+                if (verticalDistanceFilter != DistanceService.this.verticalDistanceFilter) {
+                    DistanceService.this.verticalDistanceFilter = verticalDistanceFilter;
+                    if (altitudeEvents != null) {
+                        altitudeEvents.clear();
+                    }
+                }
+
+                int horizontalDistanceFilter = options.optInt("horizontalDistanceFilter", DistanceService.this.horizontalDistanceFilter);
+                if (horizontalDistanceFilter != DistanceService.this.horizontalDistanceFilter) {
+                    DistanceService.this.horizontalDistanceFilter = horizontalDistanceFilter;
+                    if (isReady) {
+                        trackingScheduler.restartLocationUpdates();
+                    }
+                }
+            }
+        });
     }
 
     // Plugin life cycle method.
     @Override
     public boolean onUnbind(Intent intent) {
-        locationManager.removeUpdates(this);
-        wakeLock.release();
+        scheduler.removeCallbacks(startupRunnable);
+        if (isReady) {
+            trackingScheduler.releaseResources();
+            isReady = false;
+        }
         return super.onUnbind(intent);
     }
 
     // Creates a notification that is required to enable a foreground service ...
     // ... and background processing since Android 8 Oreo (see Android documentation).
     // Sets the icon of the parent Cordova application as notification icon.
+    private Notification getNotification() {
+        if (notification == null) {
+            notification = buildNotification();
+        }
+
+        return notification;
+    }
+
     private Notification buildNotification() {
-        Intent notificationIntent = new Intent(this, getMainActivity());
+        // The launch intent already points to the main activity of the parent Cordova application, no need to resolve its class.
+        Intent notificationIntent = getPackageManager().getLaunchIntentForPackage(getPackageName());
         PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, notificationIntent, 0);
 
         String applicationName;
@@ -175,36 +369,29 @@ public class DistanceService extends Service implements LocationListener, Sensor
             applicationName = getString(applicationNameIdentifier);
         }
 
-        Notification notification = new NotificationCompat.Builder(this, "stepDistServiceChannel")
+        return new NotificationCompat.Builder(this, "stepDistServiceChannel")
                 .setContentTitle(applicationName)
                 .setContentText("Estimating your walking distance.")
                 .setSmallIcon(getApplicationInfo().icon)
                 .setContentIntent(pendingIntent)
                 .build();
-
-        return notification;
-    }
-
-    // Helper method (Android implementation only)
-    private Class getMainActivity() {
-        Context context = getApplicationContext();
-        String packageName = context.getPackageName();
-        Intent launchIntent = context.getPackageManager().getLaunchIntentForPackage(packageName);
-        String className = launchIntent.getComponent().getClassName();
-
-        try {
-            return Class.forName(className);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        return null;
     }
 
     // Starts the main distance estimation and step length calibration.
     // For this, the step counting algorithm is started.
-    public void startMeasuringDistance(boolean enableGPSCalibration) {
-        locationEvents = new ArrayList<>();
+    // The measurement is controlled by the native interface on the bridge thread but processed on the main looper, ...
+    // ... so that the control methods are posted to the main looper. This way, the step counter and the counters ...
+    // ... are only accessed by a single thread and the snapshot of a pause is taken between two datapoints.
+    public void startMeasuringDistance(final boolean enableGPSCalibration) {
+        scheduler.post(new Runnable() {
+            public void run() {
+                startMeasuring(enableGPSCalibration);
+            }
+        });
+    }
+
+    private void startMeasuring(boolean enableGPSCalibration) {
+        clearLocationEvents();
         altitudeEvents = new ArrayList<>();
         distanceTraveledPersistent = 0;
         distanceTraveledProvisional = 0;
@@ -212,38 +399,235 @@ public class DistanceService extends Service implements LocationListener, Sensor
         stepsTakenPersistent = 0;
         stepsTakenProvisional = 0;
         stepsTakenTotal = 0;
+        stepsTakenProvisionalPerBand = new int[StepLengthModel.BAND_COUNT];
         calibrationInProgress = false;
         calibrationCandidateDistance = 0;
+        resetCalibrationCommit();
         lastAltitude = 0;
         relativeAltitudeGain = 0;
+        segmentTracker.clear();
 
         stepCounter.resetData();
+        sessionRecorder.start();
+        stepsRecorded = 0;
 
-        assert sensorManager != null;
-        sensorManager.registerListener(this, sensorManager.getDefaultSensor(Sensor.TYPE_GRAVITY), (int) (sensorUpdateInterval*1000000));
+        isPaused = false;
+        discardSnapshot();
+        startTracking(enableGPSCalibration);
+    }
+
+    // Pauses the distance estimation without losing the state of the step counter, the step counts, and the distances.
+    // The state is also persisted, so that the measurement can be resumed after the service has been restarted.
+    public void pauseMeasuringDistance() {
+        scheduler.post(new Runnable() {
+            public void run() {
+                pauseMeasuring();
+            }
+        });
+    }
+
+    private void pauseMeasuring() {
+        if (!isTracking) {
+            return;
+        }
+        stopTracking();
+
+        // Location and altitude windows do not span the pause
+        if (calibrationInProgress) {
+            persistProvisionalDistance();
+        }
+        clearLocationEvents();
+        altitudeEvents.clear();
+        calibrationCandidateDistance = 0;
+        resetCalibrationCommit();
+
+        isPaused = true;
+        saveSnapshot();
+    }
+
+    // Resumes a paused measurement, so that steps are counted from the first stride on.
+    // Starts a new measurement if there is neither a paused measurement in memory nor a valid snapshot.
+    public void resumeMeasuringDistance(final boolean enableGPSCalibration) {
+        scheduler.post(new Runnable() {
+            public void run() {
+                resumeMeasuring(enableGPSCalibration);
+            }
+        });
+    }
+
+    private void resumeMeasuring(boolean enableGPSCalibration) {
+        if (isTracking) {
+            return;
+        }
+        if (!isPaused) {
+            if (!restoreSnapshot()) {
+                startMeasuring(enableGPSCalibration);
+                return;
+            }
+            sessionRecorder.resume();
+        }
+
+        isPaused = false;
+        startTracking(enableGPSCalibration);
+
+        DistanceEvent distanceEvent = new DistanceEvent(getDistanceTraveled(), stepsTakenTotal, stepCounter.getProvisionalStepsTotal(), relativeAltitudeGain, 0);
+        for (ListenerRegistration registration : listeners) {
+            registration.dispatchDistance(distanceEvent);
+        }
+    }
+
+    private void startTracking(boolean enableGPSCalibration) {
+        // A session that stopped while riding a vehicle must not start with suspended step counting, the classifier starts anew as well
+        activityClassifier.reset();
+        stepCounter.setSuspended(false);
+        trackingScheduler.startTracking();
+        if (classifyActivity) {
+            Sensor pressureSensor = sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
+            if (pressureSensor != null) {
+                sensorManager.registerListener(pressureListener, pressureSensor, (int) (PRESSURE_UPDATE_INTERVAL*1000000));
+            }
+        }
 
         this.enableGPSCalibration = enableGPSCalibration;
 
+        firstSampleTime = 0;
+        lastStepDate = 0;
+        firstStepLogged = false;
+        firstProvisionalStepLogged = false;
         isTracking = true;
+    }
 
-        StepCounterThread stepCounterThread = new StepCounterThread();
-        stepCounterThread.start();
+    // Called from within the TrackingScheduler for every datapoint, by its timer or from the resampled sensor events.
+    @Override
+    public void motionDataDidOccur(double x, double y, double z, long timestamp) {
+        processMotionData(x, y, z, timestamp);
+    }
+
+    // Passes a datapoint to the step counter, the stride analysis is suspended while riding a vehicle to save CPU and to reject phantom steps.
+    private void processMotionData(double x, double y, double z, long timestamp) {
+        long traceStart = latencyTracer.beginSection("processMotionData");
+        if (classifyActivity) {
+            ActivityClassifier.activities previousActivity = activityClassifier.getActivity();
+            ActivityClassifier.activities activity = activityClassifier.addSample(timestamp, x, y, z, stepCounter.getCadence(), stepCounter.getStrideAmplitude());
+            if (activity != previousActivity) {
+                stepCounter.setSuspended(activity == ActivityClassifier.activities.vehicle);
+                sendPluginInfo("Activity: " + activity.name());
+            }
+        }
+
+        stepCounter.processMotionData(x, y, z, timestamp);
+        trackingScheduler.updateLocationDemand(enableGPSCalibration ? lastStepDate : 0, stepLengthModel.isCalibrated((float) stepCounter.getCadence()));
+        latencyTracer.endSection("processMotionData", traceStart);
     }
 
     // Stops the main distance estimation and step length calibration.
     public void stopMeasuringDistance() {
-        sensorManager.unregisterListener(this);
+        scheduler.post(new Runnable() {
+            public void run() {
+                stopMeasuring();
+            }
+        });
+    }
+
+    private void stopMeasuring() {
+        stopTracking();
+        isPaused = false;
+        discardSnapshot();
+    }
+
+    private void stopTracking() {
+        trackingScheduler.stopTracking();
+        sensorManager.unregisterListener(pressureListener);
         isTracking = false;
+        sessionRecorder.flush();
+    }
+
+    // Returns the power-relevant activities since the service has been created or the last reset (see PowerMonitor), ...
+    // ... along with the configuration, so that the numbers of different configurations can be compared.
+    public JSONObject getPowerStats(boolean reset) throws JSONException {
+        long now = scheduler.elapsedRealtime();
+        JSONObject powerStats = powerMonitor.getStats(now);
+        powerStats.put("updateInterval", sensorUpdateInterval);
+        powerStats.put("gravitySource", useAccelerometer ? "accelerometer" : "sensor");
+        powerStats.put("adaptiveSampling", adaptiveSampling);
+        powerStats.put("gnssDutyCycle", gnssDutyCycle);
+        powerStats.put("horizontalDistanceFilter", horizontalDistanceFilter);
+        powerStats.put("tracing", latencyTracer.isEnabled());
+        if (latencyTracer.isEnabled()) {
+            powerStats.put("traceFile", latencyTracer.getTraceFile().getAbsolutePath());
+            powerStats.put("droppedSpans", latencyTracer.getDroppedSpans());
+        }
+        powerStats.put("droppedRecords", sessionRecorder.getDroppedRecords());
+
+        if (reset) {
+            powerMonitor.reset(now);
+        }
+
+        return powerStats;
+    }
+
+    // Opens, closes, or returns a named segment (e.g., a lap) of the running measurement (see SegmentTracker).
+    // Runs on the main looper, so that steps, distance, and elevation of the segment belong to the same moment.
+    public void openSegment(final String name, final SegmentTracker.SegmentCallback callback) {
+        updateSegment(name, SEGMENT_OPEN, callback);
+    }
+
+    public void closeSegment(final String name, final SegmentTracker.SegmentCallback callback) {
+        updateSegment(name, SEGMENT_CLOSE, callback);
+    }
+
+    public void getSegment(final String name, final SegmentTracker.SegmentCallback callback) {
+        updateSegment(name, SEGMENT_GET, callback);
+    }
+
+    private void updateSegment(final String name, final int operation, final SegmentTracker.SegmentCallback callback) {
+        scheduler.post(new Runnable() {
+            public void run() {
+                long now = new Date().getTime();
+                int distanceTraveled = getDistanceTraveled();
+                try {
+                    JSONObject segment;
+                    if (operation == SEGMENT_OPEN) {
+                        segment = segmentTracker.open(name, now, stepsTakenTotal, distanceTraveled, relativeAltitudeGain);
+                    } else if (operation == SEGMENT_CLOSE) {
+                        segment = segmentTracker.close(name, now, stepsTakenTotal, distanceTraveled, relativeAltitudeGain);
+                    } else {
+                        segment = segmentTracker.get(name, now, stepsTakenTotal, distanceTraveled, relativeAltitudeGain);
+                    }
+
+                    if (segment != null) {
+                        callback.segmentDidChange(segment);
+                    } else {
+                        callback.segmentDidFail("Unknown segment: " + name);
+                    }
+                } catch (JSONException e) {
+                    callback.segmentDidFail(e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Used by the native interface to trace the last hop of an event to JavaScript.
+    public LatencyTracer getLatencyTracer() {
+        return latencyTracer;
+    }
+
+    // Streams the recorded data of the current or last session into a CSV or GPX file (see SessionRecorder).
+    public void exportSession(String format, SessionRecorder.ExportCallback callback) {
+        sessionRecorder.export(format, callback);
     }
 
     // Processes new incoming location events.
     @Override
     public void onLocationChanged(Location location) {
+        long processingStart = System.nanoTime();
+        powerMonitor.locationEventDidOccur();
         sendPluginInfo(location.getAccuracy(), "Accuracy: " + String.valueOf(location.getAccuracy()));
 
         if (isTracking) {
             processLocationEvent(location);
         }
+        powerMonitor.processingDidEnd(processingStart);
     }
 
     @Override
@@ -262,23 +646,74 @@ public class DistanceService extends Service implements LocationListener, Sensor
     }
 
     // Used for the delegation pattern (not directly set as in the iOS implementation).
-    public void setDelegate(DistanceServiceDelegate distanceServiceDelegate) {
-        delegate = distanceServiceDelegate;
+    // Any number of listeners can be registered, e.g., one native interface per WebView. Each listener receives its events ...
+    // ... on its own executor, so that a slow listener does not stall the sensor and step processing on the main looper.
+    // Distance events are coalesced and delivered at most once per minDistanceInterval (milliseconds) to the respective listener.
+    public void addListener(DistanceServiceDelegate listener, ScheduledExecutorService executor, long minDistanceInterval) {
+        removeListener(listener);
+        listeners.add(new ListenerRegistration(listener, executor, minDistanceInterval));
+    }
+
+    public void removeListener(DistanceServiceDelegate listener) {
+        for (ListenerRegistration registration : listeners) {
+            if (registration.listener == listener) {
+                listeners.remove(registration);
+            }
+        }
     }
 
     // Called from within the StepCounter service whenever new steps occured.
     @Override
     public void stepCountDidChange(int count, float frequency) {
+        long traceStart = latencyTracer.beginSection("stepCountDidChange");
+        latencyTracer.stepDidOccur();
+        if (!firstStepLogged) {
+            firstStepLogged = true;
+            Log.d(TAG, "First sample to first step: " + (SystemClock.elapsedRealtime()-firstSampleTime) + " ms");
+        }
+
+        int newSteps = count - stepsTakenTotal;
+        if (count > 0) {
+            lastStepDate = stepCounter.getStepDate(count-1);
+        }
         stepsTakenProvisional = count-stepsTakenPersistent;
-        // Walking distance based on GNSS-calibrated step length.
-        distanceTraveledProvisional = stepsTakenProvisional*stepLength;
+        addProvisionalSteps(newSteps, StepLengthModel.getBand(frequency));
+        // Walking distance based on GNSS-calibrated step lengths, looked up per cadence band.
+        // Falls back to the most recently calibrated step length as long as the cadence model is empty.
+        distanceTraveledProvisional = stepLengthModel.getDistance(stepsTakenProvisionalPerBand, stepLength);
 
         // Walking distance based on heuristica formula based on body height and step frequency.
-        int newSteps = count - stepsTakenTotal;
         distanceTraveledHeuristic += newSteps*(stepLengthFactor*bodyHeight*sqrt(frequency));
         stepsTakenTotal = count;
 
-        // Pick on of the two walking distance estimations or calculate the average of both.
+        int distanceTraveled = getDistanceTraveled();
+
+        recordSession(distanceTraveled, frequency);
+
+        DistanceEvent distanceEvent = new DistanceEvent(distanceTraveled, stepsTakenTotal, stepCounter.getProvisionalStepsTotal(), relativeAltitudeGain, stepCounter.getStepsPerMinute());
+        for (ListenerRegistration registration : listeners) {
+            registration.dispatchDistance(distanceEvent);
+        }
+        latencyTracer.endSection("stepCountDidChange", traceStart);
+    }
+
+    // Called from within the StepCounter service whenever the provisional steps changed without new steps (only if enabled).
+    // Distance and steps are not changed until the steps are found.
+    @Override
+    public void provisionalStepCountDidChange(int provisionalCount) {
+        if (!firstProvisionalStepLogged) {
+            firstProvisionalStepLogged = true;
+            Log.d(TAG, "First sample to first provisional step: " + (SystemClock.elapsedRealtime()-firstSampleTime) + " ms");
+        }
+
+        DistanceEvent distanceEvent = new DistanceEvent(getDistanceTraveled(), stepsTakenTotal, provisionalCount, relativeAltitudeGain, stepCounter.getStepsPerMinute());
+        for (ListenerRegistration registration : listeners) {
+            registration.dispatchDistance(distanceEvent);
+        }
+    }
+
+    // Pick on of the two walking distance estimations or calculate the average of both.
+    private int getDistanceTraveled() {
         int distanceTraveled = 0;
         if (distanceTraveledProvisional+distanceTraveledPersistent == 0.0 && distanceTraveledHeuristic != 0.0) {
             distanceTraveled = Math.round(distanceTraveledHeuristic);
@@ -288,32 +723,83 @@ public class DistanceService extends Service implements LocationListener, Sensor
             distanceTraveled = Math.round(((distanceTraveledProvisional+distanceTraveledPersistent)+distanceTraveledHeuristic)/2);
         }
 
-        delegate.distanceDidChange(distanceTraveled, stepsTakenTotal, relativeAltitudeGain);
+        return distanceTraveled;
+    }
+
+    // Records and dispatches the steps that have been found since the previous call, and records the current distance.
+    // If the step counter has replaced recent steps (when a better representative stride is found), these are not recorded again.
+    // If it has withdrawn steps that were already recorded, a truncation is recorded and dispatched before any new step, ...
+    // ... the step counter only withdraws steps that have not been finalized, so that the truncation never reaches finalized steps.
+    private void recordSession(int distanceTraveled, float frequency) {
+        long timestamp = new Date().getTime();
+        if (stepsRecorded > stepsTakenTotal) {
+            int withdrawnSteps = stepsRecorded-stepsTakenTotal;
+            sessionRecorder.recordTruncation(timestamp, stepsTakenTotal);
+            for (ListenerRegistration registration : listeners) {
+                registration.dispatchTruncation(withdrawnSteps);
+            }
+            stepsRecorded = stepsTakenTotal;
+        }
+
+        float strideAmplitude = (float) stepCounter.getStrideAmplitude();
+        for (; stepsRecorded < stepsTakenTotal; stepsRecorded++) {
+            long stepDate = stepCounter.getStepDate(stepsRecorded);
+            sessionRecorder.recordStep(stepDate);
+            for (ListenerRegistration registration : listeners) {
+                registration.dispatchStep(stepDate, frequency, strideAmplitude);
+            }
+        }
+
+        sessionRecorder.recordDistance(timestamp, stepsTakenTotal, distanceTraveled, relativeAltitudeGain);
     }
 
     private void processLocationEvent(Location location) {
-        // Here, not simply take locationEvents.first.time, as this would give the end-time of the 4m walk, not the start, and would neglect steps in this time.
+        sessionRecorder.recordLocation(location.getTime(), location.getLatitude(), location.getLongitude(), location.getAltitude(), location.getAccuracy());
+        activityClassifier.addLocation(location.getTime(), location.hasSpeed(), location.getSpeed());
+
+        // GNSS fixes at vehicle speed would lead to wrong step lengths, so that the calibration window is restarted.
+        if (classifyActivity && activityClassifier.getActivity() == ActivityClassifier.activities.vehicle && locationEventCount > 0) {
+            if (calibrationInProgress) {
+                persistProvisionalDistance();
+            }
+            clearLocationEvents();
+            calibrationCandidateDistance = 0;
+            resetCalibrationCommit();
+        }
+
+        // The step counter only holds the steps of a limited timeframe, so that a longer calibration window is restarted.
+        if (locationEventCount > 0 && location.getTime()-firstLocationTime > StepTimeline.RETENTION) {
+            if (calibrationInProgress) {
+                persistProvisionalDistance();
+            }
+            clearLocationEvents();
+            calibrationCandidateDistance = 0;
+            resetCalibrationCommit();
+        }
+
+        // Here, not simply take the time of the second location event, as this would give the end-time of the 4m walk, not the start, and would neglect steps in this time.
         // Also not use the current locationEvent as we dont have steps for this because of the smoothing timeframe.
-        if (locationEvents.size() >= 3 && enableGPSCalibration) {
-            calibrationCandidateDistance = calculateCumulativeDistance(locationEvents.subList(1, locationEvents.size()));
+        if (locationEventCount >= 3 && enableGPSCalibration) {
+            calibrationCandidateDistance = locationEventsDistance;
             if (calibrationCandidateDistance >= distanceWalkedToCalibrate) {
                 calibrationInProgress = true;
-                int calibrationCandidateSteps = stepCounter.getStepsBetween(new Date(locationEvents.get(0).getTime()), new Date(locationEvents.get(locationEvents.size()-1).getTime()));
+                long calibrationCandidateStart = firstLocationTime;
+                long calibrationCandidateEnd = lastLocation.getTime();
+                int calibrationCandidateSteps = stepCounter.getStepsBetween(new Date(calibrationCandidateStart), new Date(calibrationCandidateEnd));
                 saveStepLength(calibrationCandidateDistance/calibrationCandidateSteps);
+                updateStepLengthModel(calibrationCandidateStart, calibrationCandidateEnd, calibrationCandidateSteps);
                 sendPluginInfo();
             } else if (calibrationInProgress) {
-                // As a delegate, this class has the most recent step count data from the step counter.
-                calibrationInProgress = false;
-                stepsTakenPersistent += stepsTakenProvisional;
-                distanceTraveledPersistent += stepsTakenProvisional*stepLength;
+                persistProvisionalDistance();
             }
         }
 
         if (location.getAccuracy() <= horizontalAccuracyFilter) {
-            locationEvents.add(location);
+            addLocationEvent(location);
         } else {
-            locationEvents.clear();
+            clearLocationEvents();
             calibrationCandidateDistance = 0;
+            resetCalibrationCommit();
             sendPluginInfo("Calibr. cancel.: Accuracy (" + String.valueOf(location.getAccuracy()) + ")");
         }
 
@@ -327,19 +813,81 @@ public class DistanceService extends Service implements LocationListener, Sensor
         }
     }
 
-    // Takes multiple location events and returns the total distance between them, used for step length calibration.
-    private float calculateCumulativeDistance(List<Location> locations) {
-        Location lastLocation = null;
-        float cumulativeDistance = 0;
+    // Feeds the cadence-indexed step length model with the part of the calibration window that has not been committed yet.
+    // A band is only updated once another distanceWalkedToCalibrate has been covered, so that each update reflects a rather constant pace.
+    private void updateStepLengthModel(long calibrationCandidateStart, long calibrationCandidateEnd, int calibrationCandidateSteps) {
+        if (committedCalibrationTime == 0) {
+            committedCalibrationTime = calibrationCandidateStart;
+        }
 
-        for (Location location : locations) {
-            if (lastLocation != null) {
-                cumulativeDistance += lastLocation.distanceTo(location);
-            }
-            lastLocation = location;
+        float segmentDistance = calibrationCandidateDistance-committedCalibrationDistance;
+        int segmentSteps = calibrationCandidateSteps-committedCalibrationSteps;
+        double segmentDurationInSeconds = (calibrationCandidateEnd-committedCalibrationTime)/1000.0;
+        if (segmentDistance < distanceWalkedToCalibrate || segmentSteps <= 0 || segmentDurationInSeconds <= 0) {
+            return;
         }
 
-        return cumulativeDistance;
+        stepLengthModel.addCalibration((float) (segmentSteps/segmentDurationInSeconds), segmentDistance/segmentSteps);
+        saveStepLengthModel();
+        trackingScheduler.calibrationDidOccur();
+
+        committedCalibrationDistance = calibrationCandidateDistance;
+        committedCalibrationSteps = calibrationCandidateSteps;
+        committedCalibrationTime = calibrationCandidateEnd;
+    }
+
+    private void resetCalibrationCommit() {
+        committedCalibrationDistance = 0;
+        committedCalibrationSteps = 0;
+        committedCalibrationTime = 0;
+    }
+
+    // Adds new steps to the band of their cadence.
+    // The step count can also drop (e.g., if steps are revised), the removed steps are then taken from that band first and from the others after, ...
+    // ... so that no band becomes negative.
+    private void addProvisionalSteps(int newSteps, int band) {
+        if (newSteps >= 0) {
+            stepsTakenProvisionalPerBand[band] += newSteps;
+            return;
+        }
+
+        int remaining = -newSteps;
+        for (int k = 0; k < StepLengthModel.BAND_COUNT && remaining > 0; k++) {
+            int other = (band+k) % StepLengthModel.BAND_COUNT;
+            int removed = Math.min(remaining, stepsTakenProvisionalPerBand[other]);
+            stepsTakenProvisionalPerBand[other] -= removed;
+            remaining -= removed;
+        }
+    }
+
+    // As a delegate, this class has the most recent step count data from the step counter.
+    private void persistProvisionalDistance() {
+        calibrationInProgress = false;
+        // The step length may have been calibrated since the last step event, the provisional distance must use the current one
+        distanceTraveledProvisional = stepLengthModel.getDistance(stepsTakenProvisionalPerBand, stepLength);
+        stepsTakenPersistent += stepsTakenProvisional;
+        distanceTraveledPersistent += distanceTraveledProvisional;
+        stepsTakenProvisional = 0;
+        distanceTraveledProvisional = 0;
+        stepsTakenProvisionalPerBand = new int[StepLengthModel.BAND_COUNT];
+    }
+
+    // Adds a location event to the calibration window, the distance is only accumulated from the second event on.
+    private void addLocationEvent(Location location) {
+        if (locationEventCount == 0) {
+            firstLocationTime = location.getTime();
+        } else if (locationEventCount >= 2) {
+            locationEventsDistance += lastLocation.distanceTo(location);
+        }
+        lastLocation = location;
+        locationEventCount++;
+    }
+
+    private void clearLocationEvents() {
+        locationEventCount = 0;
+        firstLocationTime = 0;
+        lastLocation = null;
+        locationEventsDistance = 0;
     }
 
     // Estimate the elevation based on GNSS location events.
@@ -353,6 +901,8 @@ public class DistanceService extends Service implements LocationListener, Sensor
                 sumDiffAltitudes += abs(altitudeEvents.get(i+1) - altitudeEvents.get(i));
             }
             sumAltitudes += altitudeEvents.get(verticalDistanceFilter-1);
+            // The window always moves on, otherwise it would grow with every event once the altitudes have been unstable
+            altitudeEvents.remove(0);
             if (sumDiffAltitudes >= 1) {
                 return;
             }
@@ -364,7 +914,6 @@ public class DistanceService extends Service implements LocationListener, Sensor
                 }
             }
             lastAltitude = currentAltitude;
-            altitudeEvents.remove(0);
         }
     }
 
@@ -378,6 +927,11 @@ public class DistanceService extends Service implements LocationListener, Sensor
     // and from there to the plugin interface.
     // DebugInfo only used for testing purposes.
     public void sendPluginInfo(double accuracy, String debugInfo) {
+        // Sent again as soon as the deferred startup has loaded the persisted data.
+        if (!isReady) {
+            return;
+        }
+
         boolean isReadyToStart = false;
 
         // No need to round accuracy on Android
@@ -385,7 +939,9 @@ public class DistanceService extends Service implements LocationListener, Sensor
             isReadyToStart = true;
         }
 
-        delegate.pluginInfoDidChange(isReadyToStart, debugInfo, lastCalibrated, stepLength, bodyHeight);
+        for (ListenerRegistration registration : listeners) {
+            registration.dispatchPluginInfo(isReadyToStart, debugInfo, lastCalibrated, stepLength, bodyHeight);
+        }
     }
 
     public void sendPluginInfo() {
@@ -416,6 +972,7 @@ public class DistanceService extends Service implements LocationListener, Sensor
     private void loadStepLength() {
         stepLength = preferences.getFloat("stepLength", 0);
         lastCalibrated = preferences.getLong("lastCalibrated", 0);
+        stepLengthModel.deserialize(preferences.getString("stepLengthModel", null));
     }
 
     private void saveStepLength(float stepLength) {
@@ -428,6 +985,95 @@ public class DistanceService extends Service implements LocationListener, Sensor
         editor.apply();
     }
 
+    private void saveStepLengthModel() {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString("stepLengthModel", stepLengthModel.serialize());
+        editor.apply();
+    }
+
+    // The snapshot of a paused measurement holds the state of the step counter and the counts and distances of this service.
+    private void saveSnapshot() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(SNAPSHOT_VERSION);
+            byte[] stepCounterState = stepCounter.saveState();
+            output.writeInt(stepCounterState.length);
+            output.write(stepCounterState);
+
+            output.writeInt(stepsTakenPersistent);
+            output.writeInt(stepsTakenProvisional);
+            output.writeInt(stepsTakenTotal);
+            output.writeInt(stepsRecorded);
+            for (int steps : stepsTakenProvisionalPerBand) {
+                output.writeInt(steps);
+            }
+            output.writeFloat(distanceTraveledPersistent);
+            output.writeFloat(distanceTraveledProvisional);
+            output.writeFloat(distanceTraveledHeuristic);
+            output.writeInt(relativeAltitudeGain);
+            output.writeFloat(lastAltitude);
+            output.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString("distanceSnapshot", Base64.encodeToString(bytes.toByteArray(), Base64.NO_WRAP));
+        editor.apply();
+    }
+
+    private boolean restoreSnapshot() {
+        String encodedSnapshot = preferences.getString("distanceSnapshot", null);
+        if (encodedSnapshot == null) {
+            return false;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(Base64.decode(encodedSnapshot, Base64.NO_WRAP)));
+            if (input.readInt() != SNAPSHOT_VERSION) {
+                return false;
+            }
+            byte[] stepCounterState = new byte[input.readInt()];
+            input.readFully(stepCounterState);
+            if (!stepCounter.restoreState(stepCounterState)) {
+                return false;
+            }
+
+            stepsTakenPersistent = input.readInt();
+            stepsTakenProvisional = input.readInt();
+            stepsTakenTotal = input.readInt();
+            stepsRecorded = input.readInt();
+            stepsTakenProvisionalPerBand = new int[StepLengthModel.BAND_COUNT];
+            for (int band = 0; band < StepLengthModel.BAND_COUNT; band++) {
+                stepsTakenProvisionalPerBand[band] = input.readInt();
+            }
+            distanceTraveledPersistent = input.readFloat();
+            distanceTraveledProvisional = input.readFloat();
+            distanceTraveledHeuristic = input.readFloat();
+            relativeAltitudeGain = input.readInt();
+            lastAltitude = input.readFloat();
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        clearLocationEvents();
+        altitudeEvents = new ArrayList<>();
+        calibrationInProgress = false;
+        calibrationCandidateDistance = 0;
+        resetCalibrationCommit();
+
+        return true;
+    }
+
+    private void discardSnapshot() {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.remove("distanceSnapshot");
+        editor.apply();
+    }
+
     public void resetData() {
         SharedPreferences.Editor editor = preferences.edit();
         editor.clear();
@@ -437,12 +1083,17 @@ public class DistanceService extends Service implements LocationListener, Sensor
         loadStepLength();
     }
 
-    // Stores the incoming sensor data. Used to compensate for fluctuating sampling rates.
+    // Passes the incoming sensor data to the TrackingScheduler, which stores it for the timer or resamples it.
     @Override
     public void onSensorChanged(SensorEvent event) {
-        gravityX = event.values[0];
-        gravityY = event.values[1];
-        gravityZ = event.values[2];
+        long traceStart = latencyTracer.beginSection("onSensorChanged");
+        latencyTracer.sampleDidArrive(traceStart);
+        if (firstSampleTime == 0) {
+            firstSampleTime = SystemClock.elapsedRealtime();
+        }
+
+        trackingScheduler.sensorEventDidOccur(event.timestamp, event.values[0], event.values[1], event.values[2]);
+        latencyTracer.endSection("onSensorChanged", traceStart);
     }
 
     @Override
@@ -457,38 +1108,111 @@ public class DistanceService extends Service implements LocationListener, Sensor
     }
 
     public interface DistanceServiceDelegate {
-        void distanceDidChange(int distanceTraveled, int stepsTaken, int relativeAltitudeGain);
+        void distanceDidChange(int distanceTraveled, int stepsTaken, int provisionalStepsTaken, int relativeAltitudeGain, int stepsPerMinute);
         void pluginInfoDidChange(boolean isReadyToStart, String debugInfo, long lastCalibrated, float stepLength, float bodyHeight);
+        void stepDidOccur(long timestamp, float stepsPerSecond, float strideAmplitude);
+        void stepsDidTruncate(int withdrawnSteps);
     }
 
-    // Thread to process gravity sensor data and count taken steps.
-    // On iOS, sensor data is processed in a background thread automatically, but not on Android.
-    // As stated above, the DistanceService handles sensor data (as opposed to the iOS implementation), ...
-    // ... to ensure that the foreground service consititutes the event listener.
-    class StepCounterThread extends Thread {
-        Handler handler = new Handler();
+    // Immutable distance event, so that it can be handed to the executors of the listeners without copying.
+    static class DistanceEvent {
+        final int distanceTraveled;
+        final int stepsTaken;
+        final int provisionalStepsTaken;
+        final int relativeAltitudeGain;
+        final int stepsPerMinute;
+
+        DistanceEvent(int distanceTraveled, int stepsTaken, int provisionalStepsTaken, int relativeAltitudeGain, int stepsPerMinute) {
+            this.distanceTraveled = distanceTraveled;
+            this.stepsTaken = stepsTaken;
+            this.provisionalStepsTaken = provisionalStepsTaken;
+            this.relativeAltitudeGain = relativeAltitudeGain;
+            this.stepsPerMinute = stepsPerMinute;
+        }
+    }
 
-        private Runnable stepCounterRunnable = new Runnable() {
+    // Holds a listener together with its executor and throttling state.
+    // Distance events are coalesced lock-free: only the most recent pending event is kept, and a delivery is only scheduled ...
+    // ... if there was no pending event before. Plugin status events are rare and therefore delivered one by one.
+    static class ListenerRegistration {
+        final DistanceServiceDelegate listener;
+        private final ScheduledExecutorService executor;
+        private final long minDistanceInterval;
+        private final AtomicReference<DistanceEvent> pendingDistanceEvent = new AtomicReference<>();
+        private volatile long lastDistanceDelivery;
+
+        private final Runnable deliverDistanceRunnable = new Runnable() {
             public void run() {
-                if (isTracking) {
-                    handler.postDelayed(this, (long) (sensorUpdateInterval*1000));
+                DistanceEvent distanceEvent = pendingDistanceEvent.getAndSet(null);
+                if (distanceEvent != null) {
+                    lastDistanceDelivery = SystemClock.elapsedRealtime();
+                    listener.distanceDidChange(distanceEvent.distanceTraveled, distanceEvent.stepsTaken, distanceEvent.provisionalStepsTaken, distanceEvent.relativeAltitudeGain, distanceEvent.stepsPerMinute);
                 }
-                stepCounter.processMotionData(gravityX, gravityY, gravityZ);
             }
         };
 
-        @Override
-        public void run() {
-            if (!isTracking) {
+        ListenerRegistration(DistanceServiceDelegate listener, ScheduledExecutorService executor, long minDistanceInterval) {
+            this.listener = listener;
+            this.executor = executor;
+            this.minDistanceInterval = minDistanceInterval;
+        }
+
+        void dispatchDistance(DistanceEvent distanceEvent) {
+            if (pendingDistanceEvent.getAndSet(distanceEvent) != null) {
                 return;
             }
 
-            handler.postDelayed(stepCounterRunnable, (long) (sensorUpdateInterval*1000));
+            long delay = lastDistanceDelivery + minDistanceInterval - SystemClock.elapsedRealtime();
+            try {
+                executor.schedule(deliverDistanceRunnable, Math.max(0, delay), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The listener is shutting down and will be removed
+            }
+        }
+
+        // Steps are not coalesced, each step is delivered in order
+        void dispatchStep(final long timestamp, final float stepsPerSecond, final float strideAmplitude) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        listener.stepDidOccur(timestamp, stepsPerSecond, strideAmplitude);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The listener is shutting down and will be removed
+            }
+        }
+
+        // Delivered in order with the steps, as the withdrawn steps are the last ones that have been delivered
+        void dispatchTruncation(final int withdrawnSteps) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        listener.stepsDidTruncate(withdrawnSteps);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The listener is shutting down and will be removed
+            }
+        }
+
+        void dispatchPluginInfo(final boolean isReadyToStart, final String debugInfo, final long lastCalibrated, final float stepLength, final float bodyHeight) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        listener.pluginInfoDidChange(isReadyToStart, debugInfo, lastCalibrated, stepLength, bodyHeight);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The listener is shutting down and will be removed
+            }
         }
     }
 
     @Override
     public void onDestroy() {
+        latencyTracer.stop();
+        sessionRecorder.close();
         super.onDestroy();
     }
 }
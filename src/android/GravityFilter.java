@@ -0,0 +1,94 @@
+//
+// GravityFilter.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the gravity filter.
+// Derives the gravity components from raw accelerometer data, as an alternative to the fused gravity sensor.
+// The step impacts act along gravity, so they change the magnitude of the acceleration but hardly its direction. ...
+// ... Therefore, the direction of each sample is low-pass filtered instead of the raw components, and scaled to the gravity of the earth.
+//
+
+package cordova.plugin.stepdist;
+
+public class GravityFilter {
+
+    // Time constant of each of the two low-pass stages in seconds, keeps the orientation changes of a stride ...
+    // ... but removes the sensor noise and the vibrations of vehicles, which would otherwise be aliased by the step counter
+    private static final double TIME_CONSTANT = 0.05;
+
+    // Scales the minimum stride amplitude of the step counter (see StepCounter.setMinStrideAmplitudeFactor).
+    // The accelerometer cannot separate the swing of the thigh from the acceleration of the swinging phone, ...
+    // ... which partly compensate each other, so that a stride changes the filtered direction less than the fused gravity.
+    static final double MIN_STRIDE_AMPLITUDE_FACTOR = 0.5;
+
+    // First stage of the direction (unit vector)
+    private double directionX;
+    private double directionY;
+    private double directionZ;
+
+    private double gravityX;
+    private double gravityY;
+    private double gravityZ;
+    private long lastTimestamp; // Nanoseconds, as provided by the sensor events
+    private boolean isInitialized;
+
+    public void reset() {
+        directionX = 0;
+        directionY = 0;
+        directionZ = 0;
+        gravityX = 0;
+        gravityY = 0;
+        gravityZ = 0;
+        lastTimestamp = 0;
+        isInitialized = false;
+    }
+
+    // Adds an accelerometer sample, the filter weight is derived from the actual time between samples ...
+    // ... as the sampling rate of the accelerometer fluctuates
+    public void addSample(long timestamp, double x, double y, double z) {
+        double magnitude = Math.sqrt(x*x + y*y + z*z);
+        if (magnitude == 0) {
+            // Free fall or a broken sample, the direction is undefined
+            return;
+        }
+        x /= magnitude;
+        y /= magnitude;
+        z /= magnitude;
+
+        if (!isInitialized) {
+            directionX = x;
+            directionY = y;
+            directionZ = z;
+            gravityX = x*StepCounter.GRAVITY;
+            gravityY = y*StepCounter.GRAVITY;
+            gravityZ = z*StepCounter.GRAVITY;
+            lastTimestamp = timestamp;
+            isInitialized = true;
+            return;
+        }
+
+        double deltaInSeconds = Math.max(0, (timestamp-lastTimestamp)/1e9);
+        double alpha = deltaInSeconds/(TIME_CONSTANT+deltaInSeconds);
+        directionX += alpha*(x-directionX);
+        directionY += alpha*(y-directionY);
+        directionZ += alpha*(z-directionZ);
+        gravityX += alpha*(directionX*StepCounter.GRAVITY-gravityX);
+        gravityY += alpha*(directionY*StepCounter.GRAVITY-gravityY);
+        gravityZ += alpha*(directionZ*StepCounter.GRAVITY-gravityZ);
+        lastTimestamp = timestamp;
+    }
+
+    public double getGravityX() {
+        return gravityX;
+    }
+
+    public double getGravityY() {
+        return gravityY;
+    }
+
+    public double getGravityZ() {
+        return gravityZ;
+    }
+}
@@ -0,0 +1,45 @@
+//
+// HandlerScheduler.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the scheduler of the main looper.
+// Runs the callbacks of the DistanceService on the main looper, which also delivers the sensor and location events.
+//
+
+package cordova.plugin.stepdist;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+public class HandlerScheduler implements Scheduler {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void post(Runnable runnable) {
+        handler.post(runnable);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        handler.postDelayed(runnable, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        handler.removeCallbacks(runnable);
+    }
+}
@@ -0,0 +1,250 @@
+//
+// LatencyTracer.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the latency tracer.
+// Records the hops from a sensor sample to the event sent to JavaScript as android.os.Trace sections (systrace/Perfetto) ...
+// ... and as a Chrome trace file (JSON array format) that is written on a background thread.
+//
+
+package cordova.plugin.stepdist;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.Trace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LatencyTracer {
+
+    // Spans that have not been written yet, further spans are dropped while the writer is behind
+    private static final int QUEUE_CAPACITY = 4096;
+
+    // The file is flushed after the writer has been idle for this long (milliseconds)
+    private static final long FLUSH_DELAY = 1000;
+
+    private static final Span STOP = new Span(null, 0, 0, 0, 0, null);
+
+    private final File traceFile;
+    private volatile Recording recording; // A new recording per trace, so that a previous writer only gets its own spans
+    private final AtomicLong droppedSpans = new AtomicLong();
+    private volatile boolean isEnabled;
+    private Thread writerThread; // Only changed by start
+
+    // Start of the section of the most recent sensor sample and of the sample that led to the most recent steps (System.nanoTime())
+    private volatile long lastSampleStart;
+    private final AtomicLong stepSampleStart = new AtomicLong();
+    private final AtomicLong nextLatencyId = new AtomicLong();
+
+    public LatencyTracer(File traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    // Starts a new trace file, the previous one is overwritten
+    // Called on the bridge thread, so neither start nor stop blocks: the new writer waits for the previous one on its own thread
+    public synchronized void start() {
+        if (isEnabled) {
+            return;
+        }
+
+        final Recording recording = new Recording();
+        final Thread previousWriterThread = writerThread;
+        this.recording = recording;
+        droppedSpans.set(0);
+        stepSampleStart.set(0);
+        isEnabled = true;
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                // The previous writer must have closed the file before it is overwritten, spans are queued meanwhile
+                if (previousWriterThread != null) {
+                    try {
+                        previousWriterThread.join();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                writeSpans(recording);
+            }
+        }, "StepDistTraceWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Stops the tracing, spans that have been recorded until then are still written
+    // If the queue is full, the writer finds the flag once it has written the remaining spans
+    public synchronized void stop() {
+        if (!isEnabled) {
+            return;
+        }
+
+        isEnabled = false;
+        recording.isStopped = true;
+        recording.queue.offer(STOP);
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public File getTraceFile() {
+        return traceFile;
+    }
+
+    public long getDroppedSpans() {
+        return droppedSpans.get();
+    }
+
+    // Begins a section on the current thread and returns its start, or 0 if the tracing is disabled
+    // Each section with a start other than 0 must be ended by endSection on the same thread
+    public long beginSection(String name) {
+        if (!isEnabled) {
+            return 0;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+        return System.nanoTime();
+    }
+
+    public void endSection(String name, long start) {
+        if (start == 0) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        addSpan(new Span(name, 0, start, System.nanoTime()-start, Process.myTid(), Thread.currentThread().getName()));
+    }
+
+    // Marks the start of the section of a sensor sample as the beginning of the end-to-end latency
+    public void sampleDidArrive(long start) {
+        if (start != 0) {
+            lastSampleStart = start;
+        }
+    }
+
+    // Called when new steps have been found, the most recent sample is regarded as the one that led to them
+    public void stepDidOccur() {
+        if (isEnabled) {
+            stepSampleStart.set(lastSampleStart);
+        }
+    }
+
+    // Called when an event with new steps has been sent to JavaScript, records the latency from the sample as an async span
+    // Distance events may be coalesced, so that only the first event after new steps is regarded
+    public void eventDidReachBridge() {
+        long start = stepSampleStart.getAndSet(0);
+        if (!isEnabled || start == 0) {
+            return;
+        }
+
+        addSpan(new Span("sampleToBridge", nextLatencyId.incrementAndGet(), start, System.nanoTime()-start, Process.myTid(), Thread.currentThread().getName()));
+    }
+
+    private void addSpan(Span span) {
+        if (!isEnabled || !recording.queue.offer(span)) {
+            droppedSpans.incrementAndGet();
+        }
+    }
+
+    // Runs on the writer thread until the tracing is stopped
+    private void writeSpans(Recording recording) {
+        BlockingQueue<Span> queue = recording.queue;
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(traceFile, false), "UTF-8"));
+            writer.write("[\n");
+
+            int pid = Process.myPid();
+            Set<Integer> namedThreads = new HashSet<>();
+            while (true) {
+                Span span = queue.poll(FLUSH_DELAY, TimeUnit.MILLISECONDS);
+                if (span == null) {
+                    if (recording.isStopped) {
+                        break;
+                    }
+                    writer.flush();
+                    continue;
+                }
+                if (span == STOP) {
+                    break;
+                }
+
+                if (namedThreads.add(span.tid)) {
+                    writer.write(String.format(Locale.US, "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":%d,\"tid\":%d,\"args\":{\"name\":\"%s\"}},\n",
+                            pid, span.tid, span.threadName.replace("\\", "\\\\").replace("\"", "\\\"")));
+                }
+                writeSpan(writer, pid, span);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            // Stopped without writing the remaining spans
+        } finally {
+            if (writer != null) {
+                try {
+                    // The closing bracket may be omitted in the JSON array format, so that a trace stays readable if the app is killed
+                    writer.write("{}]\n");
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Timestamps are in microseconds, sections are complete events, latencies are async events as they span several threads
+    private static void writeSpan(Writer writer, int pid, Span span) throws IOException {
+        double start = span.start/1000.0;
+        if (span.id == 0) {
+            writer.write(String.format(Locale.US, "{\"name\":\"%s\",\"cat\":\"stepdist\",\"ph\":\"X\",\"ts\":%.3f,\"dur\":%.3f,\"pid\":%d,\"tid\":%d},\n",
+                    span.name, start, span.duration/1000.0, pid, span.tid));
+        } else {
+            writer.write(String.format(Locale.US, "{\"name\":\"%s\",\"cat\":\"latency\",\"ph\":\"b\",\"id\":%d,\"ts\":%.3f,\"pid\":%d,\"tid\":%d},\n",
+                    span.name, span.id, start, pid, span.tid));
+            writer.write(String.format(Locale.US, "{\"name\":\"%s\",\"cat\":\"latency\",\"ph\":\"e\",\"id\":%d,\"ts\":%.3f,\"pid\":%d,\"tid\":%d,\"args\":{\"latencyMicros\":%.3f}},\n",
+                    span.name, span.id, start + span.duration/1000.0, pid, span.tid, span.duration/1000.0));
+        }
+    }
+
+    // Spans of one trace and whether it has been stopped, shared by the traced threads and the writer of that trace
+    private static class Recording {
+        final BlockingQueue<Span> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        volatile boolean isStopped;
+    }
+
+    // Immutable span, handed from the traced threads to the writer
+    static class Span {
+        final String name;
+        final long id; // Id of an async span, 0 for a section
+        final long start; // System.nanoTime()
+        final long duration; // Nanoseconds
+        final int tid;
+        final String threadName;
+
+        Span(String name, long id, long start, long duration, int tid, String threadName) {
+            this.name = name;
+            this.id = id;
+            this.start = start;
+            this.duration = duration;
+            this.tid = tid;
+            this.threadName = threadName;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+//
+// MotionResampler.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the resampling stage in front of the step counter.
+// Converts irregular, timestamped sensor samples onto the uniform grid of updateInterval and estimates the motion energy.
+//
+
+package cordova.plugin.stepdist;
+
+public class MotionResampler {
+
+    // Gaps longer than this (nanoseconds) are not interpolated, the grid restarts at the next sample instead
+    private static final long MAX_GAP = 5000000000L;
+
+    // Weight of a new sample in the running mean and energy of the gravity components
+    private static final double ENERGY_SMOOTHING = 0.1;
+
+    private final ResamplerDelegate delegate;
+    private final long gridInterval; // Nanoseconds
+
+    private boolean hasPreviousSample;
+    private long previousTimestamp;
+    private double previousX;
+    private double previousY;
+    private double previousZ;
+    private long nextGridTimestamp;
+
+    private double meanX;
+    private double meanY;
+    private double meanZ;
+    private double motionEnergy;
+
+    public MotionResampler(double updateInterval, ResamplerDelegate delegate) {
+        this.gridInterval = (long) (updateInterval*1e9);
+        this.delegate = delegate;
+    }
+
+    public void reset() {
+        hasPreviousSample = false;
+        motionEnergy = 0;
+    }
+
+    // Adds a sample with the sensor timestamp (nanoseconds) and emits all grid points up to that timestamp ...
+    // ... by linear interpolation between the previous and this sample
+    public void addSample(long timestamp, double x, double y, double z) {
+        updateMotionEnergy(x, y, z);
+
+        if (!hasPreviousSample || timestamp-previousTimestamp > MAX_GAP) {
+            hasPreviousSample = true;
+            storeSample(timestamp, x, y, z);
+            delegate.gridPointDidOccur(timestamp, x, y, z);
+            nextGridTimestamp = timestamp + gridInterval;
+            return;
+        }
+
+        if (timestamp <= previousTimestamp) {
+            return;
+        }
+
+        double sampleDuration = timestamp-previousTimestamp;
+        while (nextGridTimestamp <= timestamp) {
+            double weight = (nextGridTimestamp-previousTimestamp)/sampleDuration;
+            delegate.gridPointDidOccur(nextGridTimestamp,
+                    previousX + weight*(x-previousX),
+                    previousY + weight*(y-previousY),
+                    previousZ + weight*(z-previousZ));
+            nextGridTimestamp += gridInterval;
+        }
+
+        storeSample(timestamp, x, y, z);
+    }
+
+    private void storeSample(long timestamp, double x, double y, double z) {
+        previousTimestamp = timestamp;
+        previousX = x;
+        previousY = y;
+        previousZ = z;
+    }
+
+    // Exponentially weighted variance of the gravity components, low when the device is not moved
+    private void updateMotionEnergy(double x, double y, double z) {
+        if (!hasPreviousSample) {
+            meanX = x;
+            meanY = y;
+            meanZ = z;
+            return;
+        }
+
+        meanX += ENERGY_SMOOTHING*(x-meanX);
+        meanY += ENERGY_SMOOTHING*(y-meanY);
+        meanZ += ENERGY_SMOOTHING*(z-meanZ);
+        double deviation = (x-meanX)*(x-meanX) + (y-meanY)*(y-meanY) + (z-meanZ)*(z-meanZ);
+        motionEnergy += ENERGY_SMOOTHING*(deviation-motionEnergy);
+    }
+
+    public double getMotionEnergy() {
+        return motionEnergy;
+    }
+
+    public interface ResamplerDelegate {
+        void gridPointDidOccur(long timestamp, double x, double y, double z);
+    }
+}
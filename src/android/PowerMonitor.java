@@ -0,0 +1,158 @@
+//
+// PowerMonitor.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the power monitor.
+// Counts the activities of the DistanceService that drive the battery use, so that configurations can be compared per hour.
+//
+
+package cordova.plugin.stepdist;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PowerMonitor {
+
+    private static final double MILLISECONDS_PER_HOUR = 3600000;
+
+    // Callbacks that may wake the CPU, counted from different threads
+    private final AtomicLong sensorEvents = new AtomicLong();
+    private final AtomicLong timerTicks = new AtomicLong();
+    private final AtomicLong locationEvents = new AtomicLong();
+    private final AtomicLong processingNanos = new AtomicLong(); // Time spent within these callbacks
+
+    // Times (milliseconds, elapsed realtime) in which a power-relevant resource is held, zero if it is not held
+    private long periodStart;
+    private long gnssSince;
+    private long gnssMillis;
+    private long wakeLockSince;
+    private long wakeLockMillis;
+    private long sensorsSince;
+    private long sensorsMillis;
+    private long lowRateSince;
+    private long lowRateMillis;
+
+    // The time is passed by the caller, so that the monitor does not depend on a specific clock
+    public PowerMonitor(long now) {
+        periodStart = now;
+    }
+
+    // Starts a new period, resources that are currently held are counted from now on
+    public synchronized void reset(long now) {
+        sensorEvents.set(0);
+        timerTicks.set(0);
+        locationEvents.set(0);
+        processingNanos.set(0);
+        periodStart = now;
+        gnssSince = gnssSince != 0 ? now : 0;
+        gnssMillis = 0;
+        wakeLockSince = wakeLockSince != 0 ? now : 0;
+        wakeLockMillis = 0;
+        sensorsSince = sensorsSince != 0 ? now : 0;
+        sensorsMillis = 0;
+        lowRateSince = lowRateSince != 0 ? now : 0;
+        lowRateMillis = 0;
+    }
+
+    public void sensorEventDidOccur() {
+        sensorEvents.incrementAndGet();
+    }
+
+    public void timerDidFire() {
+        timerTicks.incrementAndGet();
+    }
+
+    public void locationEventDidOccur() {
+        locationEvents.incrementAndGet();
+    }
+
+    // Adds the time since start (System.nanoTime()) to the processing time
+    public void processingDidEnd(long start) {
+        processingNanos.addAndGet(System.nanoTime()-start);
+    }
+
+    public synchronized void gnssDidStart(long now) {
+        if (gnssSince == 0) {
+            gnssSince = now;
+        }
+    }
+
+    public synchronized void gnssDidStop(long now) {
+        if (gnssSince != 0) {
+            gnssMillis += now-gnssSince;
+            gnssSince = 0;
+        }
+    }
+
+    public synchronized void wakeLockDidAcquire(long now) {
+        if (wakeLockSince == 0) {
+            wakeLockSince = now;
+        }
+    }
+
+    public synchronized void wakeLockDidRelease(long now) {
+        if (wakeLockSince != 0) {
+            wakeLockMillis += now-wakeLockSince;
+            wakeLockSince = 0;
+        }
+    }
+
+    // Called whenever the motion sensor is (re-)registered, lowRate indicates the reduced rate of the adaptive sampling
+    public synchronized void sensorsDidRegister(long now, boolean lowRate) {
+        if (sensorsSince == 0) {
+            sensorsSince = now;
+        }
+        if (lowRate && lowRateSince == 0) {
+            lowRateSince = now;
+        } else if (!lowRate && lowRateSince != 0) {
+            lowRateMillis += now-lowRateSince;
+            lowRateSince = 0;
+        }
+    }
+
+    public synchronized void sensorsDidUnregister(long now) {
+        if (sensorsSince != 0) {
+            sensorsMillis += now-sensorsSince;
+            sensorsSince = 0;
+        }
+        if (lowRateSince != 0) {
+            lowRateMillis += now-lowRateSince;
+            lowRateSince = 0;
+        }
+    }
+
+    // Returns the totals of the current period and the rates per hour
+    // Wakeups are the sum of all callbacks, which is an upper bound as several callbacks may be handled within one wakeup
+    public synchronized JSONObject getStats(long now) throws JSONException {
+        long elapsedMillis = Math.max(1, now-periodStart);
+        double hours = elapsedMillis/MILLISECONDS_PER_HOUR;
+        long wakeups = sensorEvents.get()+timerTicks.get()+locationEvents.get();
+        long processingMillis = processingNanos.get()/1000000;
+        long gnssMillis = this.gnssMillis + (gnssSince != 0 ? now-gnssSince : 0);
+        long wakeLockMillis = this.wakeLockMillis + (wakeLockSince != 0 ? now-wakeLockSince : 0);
+        long sensorsMillis = this.sensorsMillis + (sensorsSince != 0 ? now-sensorsSince : 0);
+        long lowRateMillis = this.lowRateMillis + (lowRateSince != 0 ? now-lowRateSince : 0);
+
+        JSONObject stats = new JSONObject();
+        stats.put("elapsedMillis", elapsedMillis);
+        stats.put("sensorEvents", sensorEvents.get());
+        stats.put("timerTicks", timerTicks.get());
+        stats.put("locationEvents", locationEvents.get());
+        stats.put("wakeups", wakeups);
+        stats.put("wakeupsPerHour", Math.round(wakeups/hours));
+        stats.put("processingMillis", processingMillis);
+        stats.put("processingMillisPerHour", Math.round(processingMillis/hours));
+        stats.put("gnssMillis", gnssMillis);
+        stats.put("gnssShare", gnssMillis/(double) elapsedMillis);
+        stats.put("wakeLockMillis", wakeLockMillis);
+        stats.put("wakeLockShare", wakeLockMillis/(double) elapsedMillis);
+        stats.put("sensorsMillis", sensorsMillis);
+        stats.put("sensorsShare", sensorsMillis/(double) elapsedMillis);
+        stats.put("lowRateMillis", lowRateMillis);
+        return stats;
+    }
+}
@@ -0,0 +1,74 @@
+//
+// ProvisionalStepDetector.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the provisional step detector.
+// Finds strides in the raw gravity data as soon as their maximum is seen, before smoothing and without a representative stride.
+//
+
+package cordova.plugin.stepdist;
+
+public class ProvisionalStepDetector {
+
+    // Shortest stride that is regarded (seconds), matches the highest stride frequency of the CadenceEstimator
+    private static final double MIN_STRIDE_DURATION = 0.6;
+
+    // Provisional strides are withdrawn if they have not been confirmed within this timeframe (seconds)
+    private static final double HORIZON = 8;
+
+    private final int minStrideLength; // Samples
+    private final int horizon; // Samples
+    private final int[] strideIndices; // Ring of the indices of the recent strides, one ring per axis next to each other
+    private final int ringSize;
+    private final int[] strideCounts = new int[3];
+    private final int[] lastStrideIndex = new int[3];
+    private final double[] lowestValue = new double[3]; // Lowest value since the last stride
+
+    public ProvisionalStepDetector(double updateInterval) {
+        minStrideLength = Math.max(1, (int) Math.round(MIN_STRIDE_DURATION/updateInterval));
+        horizon = (int) Math.round(HORIZON/updateInterval);
+        ringSize = horizon/minStrideLength + 1;
+        strideIndices = new int[ringSize*3];
+        reset();
+    }
+
+    public void reset() {
+        for (int axis = 0; axis <= 2; axis++) {
+            strideCounts[axis] = 0;
+            lastStrideIndex[axis] = Integer.MIN_VALUE/2;
+            lowestValue[axis] = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    // Adds a raw datapoint of one axis along with its flag (maxima (1), minima(-1), or none (0))
+    // A stride is found at a maxima that rises by at least minAmplitude above the lowest point since the previous stride
+    public void addPoint(int axis, int index, double value, byte flag, double minAmplitude) {
+        if (value < lowestValue[axis]) {
+            lowestValue[axis] = value;
+        }
+
+        if (flag == 1 && value-lowestValue[axis] >= minAmplitude && index-lastStrideIndex[axis] >= minStrideLength) {
+            strideIndices[axis*ringSize + strideCounts[axis]%ringSize] = index;
+            strideCounts[axis]++;
+            lastStrideIndex[axis] = index;
+            lowestValue[axis] = value;
+        }
+    }
+
+    // Returns the number of strides of an axis after the given index that are still within the horizon of the current index
+    // The smoothing may move an extreme by a few datapoints, so that strides up to half a stride after the index are skipped as well
+    public int getStridesAfter(int axis, int index, int currentIndex) {
+        int firstIndex = Math.max(index + minStrideLength/2, currentIndex-horizon);
+        int strides = 0;
+        for (int k = strideCounts[axis]-1; k >= Math.max(0, strideCounts[axis]-ringSize); k--) {
+            if (strideIndices[axis*ringSize + k%ringSize] <= firstIndex) {
+                break;
+            }
+            strides++;
+        }
+
+        return strides;
+    }
+}
@@ -0,0 +1,29 @@
+//
+// Scheduler.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the scheduler interface.
+// Provides the clocks and the (delayed) callbacks of the DistanceService, implemented by the main looper on Android (see HandlerScheduler) ...
+// ... and by a virtual clock in the JVM tests, so that the timer and the resources of a measurement can be simulated for hours.
+//
+
+package cordova.plugin.stepdist;
+
+public interface Scheduler {
+
+    // Milliseconds since boot, including deep sleep, the clock of the sensor timestamps
+    long elapsedRealtime();
+
+    // Milliseconds since epoch
+    long currentTimeMillis();
+
+    // Runs the runnable on the thread of the scheduler, after all runnables that are due before
+    void post(Runnable runnable);
+
+    void postDelayed(Runnable runnable, long delayMillis);
+
+    // Removes all pending posts of the runnable
+    void removeCallbacks(Runnable runnable);
+}
@@ -0,0 +1,106 @@
+//
+// SegmentTracker.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the segment tracker.
+// Holds named segments (e.g., laps) of the running measurement as offsets of the cumulative steps, distance, and elevation.
+// Segments may overlap and do not cost anything per datapoint, their totals are derived when they are queried.
+//
+
+package cordova.plugin.stepdist;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SegmentTracker {
+
+    private final Map<String, Segment> segments = new HashMap<>();
+
+    // Removes all segments, e.g., when a new measurement starts and the cumulative values are reset
+    public void clear() {
+        segments.clear();
+    }
+
+    // Opens a segment at the current cumulative values, a segment with the same name is replaced
+    public JSONObject open(String name, long time, int steps, int distance, int elevation) throws JSONException {
+        Segment segment = new Segment(time, steps, distance, elevation);
+        segments.put(name, segment);
+
+        return segment.toJSON(name, time, steps, distance, elevation);
+    }
+
+    // Closes a segment at the current cumulative values, returns null if there is no such segment
+    // A closed segment keeps its totals until it is opened again or cleared
+    public JSONObject close(String name, long time, int steps, int distance, int elevation) throws JSONException {
+        Segment segment = segments.get(name);
+        if (segment == null) {
+            return null;
+        }
+
+        if (segment.isOpen) {
+            segment.close(time, steps, distance, elevation);
+        }
+
+        return segment.toJSON(name, time, steps, distance, elevation);
+    }
+
+    // Returns the totals of a segment, open segments are counted up to the current cumulative values
+    public JSONObject get(String name, long time, int steps, int distance, int elevation) throws JSONException {
+        Segment segment = segments.get(name);
+        if (segment == null) {
+            return null;
+        }
+
+        return segment.toJSON(name, time, steps, distance, elevation);
+    }
+
+    public interface SegmentCallback {
+        void segmentDidChange(JSONObject segment);
+        void segmentDidFail(String message);
+    }
+
+    static class Segment {
+        final long startTime; // Milliseconds since epoch
+        final int startSteps;
+        final int startDistance;
+        final int startElevation;
+        boolean isOpen = true;
+        long endTime;
+        int endSteps;
+        int endDistance;
+        int endElevation;
+
+        Segment(long startTime, int startSteps, int startDistance, int startElevation) {
+            this.startTime = startTime;
+            this.startSteps = startSteps;
+            this.startDistance = startDistance;
+            this.startElevation = startElevation;
+        }
+
+        void close(long time, int steps, int distance, int elevation) {
+            isOpen = false;
+            endTime = time;
+            endSteps = steps;
+            endDistance = distance;
+            endElevation = elevation;
+        }
+
+        // The distance may be corrected by a step length calibration within the segment, so that it is not less than zero
+        JSONObject toJSON(String name, long time, int steps, int distance, int elevation) throws JSONException {
+            JSONObject segment = new JSONObject();
+            segment.put("name", name);
+            segment.put("isOpen", isOpen);
+            segment.put("startTime", startTime);
+            segment.put("endTime", isOpen ? time : endTime);
+            segment.put("steps", (isOpen ? steps : endSteps) - startSteps);
+            segment.put("distance", Math.max(0, (isOpen ? distance : endDistance) - startDistance));
+            segment.put("elevation", (isOpen ? elevation : endElevation) - startElevation);
+            return segment;
+        }
+    }
+}
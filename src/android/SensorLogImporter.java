@@ -0,0 +1,530 @@
+//
+// SensorLogImporter.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the sensor log importer.
+// Replays CSV exports of sensor-logging apps (e.g., phyphox, Physics Toolbox, or Android sensor loggers) through the MotionResampler into a StepCounter.
+// Files are memory-mapped in chunks and parsed without allocations per line, so that logs of several gigabytes do not reach the heap.
+//
+
+package cordova.plugin.stepdist;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class SensorLogImporter implements MotionResampler.ResamplerDelegate, StepCounter.StepCounterDelegate {
+
+    // Size of the mapped regions, a line must not be longer than this
+    private static final int CHUNK_SIZE = 64*1024*1024;
+
+    // Roles of the columns
+    private static final byte IGNORED = 0;
+    private static final byte TIME = 1;
+    private static final byte X = 2;
+    private static final byte Y = 3;
+    private static final byte Z = 4;
+
+    // Exact powers of ten for the number parsing, doubles are exact up to 10^22
+    private static final double[] DOUBLE_POWERS = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long[] LONG_POWERS = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+            10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+            1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+    };
+
+    // Digits beyond this are not significant for sensor values and would overflow the mantissa
+    private static final int MAX_DIGITS = 18;
+
+    // Rows that are held back to derive the unit of the time column, if the header does not state it
+    private static final int TIME_UNIT_ROWS = 16;
+
+    private final StepCounter stepCounter;
+    private final MotionResampler motionResampler;
+    private final GravityFilter gravityFilter = new GravityFilter();
+
+    // Format of the current file, derived from its header
+    private byte separator;
+    private boolean hasDecimalComma;
+    private byte[] columnRoles;
+    private int timeExponent = -1; // Power of ten from the unit of the time column to nanoseconds, -1 until it is derived from the first rows
+    private double accelerationFactor; // From the unit of the acceleration columns to m/s^2
+    private boolean isGravity; // Whether the columns hold gravity (e.g., from the gravity sensor) or raw acceleration that is low-pass filtered
+    private String gravitySource;
+
+    // Result of the most recent number parsing, value = (negative ? -1 : 1) * mantissa * 10^exponent
+    private long mantissa;
+    private int exponent;
+    private boolean negative;
+
+    // Time of the current line as parsed, while the unit of the time column is not known yet
+    private long timeMantissa;
+    private int timeValueExponent;
+    private boolean timeNegative;
+
+    // Values of the current line
+    private long timestamp;
+    private double x;
+    private double y;
+    private double z;
+
+    // Rows held back until the unit of the time column is derived, the time as parsed and the axes
+    private final long[] heldMantissas = new long[TIME_UNIT_ROWS];
+    private final int[] heldExponents = new int[TIME_UNIT_ROWS];
+    private final boolean[] heldNegatives = new boolean[TIME_UNIT_ROWS];
+    private final double[] heldTimes = new double[TIME_UNIT_ROWS];
+    private final double[][] heldAxes = new double[TIME_UNIT_ROWS][3];
+    private final double[] timeDeltas = new double[TIME_UNIT_ROWS-1];
+    private int heldRows;
+
+    private long samples;
+    private long skippedLines;
+    private long firstTimestamp;
+    private long lastTimestamp;
+
+    // The step counter is configured by the caller and only used by the importer while a file is imported
+    public SensorLogImporter(StepCounter stepCounter, double updateInterval) {
+        this.stepCounter = stepCounter;
+        this.motionResampler = new MotionResampler(updateInterval, this);
+    }
+
+    // Imports a CSV file and returns the number of steps along with statistics of the import
+    // gravitySource is "sensor" if the file holds gravity, "accelerometer" if it holds raw acceleration, or "auto" to decide by the header
+    public JSONObject importFile(File file, String gravitySource) throws IOException, JSONException {
+        long importStart = System.nanoTime();
+        stepCounter.setDelegate(this);
+        stepCounter.resetData();
+        motionResampler.reset();
+        gravityFilter.reset();
+        samples = 0;
+        skippedLines = 0;
+        firstTimestamp = Long.MIN_VALUE;
+        lastTimestamp = Long.MIN_VALUE;
+        columnRoles = null;
+        heldRows = 0;
+        // Loggers that write one file per sensor state the sensor in the file name (e.g., Gravity.csv)
+        boolean isGravityFile = file.getName().toLowerCase(Locale.US).contains("gravity");
+        this.gravitySource = "auto".equals(gravitySource) && isGravityFile ? "sensor" : gravitySource;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            long position = 0;
+
+            while (position < fileSize) {
+                int chunkSize = (int) Math.min(CHUNK_SIZE, fileSize-position);
+                boolean isLastChunk = position+chunkSize == fileSize;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, chunkSize);
+
+                // Only complete lines are parsed, the rest is mapped again with the next chunk
+                int end = chunkSize;
+                if (!isLastChunk) {
+                    while (end > 0 && buffer.get(end-1) != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        throw new IOException("Line longer than " + CHUNK_SIZE + " bytes");
+                    }
+                }
+
+                parseLines(buffer, end);
+                position += end;
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        // Files with fewer rows than needed to derive the unit of the time column
+        if (heldRows > 0) {
+            addHeldRows();
+        }
+
+        if (columnRoles == null) {
+            throw new IOException("No header found");
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("steps", stepCounter.getStepsTotal());
+        result.put("samples", samples);
+        result.put("skippedLines", skippedLines);
+        result.put("durationSeconds", samples > 0 ? (lastTimestamp-firstTimestamp)/1e9 : 0);
+        result.put("gravity", isGravity);
+        result.put("bytes", file.length());
+        result.put("importMillis", (System.nanoTime()-importStart)/1000000);
+        return result;
+    }
+
+    private void parseLines(MappedByteBuffer buffer, int end) throws IOException {
+        int lineStart = 0;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            int contentEnd = lineEnd;
+            if (contentEnd > lineStart && buffer.get(contentEnd-1) == '\r') {
+                contentEnd--;
+            }
+
+            if (contentEnd > lineStart && buffer.get(lineStart) != '#') {
+                if (columnRoles == null) {
+                    parseHeader(buffer, lineStart, contentEnd);
+                } else if (parseLine(buffer, lineStart, contentEnd)) {
+                    if (timeExponent == -1) {
+                        holdRow();
+                    } else {
+                        addSample();
+                    }
+                } else {
+                    skippedLines++;
+                }
+            }
+
+            lineStart = lineEnd+1;
+        }
+    }
+
+    // The header is only parsed once per file, so that it may allocate
+    private void parseHeader(MappedByteBuffer buffer, int start, int end) throws IOException {
+        byte[] bytes = new byte[end-start];
+        for (int k = 0; k < bytes.length; k++) {
+            bytes[k] = buffer.get(start+k);
+        }
+        String header = new String(bytes, Charset.forName("UTF-8")).replace("\uFEFF", "");
+
+        separator = ',';
+        int separatorCount = count(header, ',');
+        if (count(header, ';') > separatorCount) {
+            separator = ';';
+            separatorCount = count(header, ';');
+        }
+        if (count(header, '\t') > separatorCount) {
+            separator = '\t';
+        }
+        // Exports with a semicolon or tab as separator may use the decimal comma of the locale (e.g., phyphox)
+        hasDecimalComma = separator != ',';
+
+        String[] columns = header.split(String.valueOf((char) separator), -1);
+        columnRoles = new byte[columns.length];
+        int timeColumn = -1;
+        int[] axisColumns = {-1, -1, -1};
+        int[] axisPreferences = new int[3];
+        for (int column = 0; column < columns.length; column++) {
+            String[] words = columns[column].toLowerCase(Locale.US).split("[^a-z0-9]+");
+            if (timeColumn == -1 && (contains(words, "time") || contains(words, "timestamp"))) {
+                timeColumn = column;
+                timeExponent = getTimeExponent(words);
+                continue;
+            }
+
+            // If a file holds several sensors, gravity columns are preferred over acceleration columns and these over others (e.g., gyroscope)
+            // G-force columns (e.g., gFx of Physics Toolbox) hold the raw acceleration in g
+            int preference = 1;
+            if (contains(words, "gravity")) {
+                preference = 3;
+            } else if (contains(words, "acceleration") || contains(words, "accelerometer") || contains(words, "accel") || contains(words, "acc")
+                    || contains(words, "gfx") || contains(words, "gfy") || contains(words, "gfz")) {
+                preference = 2;
+            }
+            for (int axis = 0; axis <= 2; axis++) {
+                String axisName = String.valueOf((char) ('x'+axis));
+                boolean isGForce = contains(words, "gf" + axisName);
+                if ((contains(words, axisName) || isGForce) && preference > axisPreferences[axis]) {
+                    axisColumns[axis] = column;
+                    axisPreferences[axis] = preference;
+                    if (axis == 0) {
+                        accelerationFactor = contains(words, "g") || isGForce ? StepCounter.GRAVITY : 1;
+                    }
+                }
+            }
+        }
+
+        if (timeColumn == -1 || axisColumns[0] == -1 || axisColumns[1] == -1 || axisColumns[2] == -1) {
+            throw new IOException("Header without time and x, y, z columns: " + header);
+        }
+
+        columnRoles[timeColumn] = TIME;
+        columnRoles[axisColumns[0]] = X;
+        columnRoles[axisColumns[1]] = Y;
+        columnRoles[axisColumns[2]] = Z;
+        if ("sensor".equals(gravitySource)) {
+            isGravity = true;
+        } else if ("accelerometer".equals(gravitySource)) {
+            isGravity = false;
+        } else {
+            isGravity = axisPreferences[0] == 3;
+        }
+        stepCounter.setMinStrideAmplitudeFactor(isGravity ? 1 : GravityFilter.MIN_STRIDE_AMPLITUDE_FACTOR);
+    }
+
+    // Returns the power of ten from the unit of a time column to nanoseconds, or -1 if the header does not state the unit
+    private static int getTimeExponent(String[] words) {
+        if (contains(words, "ns") || contains(words, "nanos") || contains(words, "nanoseconds")) {
+            return 0;
+        } else if (contains(words, "us") || contains(words, "micros") || contains(words, "microseconds")) {
+            return 3;
+        } else if (contains(words, "ms") || contains(words, "millis") || contains(words, "milliseconds")) {
+            return 6;
+        } else if (contains(words, "s") || contains(words, "sec") || contains(words, "seconds")) {
+            return 9;
+        }
+
+        return -1;
+    }
+
+    // Parses the columns of a data line, returns false if one of them is missing or not a number (e.g., NaN)
+    private boolean parseLine(MappedByteBuffer buffer, int start, int end) {
+        int position = start;
+        int column = 0;
+        int found = 0;
+        while (position <= end && column < columnRoles.length) {
+            byte role = columnRoles[column];
+            if (role != IGNORED) {
+                position = parseNumber(buffer, position, end);
+                if (position < 0) {
+                    return false;
+                }
+
+                if (role == TIME) {
+                    if (timeExponent != -1) {
+                        timestamp = toNanoseconds(mantissa, exponent, negative);
+                    } else {
+                        // Converted once the unit has been derived, see holdRow
+                        timeMantissa = mantissa;
+                        timeValueExponent = exponent;
+                        timeNegative = negative;
+                    }
+                } else if (role == X) {
+                    x = toDouble()*accelerationFactor;
+                } else if (role == Y) {
+                    y = toDouble()*accelerationFactor;
+                } else {
+                    z = toDouble()*accelerationFactor;
+                }
+                found++;
+            }
+
+            while (position < end && buffer.get(position) != separator) {
+                position++;
+            }
+            position++;
+            column++;
+        }
+
+        return found == 4;
+    }
+
+    // Holds back a row until TIME_UNIT_ROWS rows have been parsed, then derives the unit of the time column and adds the held rows
+    private void holdRow() {
+        heldMantissas[heldRows] = timeMantissa;
+        heldExponents[heldRows] = timeValueExponent;
+        heldNegatives[heldRows] = timeNegative;
+        mantissa = timeMantissa;
+        exponent = timeValueExponent;
+        negative = timeNegative;
+        heldTimes[heldRows] = toDouble();
+        heldAxes[heldRows][0] = x;
+        heldAxes[heldRows][1] = y;
+        heldAxes[heldRows][2] = z;
+        heldRows++;
+
+        if (heldRows == TIME_UNIT_ROWS) {
+            addHeldRows();
+        }
+    }
+
+    private void addHeldRows() {
+        timeExponent = guessTimeExponent(heldTimes, heldRows);
+        for (int row = 0; row < heldRows; row++) {
+            timestamp = toNanoseconds(heldMantissas[row], heldExponents[row], heldNegatives[row]);
+            x = heldAxes[row][0];
+            y = heldAxes[row][1];
+            z = heldAxes[row][2];
+            addSample();
+        }
+        heldRows = 0;
+    }
+
+    // Without a unit in the header, the unit is derived from the median time between the first rows, ...
+    // ... as the magnitude of a timestamp does not tell its unit if it counts from the start of the log.
+    // Sensor logs are sampled between 2 Hz and 2 kHz, so the median time between rows is ...
+    // ... below 0.5 in seconds, below 500 in milliseconds, below 500000 in microseconds, and larger in nanoseconds
+    private int guessTimeExponent(double[] times, int rows) {
+        int deltas = 0;
+        for (int row = 1; row < rows; row++) {
+            double delta = times[row]-times[row-1];
+            if (delta > 0) {
+                timeDeltas[deltas++] = delta;
+            }
+        }
+        if (deltas == 0) {
+            // A single row or equal timestamps, the unit does not matter
+            return 9;
+        }
+
+        Arrays.sort(timeDeltas, 0, deltas);
+        double median = timeDeltas[deltas/2];
+        if (median < 0.5) {
+            return 9;
+        } else if (median < 5e2) {
+            return 6;
+        } else if (median < 5e5) {
+            return 3;
+        }
+
+        return 0;
+    }
+
+    // Parses a decimal number in plain or scientific notation into mantissa, exponent, and negative
+    // Returns the position after the number, or -1 if there is no number at the position
+    private int parseNumber(MappedByteBuffer buffer, int position, int end) {
+        while (position < end && (buffer.get(position) == ' ' || buffer.get(position) == '"')) {
+            position++;
+        }
+
+        negative = false;
+        if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+            negative = buffer.get(position) == '-';
+            position++;
+        }
+
+        mantissa = 0;
+        exponent = 0;
+        int digits = 0;
+        boolean hasDigits = false;
+        boolean isFraction = false;
+        while (position < end) {
+            byte character = buffer.get(position);
+            if (character >= '0' && character <= '9') {
+                hasDigits = true;
+                if (digits < MAX_DIGITS) {
+                    if (mantissa != 0 || character != '0') {
+                        digits++;
+                    }
+                    mantissa = mantissa*10 + (character-'0');
+                    if (isFraction) {
+                        exponent--;
+                    }
+                } else if (!isFraction) {
+                    exponent++;
+                }
+            } else if (!isFraction && (character == '.' || (character == ',' && hasDecimalComma))) {
+                isFraction = true;
+            } else {
+                break;
+            }
+            position++;
+        }
+
+        if (!hasDigits) {
+            return -1;
+        }
+
+        if (position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+            position++;
+            boolean isNegativeExponent = false;
+            if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                isNegativeExponent = buffer.get(position) == '-';
+                position++;
+            }
+            int scientificExponent = 0;
+            while (position < end && buffer.get(position) >= '0' && buffer.get(position) <= '9') {
+                scientificExponent = Math.min(scientificExponent*10 + (buffer.get(position)-'0'), 1000);
+                position++;
+            }
+            exponent += isNegativeExponent ? -scientificExponent : scientificExponent;
+        }
+
+        return position;
+    }
+
+    private double toDouble() {
+        double value;
+        if (exponent >= 0) {
+            value = exponent < DOUBLE_POWERS.length ? mantissa*DOUBLE_POWERS[exponent] : mantissa*Math.pow(10, exponent);
+        } else {
+            value = -exponent < DOUBLE_POWERS.length ? mantissa/DOUBLE_POWERS[-exponent] : mantissa/Math.pow(10, -exponent);
+        }
+
+        return negative ? -value : value;
+    }
+
+    // Integer arithmetic, so that timestamps since epoch keep their nanoseconds
+    private long toNanoseconds(long mantissa, int exponent, boolean negative) {
+        int nanosecondExponent = exponent + timeExponent;
+        long value;
+        if (nanosecondExponent >= 0) {
+            value = nanosecondExponent < LONG_POWERS.length ? mantissa*LONG_POWERS[nanosecondExponent] : Long.MAX_VALUE;
+        } else {
+            value = -nanosecondExponent < LONG_POWERS.length ? mantissa/LONG_POWERS[-nanosecondExponent] : 0;
+        }
+
+        return negative ? -value : value;
+    }
+
+    private void addSample() {
+        if (samples == 0) {
+            firstTimestamp = timestamp;
+        }
+        samples++;
+        lastTimestamp = timestamp;
+
+        if (isGravity) {
+            motionResampler.addSample(timestamp, x, y, z);
+        } else {
+            gravityFilter.addSample(timestamp, x, y, z);
+            motionResampler.addSample(timestamp, gravityFilter.getGravityX(), gravityFilter.getGravityY(), gravityFilter.getGravityZ());
+        }
+    }
+
+    @Override
+    public void gridPointDidOccur(long timestamp, double x, double y, double z) {
+        stepCounter.processMotionData(x, y, z, timestamp/1000000);
+    }
+
+    @Override
+    public void stepCountDidChange(int count, float frequency) {
+        // The result is read once the file has been imported
+    }
+
+    @Override
+    public void provisionalStepCountDidChange(int provisionalCount) {
+        // Provisional steps are not regarded for recorded logs
+    }
+
+    private static int count(String string, char character) {
+        int count = 0;
+        for (int k = 0; k < string.length(); k++) {
+            if (string.charAt(k) == character) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private static boolean contains(String[] words, String word) {
+        for (String candidate : words) {
+            if (candidate.equals(word)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,469 @@
+//
+// SessionRecorder.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the session recorder.
+// Appends step, distance, and location records of a session to a journal file and converts it to CSV or GPX on request.
+// Exports run on their own executor from a snapshot of the journal, so that a long export does not hold up the records.
+//
+
+package cordova.plugin.stepdist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SessionRecorder {
+
+    // Size of the buffers between the records and the files, the memory use does not depend on the length of the session
+    private static final int BUFFER_SIZE = 8192;
+
+    // Record types within the journal
+    private static final byte STEP_RECORD = 1;
+    private static final byte DISTANCE_RECORD = 2;
+    private static final byte LOCATION_RECORD = 3;
+    private static final byte TRUNCATION_RECORD = 4;
+
+    // Records that wait for the executor, a further record waits for the journal to catch up (backpressure on the recording thread), ...
+    // ... and is only dropped if the journal is still behind after the wait (e.g., when the storage stalls), so that the recording thread is not blocked for long.
+    // Dropped records are counted and reported with each export, so that an export with holes can be recognized.
+    private static final int MAX_PENDING_RECORDS = 4096;
+    private static final long MAX_RECORD_WAIT = 100; // Milliseconds
+
+    // Exports that are kept in the export directory, older ones are deleted when a new export is written
+    private static final int MAX_EXPORTS = 3;
+    private static final String EXPORT_PREFIX = "stepdist-session-";
+
+    private final File journalFile;
+    private final File exportDirectory;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(); // All journal operations run in order on this executor
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor(); // Conversions of journal snapshots
+    private final Semaphore recordSlots; // One permit per record that may be pending
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private DataOutputStream journal; // Only accessed on the executor
+
+    public SessionRecorder(File journalFile, File exportDirectory) {
+        this(journalFile, exportDirectory, MAX_PENDING_RECORDS);
+    }
+
+    // Allows the tests to provoke dropped records
+    SessionRecorder(File journalFile, File exportDirectory, int maxPendingRecords) {
+        this.journalFile = journalFile;
+        this.exportDirectory = exportDirectory;
+        recordSlots = new Semaphore(maxPendingRecords);
+    }
+
+    // Starts a new session and discards the journal of the previous session
+    public void start() {
+        droppedRecords.set(0);
+        openJournal(false);
+    }
+
+    // Continues the journal of the previous session, e.g., after a paused session has been restored
+    public void resume() {
+        openJournal(true);
+    }
+
+    private void openJournal(final boolean append) {
+        execute(new Runnable() {
+            public void run() {
+                closeJournal();
+                // A new journal replaces the file instead of truncating it, as an export may still read the snapshot of the previous one
+                if (!append) {
+                    journalFile.delete();
+                }
+                try {
+                    journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, append), BUFFER_SIZE));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    // Writes all buffered records to the journal, e.g., when the session stops
+    public void flush() {
+        execute(new Runnable() {
+            public void run() {
+                flushJournal();
+            }
+        });
+    }
+
+    public void recordStep(final long timestamp) {
+        record(new Runnable() {
+            public void run() {
+                try {
+                    if (journal != null) {
+                        journal.writeByte(STEP_RECORD);
+                        journal.writeLong(timestamp);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    // Withdraws the step records after the first stepsTaken steps, e.g., when the step counter has replaced recent steps
+    public void recordTruncation(final long timestamp, final int stepsTaken) {
+        record(new Runnable() {
+            public void run() {
+                try {
+                    if (journal != null) {
+                        journal.writeByte(TRUNCATION_RECORD);
+                        journal.writeLong(timestamp);
+                        journal.writeInt(stepsTaken);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public void recordDistance(final long timestamp, final int stepsTaken, final int distanceTraveled, final int relativeAltitudeGain) {
+        record(new Runnable() {
+            public void run() {
+                try {
+                    if (journal != null) {
+                        journal.writeByte(DISTANCE_RECORD);
+                        journal.writeLong(timestamp);
+                        journal.writeInt(stepsTaken);
+                        journal.writeInt(distanceTraveled);
+                        journal.writeInt(relativeAltitudeGain);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public void recordLocation(final long timestamp, final double latitude, final double longitude, final double altitude, final float accuracy) {
+        record(new Runnable() {
+            public void run() {
+                try {
+                    if (journal != null) {
+                        journal.writeByte(LOCATION_RECORD);
+                        journal.writeLong(timestamp);
+                        journal.writeDouble(latitude);
+                        journal.writeDouble(longitude);
+                        journal.writeDouble(altitude);
+                        journal.writeFloat(accuracy);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    // Streams the journal of the current (or last) session into a CSV or GPX file and returns its path to the callback
+    // Contains all records that have been added before, record by record through fixed-size buffers, ...
+    // ... records that are added during the export are written to the journal meanwhile and left for the next export
+    public void export(final String format, final ExportCallback callback) {
+        execute(new Runnable() {
+            public void run() {
+                flushJournal();
+
+                final long dropped = droppedRecords.get();
+                final long length = journalFile.length();
+                final InputStream snapshot;
+                try {
+                    snapshot = new SnapshotInputStream(new FileInputStream(journalFile), length);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    callback.exportDidFail(e.getMessage() != null ? e.getMessage() : e.toString());
+                    return;
+                }
+
+                exportExecutor.execute(new Runnable() {
+                    public void run() {
+                        export(format, snapshot, dropped, callback);
+                    }
+                });
+            }
+        });
+    }
+
+    private void export(String format, InputStream snapshot, long dropped, ExportCallback callback) {
+        deleteOldExports();
+
+        boolean isGPX = "gpx".equalsIgnoreCase(format);
+        // Exports within the same millisecond get the next free name, a previous export must not be overwritten
+        long exportTime = new Date().getTime();
+        File exportFile;
+        do {
+            exportFile = new File(exportDirectory, EXPORT_PREFIX + exportTime++ + (isGPX ? ".gpx" : ".csv"));
+        } while (exportFile.exists());
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(snapshot, BUFFER_SIZE));
+            try {
+                Writer output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(exportFile), "UTF-8"), BUFFER_SIZE);
+                try {
+                    if (isGPX) {
+                        writeGPX(input, output, dropped);
+                    } else {
+                        writeCSV(input, output, dropped);
+                    }
+                } finally {
+                    output.close();
+                }
+            } finally {
+                input.close();
+            }
+        } catch (Exception e) {
+            // Any failure (I/O, a corrupt journal, or a runtime exception) leaves a partial file, which is of no use
+            e.printStackTrace();
+            exportFile.delete();
+            callback.exportDidFail(e.getMessage() != null ? e.getMessage() : e.toString());
+            return;
+        }
+
+        callback.exportDidFinish(exportFile.getAbsolutePath(), dropped);
+    }
+
+    // Dropped records are given by a leading row of the type dropped, with their number in the steps column
+    private void writeCSV(DataInputStream input, Writer output, long dropped) throws IOException {
+        output.write("type,timestamp,steps,distance,elevation,latitude,longitude,altitude,accuracy\n");
+        if (dropped > 0) {
+            output.write("dropped,," + dropped + ",,,,,,\n");
+        }
+
+        while (true) {
+            byte type;
+            try {
+                type = input.readByte();
+            } catch (EOFException e) {
+                return;
+            }
+
+            long timestamp = input.readLong();
+            if (type == STEP_RECORD) {
+                output.write("step," + timestamp + ",,,,,,,\n");
+            } else if (type == DISTANCE_RECORD) {
+                output.write("distance," + timestamp + "," + input.readInt() + "," + input.readInt() + "," + input.readInt() + ",,,,\n");
+            } else if (type == TRUNCATION_RECORD) {
+                output.write("truncation," + timestamp + "," + input.readInt() + ",,,,,,\n");
+            } else if (type == LOCATION_RECORD) {
+                output.write("location," + timestamp + ",,,," + input.readDouble() + "," + input.readDouble() + "," + input.readDouble() + "," + input.readFloat() + "\n");
+            } else {
+                throw new IOException("Corrupt session journal");
+            }
+        }
+    }
+
+    // GPX only holds the GNSS fixes, steps and distances are skipped, dropped records are given in the description of the metadata
+    private void writeGPX(DataInputStream input, Writer output, long dropped) throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Date date = new Date();
+
+        output.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        output.write("<gpx version=\"1.1\" creator=\"cordova-plugin-stepdist\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+        if (dropped > 0) {
+            output.write("<metadata><desc>Dropped records: " + dropped + "</desc></metadata>\n");
+        }
+        output.write("<trk><trkseg>\n");
+
+        while (true) {
+            byte type;
+            try {
+                type = input.readByte();
+            } catch (EOFException e) {
+                break;
+            }
+
+            long timestamp = input.readLong();
+            if (type == STEP_RECORD) {
+                continue;
+            } else if (type == DISTANCE_RECORD) {
+                input.skipBytes(12);
+            } else if (type == TRUNCATION_RECORD) {
+                input.skipBytes(4);
+            } else if (type == LOCATION_RECORD) {
+                double latitude = input.readDouble();
+                double longitude = input.readDouble();
+                double altitude = input.readDouble();
+                input.readFloat();
+                date.setTime(timestamp);
+                output.write("<trkpt lat=\"" + latitude + "\" lon=\"" + longitude + "\"><ele>" + altitude + "</ele><time>" + dateFormat.format(date) + "</time></trkpt>\n");
+            } else {
+                throw new IOException("Corrupt session journal");
+            }
+        }
+
+        output.write("</trkseg></trk>\n</gpx>\n");
+    }
+
+    // Keeps the most recent exports (including the one that is about to be written) within MAX_EXPORTS
+    private void deleteOldExports() {
+        File[] exports = exportDirectory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().startsWith(EXPORT_PREFIX);
+            }
+        });
+        if (exports == null || exports.length < MAX_EXPORTS) {
+            return;
+        }
+
+        Arrays.sort(exports, new Comparator<File>() {
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+        for (int k = 0; k <= exports.length-MAX_EXPORTS; k++) {
+            exports[k].delete();
+        }
+    }
+
+    private void flushJournal() {
+        try {
+            if (journal != null) {
+                journal.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeJournal() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        journal = null;
+    }
+
+    // Closes the journal and stops the executors after all pending records have been written and all pending exports have been converted
+    public void close() {
+        execute(new Runnable() {
+            public void run() {
+                closeJournal();
+                exportExecutor.shutdown();
+            }
+        });
+        executor.shutdown();
+    }
+
+    // Records that have been dropped since the session started, because the journal was still behind after the wait
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    // Queues a record, waits if too many records are pending and drops it if they remain pending, so that the memory use stays bounded
+    private void record(final Runnable runnable) {
+        boolean hasSlot;
+        try {
+            hasSlot = recordSlots.tryAcquire(MAX_RECORD_WAIT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            hasSlot = false;
+        }
+        if (!hasSlot) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+
+        execute(new Runnable() {
+            public void run() {
+                recordSlots.release();
+                runnable.run();
+            }
+        });
+    }
+
+    private void execute(Runnable runnable) {
+        if (!executor.isShutdown()) {
+            executor.execute(runnable);
+        }
+    }
+
+    // Reads a journal only up to the length it had when the export was requested
+    private static class SnapshotInputStream extends FilterInputStream {
+        private long remaining;
+
+        SnapshotInputStream(InputStream input, long length) {
+            super(input);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int value = super.read();
+            if (value >= 0) {
+                remaining--;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int count = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(Math.min(count, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    public interface ExportCallback {
+        // The dropped records are missing in the export (see getDroppedRecords)
+        void exportDidFinish(String path, long droppedRecords);
+        void exportDidFail(String message);
+    }
+}
@@ -0,0 +1,93 @@
+//
+// StepBatcher.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the step batcher.
+// Packs single steps into binary batches, which are flushed once they are full or the oldest step has waited too long.
+//
+
+package cordova.plugin.stepdist;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class StepBatcher {
+
+    // Each step is packed as little-endian timestamp (int64, milliseconds since epoch), steps per second (float32), and stride amplitude (float32)
+    // A truncation is packed as the negative number of withdrawn steps in place of the timestamp, followed by zeros
+    public static final int RECORD_SIZE = 16;
+
+    private final ScheduledExecutorService executor;
+    private final int maxBatchSize; // Steps per batch
+    private final long maxBatchDelay; // Milliseconds
+    private final BatchCallback callback;
+    private final ByteBuffer batch;
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final Runnable flushRunnable = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    public StepBatcher(ScheduledExecutorService executor, int maxBatchSize, long maxBatchDelay, BatchCallback callback) {
+        this.executor = executor;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchDelay = Math.max(0, maxBatchDelay);
+        this.callback = callback;
+        batch = ByteBuffer.allocate(this.maxBatchSize*RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public synchronized void addStep(long timestamp, float stepsPerSecond, float strideAmplitude) {
+        addRecord(timestamp, stepsPerSecond, strideAmplitude);
+    }
+
+    // Withdraws the given number of the most recently added steps, which may already have been flushed
+    public synchronized void addTruncation(int withdrawnSteps) {
+        addRecord(-withdrawnSteps, 0, 0);
+    }
+
+    private void addRecord(long timestamp, float stepsPerSecond, float strideAmplitude) {
+        batch.putLong(timestamp);
+        batch.putFloat(stepsPerSecond);
+        batch.putFloat(strideAmplitude);
+
+        if (!batch.hasRemaining()) {
+            flush();
+        } else if (scheduledFlush == null) {
+            try {
+                scheduledFlush = executor.schedule(flushRunnable, maxBatchDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The plugin is shutting down, the steps are flushed when the batcher is closed
+            }
+        }
+    }
+
+    // Hands all pending steps to the callback, does nothing if there are none
+    public synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (batch.position() == 0) {
+            return;
+        }
+
+        byte[] packedSteps = new byte[batch.position()];
+        batch.flip();
+        batch.get(packedSteps);
+        batch.clear();
+
+        callback.batchDidFill(packedSteps);
+    }
+
+    public interface BatchCallback {
+        void batchDidFill(byte[] packedSteps);
+    }
+}
@@ -10,8 +10,6 @@
 
 package cordova.plugin.stepdist;
 
-import android.content.Context;
-
 import org.apache.commons.collections.primitives.ArrayDoubleList;
 import org.apache.commons.collections.primitives.ArrayIntList;
 import org.apache.commons.collections.primitives.DoubleList;
@@ -19,9 +17,17 @@ import org.apache.commons.collections.primitives.IntList;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static java.lang.Math.abs;
 
@@ -29,45 +35,81 @@ public class StepCounter {
     
     private StepCounterDelegate delegate;
 
-    // Used to align unit on iOS (g) with Android (m/s^2)
-    private static final Double GRAVITY = 9.8;
+    // Used to align unit on iOS (g) with Android (m/s^2), also by the SensorLogImporter
+    static final double GRAVITY = 9.8;
+
+    // Format of the snapshots created by saveState, snapshots of another version are rejected
+    private static final int SNAPSHOT_VERSION = 1;
 
     // Parameters
-    private Double updateInterval; // Sets how often new data from the motion sensors should be received
-    private Double bSF; // Better stride factor, when a newer stride is regarded better
-    private Double dL; // Deviation length, allowed deviation in length to regard strides as similar
-    private Double dA; // Deviation amplitude, allowed deviation in amplitude to regard strides as similar
-    private Double mSA; // Minimum amplitude that a movement pattern is considered a stride
-    private Integer rT; // Smoothing timeframe
+    private double updateInterval; // Sets how often new data from the motion sensors should be received
+    private double bSF; // Better stride factor, when a newer stride is regarded better
+    private double dL; // Deviation length, allowed deviation in length to regard strides as similar
+    private double dA; // Deviation amplitude, allowed deviation in amplitude to regard strides as similar
+    private double mSA; // Minimum amplitude that a movement pattern is considered a stride
+    private int rT; // Smoothing timeframe
+    private double mSAFactor = 1; // Scales the minimum amplitude to the source of the gravity data, see setMinStrideAmplitudeFactor
+
+    // Options that have been updated while the step counter is running, applied before the next datapoint is processed
+    private final Queue<JSONObject> pendingOptions = new ConcurrentLinkedQueue<>();
 
     // Raw gravity data and information about maxima and minima
-    private List<DoubleList> gravityData = new ArrayList<>(); // Two dimensional array that holds all gravity datapoints, each having a x-, y-, and z-axis
-    private List<IntList> gravityFlag = new ArrayList<>();// Two dimensional array that holds for each gravity point whether its a maxima (1), a minima(-1), or none (0)
+    // Both are ring buffers that hold the most recent datapoints (at least rT+1), the three axes of a datapoint are stored next to each other
+    private double[] gravityData; // Holds the recent gravity datapoints, each having a x-, y-, and z-axis
+    private byte[] gravityFlag; // Holds for each recent gravity point and axis whether its a maxima (1), a minima(-1), or none (0)
+    private int ringMask; // Ring capacity minus one, the capacity is a power of two
+    private final int[] firstExtremePos = new int[3]; // Used by the smoothing algorithm for each axis
+    private int lastConsidered; // Index of the most recent datapoint that has been checked for extrema and strides
 
     // Supplementary variables
     private Stride representativeStride = new Stride(); // Holds the representative stride as soon as one is found — every new incoming stride is compared to this one
     private List<IntList> pastThreeExtremaX = new ArrayList<>(); // Hold the x values of the past three extrema
     private List<DoubleList> pastThreeExtremaY = new ArrayList<>(); // Holds the y values of the past three extrema
-    private List<List<Stride>> strides = new ArrayList<>(); // Holds all found strides
-    private List<List<Boolean>> similarities = new ArrayList<>(); // Holds all information of comparison of strides and whether they are similar or not
+    private List<List<Stride>> strides = new ArrayList<>(); // Holds the past five strides of each axis, older ones are not compared anymore
+    private List<List<Boolean>> similarities = new ArrayList<>(); // Holds the past three comparisons of strides and whether they are similar or not
     private IntList reprStrideOfAxis = new ArrayIntList();
-    private Integer i = 0;
-    private List<Date> currentStepDates = new ArrayList<>();
-    private List<Date> precedingStepDates = new ArrayList<>();
+    private int i = 0;
+    private final StepTimeline stepTimeline = new StepTimeline(); // Holds the dates of all steps, the steps of the current pattern start at currentStepStart
+    private int currentStepStart;
+    private double strideAmplitude; // Amplitude of the most recent stride that has been counted
+    private long sampleTime; // Time of the most recent datapoint in milliseconds since epoch, step dates are derived from it
+    private CadenceEstimator cadenceEstimator; // Streaming estimate of the step frequency, independent of the quantized stride lengths
+    private volatile int stepsPerMinute;
+    private boolean isSuspended; // While suspended, only the cadence is estimated
+
+    // Optional fast path: provisional steps from the raw extrema, which are reconciled with the steps found above
+    private ProvisionalStepDetector provisionalStepDetector;
+    private int lastConfirmedIndex; // Index of the datapoint at which steps have been found the last time
+    private int provisionalStepsTotal;
+
+    // The step counter does not depend on Android APIs, so that the same algorithm can be run on recorded traces outside of the app
+    public StepCounter(JSONObject options) throws JSONException {
+        this(options.getDouble("updateInterval"),
+                options.getDouble("betterStrideFactor"),
+                options.getDouble("deviationLength"),
+                options.getDouble("deviationAmplitude"),
+                options.getDouble("minStrideAmplitude"),
+                options.getInt("smoothingTimeframe"));
+    }
 
-    public StepCounter(Context applicationContext, JSONObject options) throws JSONException {
-        updateInterval = options.getDouble("updateInterval");
-        bSF = options.getDouble("betterStrideFactor");
-        dL = options.getDouble("deviationLength");
-        dA = options.getDouble("deviationAmplitude");
-        mSA = options.getDouble("minStrideAmplitude") * GRAVITY;
-        rT = options.getInt("smoothingTimeframe");
+    // Used by the DistanceService to avoid building an options object when binding
+    public StepCounter(double updateInterval, double betterStrideFactor, double deviationLength, double deviationAmplitude, double minStrideAmplitude, int smoothingTimeframe) {
+        this.updateInterval = updateInterval;
+        bSF = betterStrideFactor;
+        dL = deviationLength;
+        dA = deviationAmplitude;
+        mSA = minStrideAmplitude * GRAVITY;
+        rT = smoothingTimeframe;
+        cadenceEstimator = new CadenceEstimator(updateInterval);
     }
 
     public void resetData() {
         //First, reset motion data and information about maxima and minima
-        gravityData = new ArrayList<>();
-        gravityFlag = new ArrayList<>();
+        int ringCapacity = getRingCapacity(rT);
+        gravityData = new double[ringCapacity*3];
+        gravityFlag = new byte[ringCapacity*3];
+        ringMask = ringCapacity-1;
+        lastConsidered = -1;
 
         // Second, reset supplementary variables
         pastThreeExtremaX = new ArrayList<>();
@@ -76,9 +118,6 @@ public class StepCounter {
 
         // Fill two-dimensional lists with empty lists
         for (int i = 0; i <= 2; i++) {
-            gravityData.add(new ArrayDoubleList());
-            gravityFlag.add(new ArrayIntList());
-            gravityFlag.get(i).add(0);
             pastThreeExtremaX.add(new ArrayIntList());
             pastThreeExtremaY.add(new ArrayDoubleList());
             strides.add(new ArrayList<>());
@@ -86,8 +125,17 @@ public class StepCounter {
 
         representativeStride = new Stride();
         reprStrideOfAxis = new ArrayIntList();
-        currentStepDates = new ArrayList<>();
-        precedingStepDates = new ArrayList<>();
+        stepTimeline.clear();
+        currentStepStart = 0;
+        strideAmplitude = 0;
+        cadenceEstimator.reset();
+        updateStepsPerMinute();
+        isSuspended = false;
+        lastConfirmedIndex = -1;
+        provisionalStepsTotal = 0;
+        if (provisionalStepDetector != null) {
+            provisionalStepDetector.reset();
+        }
         i = 0;
 
         clearSimilarities();
@@ -102,136 +150,424 @@ public class StepCounter {
     }
 
     public void processMotionData(double x, double y, double z) {
+        processMotionData(x, y, z, System.currentTimeMillis());
+    }
+
+    // Processes a datapoint that has been recorded at the given time (milliseconds since epoch)
+    // Datapoints are still expected in intervals of updateInterval
+    public void processMotionData(double x, double y, double z, long timestamp) {
+        sampleTime = timestamp;
+        applyPendingOptions();
+
+        // The cadence is also estimated while suspended, the datapoint is not stored then
+        cadenceEstimator.addSample(x, y, z);
+        updateStepsPerMinute();
+        if (isSuspended) {
+            return;
+        }
+
         // First, simply store the new incoming data points in the gravity and accelerometer array
-        gravityData.get(0).add(x);
-        gravityData.get(1).add(y);
-        gravityData.get(2).add(z);
+        int current = getSlot(i);
+        gravityData[current] = x;
+        gravityData[current+1] = y;
+        gravityData[current+2] = z;
+        gravityFlag[current] = 0;
+        gravityFlag[current+1] = 0;
+        gravityFlag[current+2] = 0;
 
         // Second, calculate for each new incoming point whether it is an maximina (1), minima(-1), or none(0)
+        // As the flag depends on the following point, the flag of the previous point is calculated
         if (i >= 2) {
+            int previous = getSlot(i-1);
+            int secondPrevious = getSlot(i-2);
             for (int axis = 0; axis <= 2; axis++) {
-                gravityFlag.get(axis).add(setMinimaMaxima(gravityData.get(axis).subList(i-2, i+1)));
+                gravityFlag[previous+axis] = setMinimaMaxima(gravityData[secondPrevious+axis], gravityData[previous+axis], gravityData[current+axis]);
+                if (provisionalStepDetector != null) {
+                    provisionalStepDetector.addPoint(axis, i-1, gravityData[previous+axis], gravityFlag[previous+axis], mSA);
+                }
             }
         }
 
         // If we have enough data points to apply the smoothing algorithm ...
         if (i >= rT) {
-            for (int axis = 0; axis <= 2; axis++) {
-                // ... we apply the smoothing algorithm to this part for every axis
-                smoothSubgraph(gravityData.get(axis).subList(i-rT, i), gravityFlag.get(axis).subList(i-rT, i));
-                // Now we shift the point of consideration to the left, so that we only look at smoothed data -> (i-rT)
-                // If this smoothe point of consideration is a minima or maxima ...
-                if (gravityFlag.get(axis).get(i-rT)!= 0) {
-                    // ... append it to the respective array
-                    pastThreeExtremaX.get(axis).add(i-rT);
-                    pastThreeExtremaY.get(axis).add(gravityData.get(axis).get(i-rT));
-                    // If we have gathered three maxima or minima, we can build our first stride
-                    if (pastThreeExtremaX.get(axis).size() >= 3 ) {
-                        Stride stride = createStride(pastThreeExtremaX.get(axis).toArray(), pastThreeExtremaY.get(axis).toArray(), gravityFlag.get(axis).get(i-rT), axis);
-                        strides.get(axis).add(stride);
-                        pastThreeExtremaX.get(axis).removeElementAt(0);
-                        pastThreeExtremaY.get(axis).removeElementAt(0);
+            // ... we apply the smoothing algorithm to this part for every axis
+            // Points that have already been considered are not smoothed again, which only happens after rT has been increased
+            smoothSubgraphs(Math.max(i-rT, lastConsidered+1), i);
+            // Now we shift the point of consideration to the left, so that we only look at smoothed data -> (i-rT)
+            // Usually, this is exactly one point, but after rT has been decreased the points in between are considered as well
+            for (int index = lastConsidered+1; index <= i-rT; index++) {
+                considerDataPoint(index);
+                lastConsidered = index;
+            }
+            // If the phone moves slowly in the pocket it may happen that another axis fulfils the betterStrideFactor at some time
+            // To avoid that previous steps are overwritten, prevent that a better axis is found after 15 steps
+            // If a stride does not fit the representative stride after a phone movement in the pocket, a new pattern is searched in all axes again in the code above
+            // From then on, the steps of the current pattern are final as well
+            if (stepTimeline.size()-currentStepStart >= 15) {
+                for (int axis = 0; axis <= 2; axis++) {
+                    if (!isRepresentativeAxis(axis)) {
+                        reprStrideOfAxis.add(axis);
                     }
-                    // Once we have collected three or more strides, we can start to compare them (the last vs the third-last to compare the same type)
-                    if (strides.get(axis).size() >= 3) {
-                        similarities.get(axis).add(areStridesSimilar(strides.get(axis).get(strides.get(axis).size()-3), strides.get(axis).get(strides.get(axis).size()-1)));
+                }
+                stepTimeline.finalizeSteps(stepTimeline.size());
+            }
+        }
+
+        if (provisionalStepDetector != null) {
+            int provisionalSteps = getProvisionalStepsTotal();
+            if (provisionalSteps != provisionalStepsTotal) {
+                provisionalStepsTotal = provisionalSteps;
+                delegate.provisionalStepCountDidChange(provisionalSteps);
+            }
+        }
+
+        i++;
+    }
+
+    // Checks whether a smoothed datapoint is a minima or maxima in any axis, and builds and compares strides from these extrema
+    private void considerDataPoint(int index) {
+        int considered = getSlot(index);
+        for (int axis = 0; axis <= 2; axis++) {
+            // If this smoothe point of consideration is a minima or maxima ...
+            if (gravityFlag[considered+axis] != 0) {
+                // ... append it to the respective array
+                pastThreeExtremaX.get(axis).add(index);
+                pastThreeExtremaY.get(axis).add(gravityData[considered+axis]);
+                // If we have gathered three maxima or minima, we can build our first stride
+                if (pastThreeExtremaX.get(axis).size() >= 3 ) {
+                    // The oldest of the past five strides is not compared anymore and is reused for the new one, so that finding strides does not allocate
+                    Stride stride = strides.get(axis).size() >= 5 ? strides.get(axis).remove(0) : new Stride();
+                    setStride(stride, pastThreeExtremaX.get(axis), pastThreeExtremaY.get(axis), gravityFlag[considered+axis], axis);
+                    strides.get(axis).add(stride);
+                    pastThreeExtremaX.get(axis).removeElementAt(0);
+                    pastThreeExtremaY.get(axis).removeElementAt(0);
+                }
+                // Once we have collected three or more strides, we can start to compare them (the last vs the third-last to compare the same type)
+                if (strides.get(axis).size() >= 3) {
+                    similarities.get(axis).add(areStridesSimilar(strides.get(axis).get(strides.get(axis).size()-3), strides.get(axis).get(strides.get(axis).size()-1)));
+                    if (similarities.get(axis).size() > 3) {
+                        similarities.get(axis).remove(0);
                     }
-                    // Finally, if we have collected the results of 5 or more comparisons, we can check if there is a pattern and, perhaps, ...
-                    // ... set the representative stride (or change it if we find a better one)
-                    if (!reprStrideOfAxis.contains(axis) && similarities.get(axis).size() >= 3) {
-                        if (similarities.get(axis).get(similarities.get(axis).size()-3) && similarities.get(axis).get(similarities.get(axis).size()-1)) {
-                            if (strides.get(axis).get(strides.get(axis).size()-1).amplitude >= mSA && strides.get(axis).get(strides.get(axis).size()-1).amplitude > representativeStride.amplitude*bSF) {
-                                representativeStride = createRepresentativeStride(new Stride[] {strides.get(axis).get(strides.get(axis).size()-5), strides.get(axis).get(strides.get(axis).size()-3), strides.get(axis).get(strides.get(axis).size()-1)});
-                                reprStrideOfAxis.add(axis);
-                                initializeStepDates(representativeStride, 4);
-                            }
+                }
+                // Finally, if we have collected the results of 5 or more comparisons, we can check if there is a pattern and, perhaps, ...
+                // ... set the representative stride (or change it if we find a better one)
+                if (!isRepresentativeAxis(axis) && similarities.get(axis).size() >= 3) {
+                    if (similarities.get(axis).get(similarities.get(axis).size()-3) && similarities.get(axis).get(similarities.get(axis).size()-1)) {
+                        if (strides.get(axis).get(strides.get(axis).size()-1).amplitude >= mSA && strides.get(axis).get(strides.get(axis).size()-1).amplitude > representativeStride.amplitude*bSF) {
+                            representativeStride = createRepresentativeStride(new Stride[] {strides.get(axis).get(strides.get(axis).size()-5), strides.get(axis).get(strides.get(axis).size()-3), strides.get(axis).get(strides.get(axis).size()-1)});
+                            updateStepsPerMinute();
+                            reprStrideOfAxis.add(axis);
+                            initializeStepDates(representativeStride, 4);
+                            lastConfirmedIndex = index;
                         }
                     }
-                    // After we have found a representative stride we compare new incoming strides of the same axis to it and possibly increase the counter
-                    // If there is no similarity, we re-initialize the representative stride and similarities to look for a new pattern
-                    if (reprStrideOfAxis.size() != 0 && representativeStride.axis == axis && representativeStride.strideType == strides.get(axis).get(strides.get(axis).size()-1).strideType) {
-                        if (areStridesSimilar(representativeStride, strides.get(axis).get(strides.get(axis).size()-1))) {
-                            addStepDates(strides.get(axis).get(strides.get(axis).size()-1), 2);
-                            delegate.stepCountDidChange(getStepsTotal(), getStepsPerSecond(strides.get(axis).get(strides.get(axis).size()-1)));
-                        } else {
-                            representativeStride = new Stride();
-                            reprStrideOfAxis.clear();
-                            clearSimilarities();
-                            precedingStepDates.addAll(new ArrayList<>(currentStepDates));
-                            currentStepDates.clear();
-                        }
+                }
+                // After we have found a representative stride we compare new incoming strides of the same axis to it and possibly increase the counter
+                // If there is no similarity, we re-initialize the representative stride and similarities to look for a new pattern
+                if (reprStrideOfAxis.size() != 0 && representativeStride.axis == axis && representativeStride.strideType == strides.get(axis).get(strides.get(axis).size()-1).strideType) {
+                    if (areStridesSimilar(representativeStride, strides.get(axis).get(strides.get(axis).size()-1))) {
+                        strideAmplitude = strides.get(axis).get(strides.get(axis).size()-1).amplitude;
+                        lastConfirmedIndex = index;
+                        addStepDates(strides.get(axis).get(strides.get(axis).size()-1), 2);
+                        delegate.stepCountDidChange(getStepsTotal(), getFrequency(strides.get(axis).get(strides.get(axis).size()-1)));
+                    } else {
+                        representativeStride = new Stride();
+                        updateStepsPerMinute();
+                        reprStrideOfAxis.clear();
+                        clearSimilarities();
+                        currentStepStart = stepTimeline.size();
+                        stepTimeline.finalizeSteps(currentStepStart);
                     }
                 }
             }
-            // If the phone moves slowly in the pocket it may happen that another axis fulfils the betterStrideFactor at some time
-            // To avoid that previous steps are overwritten, prevent that a better axis is found after 15 steps
-            // If a stride does not fit the representative stride after a phone movement in the pocket, a new pattern is searched in all axes again in the code above
-            if (currentStepDates.size() >= 15) {
-                reprStrideOfAxis.add(0);
-                reprStrideOfAxis.add(1);
-                reprStrideOfAxis.add(2);
+        }
+    }
+
+    // Returns a compact snapshot of the complete detector state (recent datapoints, extrema, strides, representative stride, and steps)
+    // The parameters are not part of the snapshot, restoring it continues with the parameters of this step counter
+    public byte[] saveState() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeDouble(updateInterval);
+
+            output.writeInt(ringMask);
+            for (int k = 0; k < gravityData.length; k++) {
+                output.writeDouble(gravityData[k]);
+                output.writeByte(gravityFlag[k]);
+            }
+            output.writeInt(lastConsidered);
+            output.writeInt(i);
+            output.writeLong(sampleTime);
+
+            for (int axis = 0; axis <= 2; axis++) {
+                output.writeInt(pastThreeExtremaX.get(axis).size());
+                for (int k = 0; k < pastThreeExtremaX.get(axis).size(); k++) {
+                    output.writeInt(pastThreeExtremaX.get(axis).get(k));
+                    output.writeDouble(pastThreeExtremaY.get(axis).get(k));
+                }
+                output.writeInt(strides.get(axis).size());
+                for (Stride stride : strides.get(axis)) {
+                    writeStride(output, stride);
+                }
+                output.writeInt(similarities.get(axis).size());
+                for (Boolean similarity : similarities.get(axis)) {
+                    output.writeBoolean(similarity);
+                }
             }
+            output.writeInt(reprStrideOfAxis.size());
+            for (int k = 0; k < reprStrideOfAxis.size(); k++) {
+                output.writeInt(reprStrideOfAxis.get(k));
+            }
+            writeStride(output, representativeStride);
+
+            stepTimeline.writeState(output);
+            output.writeInt(currentStepStart);
+            output.writeDouble(strideAmplitude);
+            cadenceEstimator.writeState(output);
+            output.flush();
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            e.printStackTrace();
         }
 
-        i++;
+        return bytes.toByteArray();
+    }
+
+    // Continues from a snapshot created by saveState, e.g., after a pause, so that steps are counted from the first stride on
+    // Returns false and resets the data if the snapshot does not fit this step counter (version or update interval)
+    public boolean restoreState(byte[] snapshot) {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(snapshot));
+        resetData();
+        try {
+            if (input.readInt() != SNAPSHOT_VERSION || input.readDouble() != updateInterval) {
+                return false;
+            }
+
+            ringMask = input.readInt();
+            if (ringMask < 0 || ((ringMask+1) & ringMask) != 0) {
+                throw new IOException("Corrupt step counter snapshot");
+            }
+            gravityData = new double[(ringMask+1)*3];
+            gravityFlag = new byte[(ringMask+1)*3];
+            for (int k = 0; k < gravityData.length; k++) {
+                gravityData[k] = input.readDouble();
+                gravityFlag[k] = input.readByte();
+            }
+            lastConsidered = input.readInt();
+            i = input.readInt();
+            sampleTime = input.readLong();
+
+            for (int axis = 0; axis <= 2; axis++) {
+                int extremaCount = input.readInt();
+                for (int k = 0; k < extremaCount; k++) {
+                    pastThreeExtremaX.get(axis).add(input.readInt());
+                    pastThreeExtremaY.get(axis).add(input.readDouble());
+                }
+                int strideCount = input.readInt();
+                for (int k = 0; k < strideCount; k++) {
+                    strides.get(axis).add(readStride(input));
+                }
+                int similarityCount = input.readInt();
+                for (int k = 0; k < similarityCount; k++) {
+                    similarities.get(axis).add(input.readBoolean());
+                }
+            }
+            int axisCount = input.readInt();
+            for (int k = 0; k < axisCount; k++) {
+                reprStrideOfAxis.add(input.readInt());
+            }
+            representativeStride = readStride(input);
+
+            stepTimeline.readState(input);
+            currentStepStart = input.readInt();
+            strideAmplitude = input.readDouble();
+            cadenceEstimator.readState(input);
+            updateStepsPerMinute();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            resetData();
+            return false;
+        }
+
+        // The smoothing timeframe may have been increased since the snapshot has been taken
+        if (getRingCapacity(rT) > ringMask+1) {
+            growRingBuffers(getRingCapacity(rT));
+        }
+
+        return true;
+    }
+
+    private static void writeStride(DataOutputStream output, Stride stride) throws IOException {
+        output.writeDouble(stride.heightMax);
+        output.writeDouble(stride.heightMin);
+        output.writeDouble(stride.amplitude);
+        output.writeInt(stride.lengthFirst);
+        output.writeInt(stride.lengthSecond);
+        output.writeInt(stride.lengthTotal);
+        output.writeInt(stride.axis);
+        output.writeByte(stride.strideType.ordinal());
+    }
+
+    private static Stride readStride(DataInputStream input) throws IOException {
+        Stride stride = new Stride();
+        stride.heightMax = input.readDouble();
+        stride.heightMin = input.readDouble();
+        stride.amplitude = input.readDouble();
+        stride.lengthFirst = input.readInt();
+        stride.lengthSecond = input.readInt();
+        stride.lengthTotal = input.readInt();
+        stride.axis = input.readInt();
+        stride.strideType = Stride.orders.values()[input.readByte()];
+        return stride;
+    }
+
+    // Returns the capacity of the ring buffers for a smoothing timeframe, which must hold at least rT+1 and three datapoints
+    private static int getRingCapacity(int smoothingTimeframe) {
+        return Integer.highestOneBit(Math.max(smoothingTimeframe+1, 3)-1)*2;
+    }
+
+    // Updates parameters while the step counter is running, e.g., for experiments or per-user tuning
+    // Can be called from any thread, the new values are applied atomically before the next datapoint is processed
+    // The update interval cannot be changed this way, as the sensor registration and all durations depend on it
+    public void updateOptions(JSONObject options) {
+        pendingOptions.add(options);
+    }
+
+    private void applyPendingOptions() {
+        JSONObject options;
+        while ((options = pendingOptions.poll()) != null) {
+            bSF = options.optDouble("betterStrideFactor", bSF);
+            dL = options.optDouble("deviationLength", dL);
+            dA = options.optDouble("deviationAmplitude", dA);
+            mSA = options.has("minStrideAmplitude") ? options.optDouble("minStrideAmplitude", 0) * GRAVITY * mSAFactor : mSA;
+            int smoothingTimeframe = options.optInt("smoothingTimeframe", rT);
+            if (smoothingTimeframe != rT && smoothingTimeframe > 0) {
+                // The ring buffers are never shrunk, as the points up to the new point of consideration are still needed
+                if (getRingCapacity(smoothingTimeframe) > ringMask+1) {
+                    growRingBuffers(getRingCapacity(smoothingTimeframe));
+                }
+                rT = smoothingTimeframe;
+            }
+        }
+    }
+
+    // Scales the minimum stride amplitude, e.g., by GravityFilter.MIN_STRIDE_AMPLITUDE_FACTOR if gravity is derived from the accelerometer
+    // Must be called before the first datapoint or on the thread that processes the datapoints
+    public void setMinStrideAmplitudeFactor(double factor) {
+        mSA = mSA/mSAFactor*factor;
+        mSAFactor = factor;
+    }
+
+    // Grows the ring buffers while keeping the stored datapoints (all indices before i) at their new positions
+    private void growRingBuffers(int ringCapacity) {
+        double[] resizedData = new double[ringCapacity*3];
+        byte[] resizedFlag = new byte[ringCapacity*3];
+        int newMask = ringCapacity-1;
+        for (int index = Math.max(0, i-(ringMask+1)); index < i; index++) {
+            int slot = getSlot(index);
+            int resizedSlot = (index & newMask)*3;
+            for (int axis = 0; axis <= 2; axis++) {
+                resizedData[resizedSlot+axis] = gravityData[slot+axis];
+                resizedFlag[resizedSlot+axis] = gravityFlag[slot+axis];
+            }
+        }
+
+        gravityData = resizedData;
+        gravityFlag = resizedFlag;
+        ringMask = newMask;
+    }
+
+    // Returns the position of a datapoint (its x-axis) within the ring buffers
+    private int getSlot(int index) {
+        return (index & ringMask)*3;
     }
 
     // Based on three points, this method returns whether the point in the middle is a maxima (1), a minima(-1), or none (0)
-    private int setMinimaMaxima(DoubleList threePoints)  {
-        if (threePoints.get(0) < threePoints.get(1) && threePoints.get(2) <= threePoints.get(1)) {
+    private static byte setMinimaMaxima(double previous, double point, double next)  {
+        if (previous < point && next <= point) {
             return 1;
-        } else if (threePoints.get(0) > threePoints.get(1) && threePoints.get(2) >= threePoints.get(1)) {
+        } else if (previous > point && next >= point) {
             return -1;
         } else {
             return 0;
         }
     }
 
-    // This function takes an array of datapoints (their y-values) and whether they are maxima, minima, or none to smooth the datapoints
+    // This function takes the datapoints (their y-values) between start (inclusive) and end (exclusive) ...
+    // ... and whether they are maxima, minima, or none to smooth the datapoints of all axes in one pass
     // Smoothing means that small distortions are removed while retaining the original height of maxima and minima
-    private void smoothSubgraph(DoubleList points, IntList flags) {
-        DoubleList rawPoints = new ArrayDoubleList(points);
-        boolean foundExtreme = false;
-        int firstExtremePos = 0;
-
-        for (int i = 0; i <= points.size()-1; i++) {
-            if (foundExtreme && flags.get(i) == flags.get(firstExtremePos)) {
-                points.subList(firstExtremePos+1, i).clear();
-                flags.subList(firstExtremePos+1, i).clear();
-                int lengthOfNewDataPoints = i-firstExtremePos-1;
-                for (int j = 0; j<lengthOfNewDataPoints; j++) {
-                    points.add(firstExtremePos+1, (rawPoints.get(firstExtremePos) + rawPoints.get(i))/2);
-                    flags.add(firstExtremePos+1, 0);
+    // For each axis, the first extreme and the next extreme of the same type are merged, the points in between are flattened
+    private void smoothSubgraphs(int start, int end) {
+        int pendingAxes = 3;
+        firstExtremePos[0] = -1;
+        firstExtremePos[1] = -1;
+        firstExtremePos[2] = -1;
+
+        for (int index = start; index < end && pendingAxes > 0; index++) {
+            int slot = getSlot(index);
+            for (int axis = 0; axis <= 2; axis++) {
+                byte flag = gravityFlag[slot+axis];
+                if (flag == 0 || firstExtremePos[axis] == Integer.MAX_VALUE) {
+                    continue;
                 }
-                if (flags.get(i) == 1) {
-                    if (points.get(firstExtremePos) > points.get(i)) {
-                        flags.set(i, 0);
-                    } else {
-                        flags.set(firstExtremePos, 0);
-                    }
-                } else {
-                    if (points.get(firstExtremePos) > points.get(i)) {
-                        flags.set(firstExtremePos, 0);
-                    } else {
-                        flags.set(i, 0);
-                    }
+                if (firstExtremePos[axis] < 0) {
+                    firstExtremePos[axis] = index;
+                } else if (flag == gravityFlag[getSlot(firstExtremePos[axis])+axis]) {
+                    mergeExtrema(axis, firstExtremePos[axis], index);
+                    // Only the first pair of extrema is merged per axis
+                    firstExtremePos[axis] = Integer.MAX_VALUE;
+                    pendingAxes--;
                 }
-                return;
             }
-            if (!foundExtreme && flags.get(i) != 0) {
-                foundExtreme = true;
-                firstExtremePos = i;
+        }
+    }
+
+    // Flattens the points between two extrema of the same type and keeps the more distinct extreme of both
+    private void mergeExtrema(int axis, int firstIndex, int secondIndex) {
+        int first = getSlot(firstIndex)+axis;
+        int second = getSlot(secondIndex)+axis;
+        double mean = (gravityData[first] + gravityData[second])/2;
+
+        for (int index = firstIndex+1; index < secondIndex; index++) {
+            int slot = getSlot(index)+axis;
+            gravityData[slot] = mean;
+            gravityFlag[slot] = 0;
+        }
+
+        if (gravityFlag[second] == 1) {
+            if (gravityData[first] > gravityData[second]) {
+                gravityFlag[second] = 0;
+            } else {
+                gravityFlag[first] = 0;
+            }
+        } else {
+            if (gravityData[first] > gravityData[second]) {
+                gravityFlag[first] = 0;
+            } else {
+                gravityFlag[second] = 0;
             }
         }
     }
 
-    // Helper function to create a new stride. The if-else block distinguished between a max-min-max and a min-max-min stride
-    private Stride createStride(int[] xValues, double[] yValues, int maxOrMin, int axis) {
+    // Helper function to set a stride from the past three extrema. The if-else block distinguished between a max-min-max and a min-max-min stride
+    private void setStride(Stride stride, IntList xValues, DoubleList yValues, int maxOrMin, int axis) {
         if (maxOrMin == 1) {
-            return new Stride((yValues[0] + yValues[2])/2, yValues[1], xValues[1] - xValues[0], xValues[2] - xValues[1], axis, Stride.orders.MaxMinMax);
+            stride.set((yValues.get(0) + yValues.get(2))/2, yValues.get(1), xValues.get(1) - xValues.get(0), xValues.get(2) - xValues.get(1), axis, Stride.orders.MaxMinMax);
         } else {
-            return new Stride(yValues[1], (yValues[0] + yValues[2])/2, xValues[1] - xValues[0], xValues[2] - xValues[1], axis, Stride.orders.MinMaxMin);
+            stride.set(yValues.get(1), (yValues.get(0) + yValues.get(2))/2, xValues.get(1) - xValues.get(0), xValues.get(2) - xValues.get(1), axis, Stride.orders.MinMaxMin);
+        }
+    }
+
+    // Same as reprStrideOfAxis.contains, which would allocate an iterator for every datapoint
+    private boolean isRepresentativeAxis(int axis) {
+        for (int k = 0; k < reprStrideOfAxis.size(); k++) {
+            if (reprStrideOfAxis.get(k) == axis) {
+                return true;
+            }
         }
+        return false;
     }
 
     // Helper function to create a representative stride that is composed of the average values of similar strides
@@ -247,39 +583,39 @@ public class StepCounter {
     // Helper function to populate the stepDates array with the dates of all found steps, but not for the most recent ones
     // Function considers the time shift caused by the smoothing algorithm and considers the fact that one stride represents two steps
     private void initializeStepDates(Stride stride, int numberOfSteps) {
-        Date currentDate = new Date();
+        long currentDate = sampleTime;
 
-        // Clear the stepDates array
-        currentStepDates.clear();
+        // Clear the steps of the current pattern
+        stepTimeline.truncate(currentStepStart);
 
         // Subtract the time shift caused by the smoothing algorithm
         double rTInSeconds = updateInterval* (double) rT;
-        currentDate.setTime(currentDate.getTime()-(long) rTInSeconds*1000);
+        currentDate -= (long) (rTInSeconds*1000);
 
         // Each stride represents two steps, which equaly one stride. Assume that the length of one step is half of the stride
         // Also, subtract one additional stepLengthInSeconds to compensate for the fact that the most recent stride does not belong to the steps in this method
         double stepLengthInSeconds = (double) stride.lengthTotal*updateInterval/2;
-        currentDate.setTime(currentDate.getTime()-(long) stepLengthInSeconds*1000);
+        currentDate -= (long) (stepLengthInSeconds*1000);
         for (int i=0; i < numberOfSteps; i++) {
-            currentDate.setTime(currentDate.getTime()-(long) stepLengthInSeconds*1000);
-            currentStepDates.add(new Date(currentDate.getTime()));
+            currentDate -= (long) (stepLengthInSeconds*1000);
+            stepTimeline.add(currentDate);
         }
     }
 
     // Helper function to add step dates to the stepDates array, similar to the initializeStepDates but for the most recent ones
     private void addStepDates(Stride stride, int numberOfSteps) {
-        Date currentDate = new Date();
+        long currentDate = sampleTime;
 
         // Subtract the time shift caused by the smoothing algorithm and add the last found step right away
         double rTInSeconds = updateInterval* (double) rT;
-        currentDate.setTime(currentDate.getTime()-(long) rTInSeconds*1000);
-        currentStepDates.add(new Date(currentDate.getTime()));
+        currentDate -= (long) (rTInSeconds*1000);
+        stepTimeline.add(currentDate);
 
         // Each stride represents two steps, which equaly one stride. Assume that the length of one step is half of the stride
         double stepLengthInSeconds = (double) stride.lengthTotal*updateInterval/2;
         for (int i=0; i < numberOfSteps-1; i++) {
-            currentDate.setTime(currentDate.getTime()-(long) stepLengthInSeconds*1000);
-            currentStepDates.add(new Date(currentDate.getTime()));
+            currentDate -= (long) (stepLengthInSeconds*1000);
+            stepTimeline.add(currentDate);
         }
     }
 
@@ -297,35 +633,126 @@ public class StepCounter {
     }
 
     // Simple function to return the total number of steps
+    // This and the following queries of the steps can be called from any thread without locks, as the step timeline is safe to read concurrently
     public int getStepsTotal() {
-        return precedingStepDates.size()+currentStepDates.size();
+        return stepTimeline.size();
     }
 
-    // Returns all steps in a given timeframe
+    // Returns the date of a step (milliseconds since epoch), steps are indexed in the order they have been found, 0 <= index < getStepsTotal()
+    // Only the steps within StepTimeline.RETENTION are held
+    public long getStepDate(int index) {
+        return stepTimeline.get(index);
+    }
+
+    // Returns all steps in a given timeframe, which must not be longer than StepTimeline.RETENTION
     public int getStepsBetween(Date startDate,Date endDate) {
-        List<Date> allStepDates = new ArrayList<>(precedingStepDates);
-        allStepDates.addAll(currentStepDates);
-
-        // As lambda expressions are not available in Android 7/Cordova
-        int stepsBetween = 0;
-        for (Date date : allStepDates) {
-            if (date.after(startDate) && date.before(endDate)) {
-                stepsBetween++;
+        return stepTimeline.countBetween(startDate.getTime(), endDate.getTime());
+    }
+
+    // Suspends the stride analysis, e.g., while riding a vehicle, datapoints are then only used for the cadence estimate
+    // When the analysis is continued, it starts over like after resetData but keeps the steps, as the data before the suspension is not related
+    // Must be called on the thread that processes the datapoints
+    public void setSuspended(boolean suspended) {
+        if (suspended == isSuspended) {
+            return;
+        }
+
+        isSuspended = suspended;
+        if (!suspended) {
+            // The datapoints before the suspension that have not been considered yet are dropped, so that no stride spans the gap
+            Arrays.fill(gravityData, 0);
+            Arrays.fill(gravityFlag, (byte) 0);
+            lastConsidered = -1;
+            i = 0;
+
+            for (int axis = 0; axis <= 2; axis++) {
+                pastThreeExtremaX.get(axis).clear();
+                pastThreeExtremaY.get(axis).clear();
+                strides.get(axis).clear();
+            }
+            representativeStride = new Stride();
+            updateStepsPerMinute();
+            reprStrideOfAxis.clear();
+            clearSimilarities();
+            currentStepStart = stepTimeline.size();
+            stepTimeline.finalizeSteps(currentStepStart);
+
+            // Provisional strides refer to the indices of the datapoints
+            lastConfirmedIndex = -1;
+            if (provisionalStepDetector != null) {
+                provisionalStepDetector.reset();
             }
         }
+    }
+
+    // Returns the estimated step frequency of any periodic movement, also if no steps are counted
+    public double getCadence() {
+        return cadenceEstimator.getStepsPerSecond();
+    }
 
-        return stepsBetween;
+    // Enables the provisional steps, which are reported long before the steps are found and may be withdrawn later
+    public void setProvisionalSteps(boolean enabled) {
+        provisionalStepDetector = enabled ? new ProvisionalStepDetector(updateInterval) : null;
+        lastConfirmedIndex = -1;
+        provisionalStepsTotal = 0;
     }
 
-    // Returns the estimated number of steps per minute
-    // Also, compensate for time shift caused by the smoothing algorithm by only considering steps in a window where smoothed data is available
+    // Returns the found steps plus the strides in the raw data after the most recently found steps (two steps each)
+    // Uses the axis of the representative stride, or the axis with the most strides as long as there is none
+    // Equals getStepsTotal() if the provisional steps are disabled, must be called on the thread that processes the datapoints
+    public int getProvisionalStepsTotal() {
+        if (provisionalStepDetector == null) {
+            return getStepsTotal();
+        }
+
+        int currentIndex = i-1;
+        int provisionalStrides;
+        if (representativeStride.strideType != Stride.orders.none) {
+            provisionalStrides = provisionalStepDetector.getStridesAfter(representativeStride.axis, lastConfirmedIndex, currentIndex);
+        } else {
+            provisionalStrides = 0;
+            for (int axis = 0; axis <= 2; axis++) {
+                provisionalStrides = Math.max(provisionalStrides, provisionalStepDetector.getStridesAfter(axis, lastConfirmedIndex, currentIndex));
+            }
+        }
+
+        return getStepsTotal() + 2*provisionalStrides;
+    }
+
+    // Returns the amplitude (m/s^2) of the most recent stride that has been counted
+    public double getStrideAmplitude() {
+        return strideAmplitude;
+    }
+
+    // Returns the estimated number of steps per minute based on the streaming cadence estimate
+    // Only reported while steps are counted, so that other periodic movements are not regarded as walking
+    // Can be called from any thread
     public int getStepsPerMinute() {
-        Date currentDate = new Date();
-        int rTInMilliseconds = updateInterval.intValue()*rT*1000;
-        Date startDate15Seconds = new Date(currentDate.getTime()-(rTInMilliseconds+15));
-        Date endDate15Seconds = new Date(currentDate.getTime()-(rTInMilliseconds));
+        return stepsPerMinute;
+    }
+
+    // Publishes the steps per minute for readers on other threads, called whenever the estimate or the representative stride changes
+    private void updateStepsPerMinute() {
+        int stepsPerMinute = 0;
+        if (representativeStride.strideType != Stride.orders.none) {
+            stepsPerMinute = (int) Math.round(cadenceEstimator.getStepsPerSecond()*60);
+        }
+
+        // Avoids a volatile write for every datapoint
+        if (stepsPerMinute != this.stepsPerMinute) {
+            this.stepsPerMinute = stepsPerMinute;
+        }
+    }
+
+    // Returns the current step frequency, preferably from the streaming cadence estimate ...
+    // ... and otherwise based on a stride
+    private float getFrequency(Stride stride) {
+        double stepsPerSecond = cadenceEstimator.getStepsPerSecond();
+        if (stepsPerSecond > 0) {
+            return (float) stepsPerSecond;
+        }
 
-        return getStepsBetween(startDate15Seconds, endDate15Seconds)*4;
+        return getStepsPerSecond(stride);
     }
 
     // Returns the current step frequency based on a stride
@@ -337,6 +764,7 @@ public class StepCounter {
 
     public interface StepCounterDelegate {
         void stepCountDidChange(int count, float frequency);
+        void provisionalStepCountDidChange(int provisionalCount);
     }
 
 }
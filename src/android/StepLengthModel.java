@@ -0,0 +1,155 @@
+//
+// StepLengthModel.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the cadence-indexed step length model.
+// Holds GNSS-calibrated step lengths per cadence band and interpolates between them.
+//
+
+package cordova.plugin.stepdist;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class StepLengthModel {
+
+    // Cadence bands in steps per second, the first band starts at MIN_CADENCE
+    static final int BAND_COUNT = 12;
+    private static final float MIN_CADENCE = 0.8f;
+    private static final float BAND_WIDTH = 0.2f;
+
+    // Number of calibrations after which a band is updated with a constant weight, so that it keeps adapting to the user
+    private static final int MAX_BAND_WEIGHT = 10;
+
+    private final float[] stepLengths = new float[BAND_COUNT]; // Calibrated step length per cadence band
+    private final int[] calibrations = new int[BAND_COUNT]; // Number of calibrations that contributed to each cadence band
+
+    // Returns the band a cadence (steps per second) falls into, cadences outside of the model are assigned to the outermost bands
+    public static int getBand(float cadence) {
+        int band = (int) Math.floor((cadence-MIN_CADENCE)/BAND_WIDTH);
+
+        return Math.max(0, Math.min(BAND_COUNT-1, band));
+    }
+
+    // Incrementally updates the band of the given cadence with a newly calibrated step length
+    public void addCalibration(float cadence, float stepLength) {
+        if (cadence <= 0 || stepLength <= 0 || Float.isInfinite(stepLength) || Float.isNaN(stepLength)) {
+            return;
+        }
+
+        int band = getBand(cadence);
+        int weight = Math.min(calibrations[band], MAX_BAND_WEIGHT-1);
+        stepLengths[band] = (stepLengths[band]*weight + stepLength)/(weight+1);
+        calibrations[band]++;
+    }
+
+    // Returns whether at least one band has been calibrated
+    public boolean isEmpty() {
+        for (int band = 0; band < BAND_COUNT; band++) {
+            if (calibrations[band] != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Returns whether one of the two bands around a cadence has been calibrated, i.e., its step length is not extrapolated from distant bands
+    public boolean isCalibrated(float cadence) {
+        float position = (cadence-MIN_CADENCE)/BAND_WIDTH - 0.5f;
+        position = Math.max(0, Math.min(BAND_COUNT-1, position));
+
+        return calibrations[(int) Math.floor(position)] != 0 || calibrations[(int) Math.ceil(position)] != 0;
+    }
+
+    // Returns the step length for a cadence, interpolated between the closest calibrated bands
+    // The fallback (e.g., the most recently calibrated step length) is returned as long as no band has been calibrated
+    public float getStepLength(float cadence, float fallback) {
+        if (cadence <= 0 || isEmpty()) {
+            return fallback;
+        }
+
+        // Fractional band position relative to the band centers
+        float position = (cadence-MIN_CADENCE)/BAND_WIDTH - 0.5f;
+        position = Math.max(0, Math.min(BAND_COUNT-1, position));
+
+        int lowerBand = (int) Math.floor(position);
+        while (lowerBand >= 0 && calibrations[lowerBand] == 0) {
+            lowerBand--;
+        }
+        int upperBand = (int) Math.ceil(position);
+        while (upperBand < BAND_COUNT && calibrations[upperBand] == 0) {
+            upperBand++;
+        }
+
+        if (lowerBand < 0) {
+            return stepLengths[upperBand];
+        } else if (upperBand >= BAND_COUNT || upperBand == lowerBand) {
+            return stepLengths[lowerBand];
+        }
+
+        float weight = (position-lowerBand)/(upperBand-lowerBand);
+        return stepLengths[lowerBand]*(1-weight) + stepLengths[upperBand]*weight;
+    }
+
+    // Returns the distance of steps that have been counted per cadence band (see getBand), evaluated at the band centers
+    public float getDistance(int[] stepsPerBand, float fallback) {
+        float distance = 0;
+        for (int band = 0; band < BAND_COUNT; band++) {
+            if (stepsPerBand[band] != 0) {
+                distance += stepsPerBand[band]*getStepLength(MIN_CADENCE + (band+0.5f)*BAND_WIDTH, fallback);
+            }
+        }
+
+        return distance;
+    }
+
+    public void clear() {
+        for (int band = 0; band < BAND_COUNT; band++) {
+            stepLengths[band] = 0;
+            calibrations[band] = 0;
+        }
+    }
+
+    // Persistence helpers, the model is stored as JSON string in the shared preferences
+    public String serialize() {
+        JSONObject model = new JSONObject();
+        JSONArray lengths = new JSONArray();
+        JSONArray counts = new JSONArray();
+        try {
+            for (int band = 0; band < BAND_COUNT; band++) {
+                lengths.put((double) stepLengths[band]);
+                counts.put(calibrations[band]);
+            }
+            model.put("stepLengths", lengths);
+            model.put("calibrations", counts);
+        } catch (JSONException e) {
+            System.out.println("Error serializing step length model");
+        }
+
+        return model.toString();
+    }
+
+    public void deserialize(String serializedModel) {
+        clear();
+        if (serializedModel == null) {
+            return;
+        }
+
+        try {
+            JSONObject model = new JSONObject(serializedModel);
+            JSONArray lengths = model.getJSONArray("stepLengths");
+            JSONArray counts = model.getJSONArray("calibrations");
+            for (int band = 0; band < BAND_COUNT && band < lengths.length() && band < counts.length(); band++) {
+                stepLengths[band] = (float) lengths.getDouble(band);
+                calibrations[band] = counts.getInt(band);
+            }
+        } catch (JSONException e) {
+            System.out.println("Error deserializing step length model");
+            clear();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+//
+// StepTimeline.java
+//
+// Created by Leonard Greulich on 2/16/19.
+// Copyright © 2019 Leonard Greulich. All rights reserved.
+//
+// Contains the step timeline.
+// Holds the dates of all found steps in a ring of primitive values, steps older than the retention are dropped.
+// Written by a single thread (the one that processes the datapoints), read by any thread without locks.
+//
+
+package cordova.plugin.stepdist;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class StepTimeline {
+
+    // Steps are kept at least this long (milliseconds), which bounds the memory use in long sessions
+    // Longer timeframes (e.g., for the step length calibration) must not be queried
+    public static final long RETENTION = 3600000;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Readers use a sequence lock: the writer makes the version odd while it changes the timeline and even afterwards
+    // A reader retries if the version was odd or has changed while reading, so that the writer is never blocked
+    // All reads and writes are volatile, so that a reader cannot see a change without seeing the version of that change
+    private volatile int version;
+
+    private volatile AtomicLongArray stepDates = new AtomicLongArray(INITIAL_CAPACITY); // Milliseconds since epoch, indexed by the absolute step index
+    private volatile int stepCount; // Absolute number of steps, including dropped ones
+    private volatile int oldestStep; // Absolute index of the oldest step that is still held
+    private int finalizedSteps; // Steps before this absolute index will not be replaced anymore and may be dropped, only used by the writer
+
+    public void clear() {
+        version++;
+        stepDates = new AtomicLongArray(INITIAL_CAPACITY);
+        stepCount = 0;
+        oldestStep = 0;
+        finalizedSteps = 0;
+        version++;
+    }
+
+    public void add(long stepDate) {
+        version++;
+        // First, drop finalized steps that are older than the retention
+        while (oldestStep < finalizedSteps && stepDates.get(getSlot(stepDates, oldestStep)) < stepDate-RETENTION) {
+            oldestStep++;
+        }
+
+        if (stepCount-oldestStep == stepDates.length()) {
+            grow();
+        }
+
+        stepDates.set(getSlot(stepDates, stepCount), stepDate);
+        stepCount++;
+        version++;
+    }
+
+    // Removes all steps from the given absolute index on, which must not be before the finalized steps
+    public void truncate(int index) {
+        version++;
+        stepCount = Math.max(Math.max(index, finalizedSteps), oldestStep);
+        version++;
+    }
+
+    // Marks all steps before the given absolute index as final
+    public void finalizeSteps(int index) {
+        finalizedSteps = Math.max(finalizedSteps, Math.min(index, stepCount));
+    }
+
+    // A single volatile read, so no retry is needed
+    public int size() {
+        return stepCount;
+    }
+
+    // Returns the date of a step by its absolute index, dropped steps return the date of the oldest step that is still held
+    public long get(int index) {
+        while (true) {
+            int startVersion = version;
+            if ((startVersion & 1) == 0) {
+                AtomicLongArray stepDates = this.stepDates;
+                long stepDate = stepDates.get(getSlot(stepDates, Math.max(index, oldestStep)));
+                if (version == startVersion) {
+                    return stepDate;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    // Returns the number of steps strictly between both dates
+    public int countBetween(long startDate, long endDate) {
+        while (true) {
+            int startVersion = version;
+            if ((startVersion & 1) == 0) {
+                AtomicLongArray stepDates = this.stepDates;
+                int stepCount = this.stepCount;
+                int stepsBetween = 0;
+                for (int index = oldestStep; index < stepCount; index++) {
+                    long stepDate = stepDates.get(getSlot(stepDates, index));
+                    if (stepDate > startDate && stepDate < endDate) {
+                        stepsBetween++;
+                    }
+                }
+                if (version == startVersion) {
+                    return stepsBetween;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    // Writes the steps that are still held, along with the absolute indices, only called by the writer
+    public void writeState(DataOutputStream output) throws IOException {
+        output.writeInt(stepCount);
+        output.writeInt(oldestStep);
+        output.writeInt(finalizedSteps);
+        for (int index = oldestStep; index < stepCount; index++) {
+            output.writeLong(stepDates.get(getSlot(stepDates, index)));
+        }
+    }
+
+    public void readState(DataInputStream input) throws IOException {
+        int stepCount = input.readInt();
+        int oldestStep = input.readInt();
+        int finalizedSteps = input.readInt();
+        if (oldestStep < 0 || oldestStep > stepCount || finalizedSteps > stepCount) {
+            throw new IOException("Corrupt step timeline");
+        }
+
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < stepCount-oldestStep) {
+            capacity *= 2;
+        }
+        AtomicLongArray stepDates = new AtomicLongArray(capacity);
+        for (int index = oldestStep; index < stepCount; index++) {
+            stepDates.set(getSlot(stepDates, index), input.readLong());
+        }
+
+        version++;
+        this.stepDates = stepDates;
+        this.stepCount = stepCount;
+        this.oldestStep = oldestStep;
+        this.finalizedSteps = finalizedSteps;
+        version++;
+    }
+
+    private static int getSlot(AtomicLongArray stepDates, int index) {
+        return index & (stepDates.length()-1);
+    }
+
+    // Only called by the writer while the version is odd
+    private void grow() {
+        AtomicLongArray grownStepDates = new AtomicLongArray(stepDates.length()*2);
+        for (int index = oldestStep; index < stepCount; index++) {
+            grownStepDates.set(getSlot(grownStepDates, index), stepDates.get(getSlot(stepDates, index)));
+        }
+        stepDates = grownStepDates;
+    }
+}
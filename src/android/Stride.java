@@ -17,13 +17,13 @@ public class Stride {
         MaxMinMax, MinMaxMin, none
     }
 
-    Double heightMax;
-    Double heightMin;
-    Double amplitude;
-    Integer lengthFirst;
-    Integer lengthSecond;
-    Integer lengthTotal;
-    Integer axis;
+    double heightMax;
+    double heightMin;
+    double amplitude;
+    int lengthFirst;
+    int lengthSecond;
+    int lengthTotal;
+    int axis;
     orders strideType;
 
     public Stride() {
@@ -37,18 +37,11 @@ public class Stride {
         this.strideType = orders.none;
     }
 
-    public Stride(Double heightMax, Double heightMin, Integer lengthFirst, Integer lengthSecond, Integer axis, orders strideType) {
-        this.heightMax = heightMax;
-        this.heightMin = heightMin;
-        this.amplitude = heightMax - heightMin;
-        this.lengthFirst = lengthFirst;
-        this.lengthSecond = lengthSecond;
-        this.lengthTotal = lengthFirst + lengthSecond;
-        this.axis = axis;
-        this.strideType = strideType;
+    public Stride(double heightMax, double heightMin, int lengthFirst, int lengthSecond, int axis, orders strideType) {
+        set(heightMax, heightMin, lengthFirst, lengthSecond, axis, strideType);
     }
 
-    public Stride(Double amplitude, Integer lengthTotal, Integer axis, orders strideType) {
+    public Stride(double amplitude, int lengthTotal, int axis, orders strideType) {
         this.heightMax = 0.0;
         this.heightMin = 0.0;
         this.amplitude = amplitude;
@@ -58,4 +51,16 @@ public class Stride {
         this.axis = axis;
         this.strideType = strideType;
     }
+
+    // Overwrites all values, so that a stride that is not compared anymore can be reused for a new one
+    public void set(double heightMax, double heightMin, int lengthFirst, int lengthSecond, int axis, orders strideType) {
+        this.heightMax = heightMax;
+        this.heightMin = heightMin;
+        this.amplitude = heightMax - heightMin;
+        this.lengthFirst = lengthFirst;
+        this.lengthSecond = lengthSecond;
+        this.lengthTotal = lengthFirst + lengthSecond;
+        this.axis = axis;
+        this.strideType = strideType;
+    }
 }
@@ -0,0 +1,290 @@
+//
+// TrackingScheduler.java
+//
+// Created on 10/19/26.
+// Copyright © 2026 StepDistPlugin contributors. All rights reserved.
+//
+// Contains the tracking scheduler.
+// Decides when the DistanceService holds the wake lock, the GNSS localization, and the motion sensor (at which rate), and when ...
+// ... datapoints are passed on to the step counter, either by a fixed-rate timer or by resampling the sensor events (adaptive sampling).
+// Only depends on a Scheduler and the Resources, so that the same decisions run on a virtual clock in the JVM tests.
+// All methods must be called on the thread of the scheduler.
+//
+
+package cordova.plugin.stepdist;
+
+public class TrackingScheduler implements MotionResampler.ResamplerDelegate {
+
+    // Sampling period of the accelerometer when it is used instead of the gravity sensor.
+    // The low-pass filter needs more samples than the step counter, but the accelerometer is still much cheaper than the fused gravity sensor.
+    static final double ACCELEROMETER_UPDATE_INTERVAL = 0.02;
+
+    // Adaptive sampling: the sensor rate is reduced while the device is hardly moved and increased as soon as it moves again.
+    // Samples are then processed as they arrive and converted onto the uniform grid the step counter expects (see MotionResampler).
+    static final double LOW_RATE_UPDATE_INTERVAL = 0.5;
+    private static final double LOW_MOTION_ENERGY = 0.02;
+    private static final double HIGH_MOTION_ENERGY = 0.1;
+    private static final long LOW_MOTION_DURATION = 10000; // Milliseconds of low motion energy before the rate is reduced
+
+    // GNSS duty cycle: the receiver is only on while the user walks and the step length of the current cadence is to be calibrated, ...
+    // ... i.e., its cadence band has not been calibrated yet or the last calibration of the session is older than the recalibration interval.
+    // The user is regarded as walking as long as the last step is not older than the step timeout, as steps are found with a delay.
+    // The receiver is switched off only after it has not been needed for the idle duration, so that short pauses or cadence changes do not restart it.
+    static final long RECALIBRATION_INTERVAL = 600000; // Milliseconds
+    private static final long STEP_TIMEOUT = 10000; // Milliseconds
+    private static final long LOCATION_IDLE_DURATION = 30000; // Milliseconds
+
+    private final Scheduler scheduler;
+    private final Resources resources;
+    private final TrackingDelegate delegate;
+    private final PowerMonitor powerMonitor; // Counts the same activities for getPowerStats on the device
+
+    private final double updateInterval;
+    private final boolean useAccelerometer;
+    private final boolean adaptiveSampling;
+    private final boolean gnssDutyCycle;
+
+    private final GravityFilter gravityFilter = new GravityFilter();
+    private final MotionResampler motionResampler;
+
+    private boolean hasResources;
+    private boolean isTracking;
+    private boolean isLowRate;
+    private long lowMotionSince;
+    private long sensorClockOffset; // Milliseconds between the sensor timestamps and the wall clock
+    private boolean isLocationOn;
+    private long locationIdleSince;
+    private long lastCalibrationTime; // Elapsed realtime of the last calibration, 0 if none in this session
+
+    // Most recent gravity values, passed on by the timer
+    private double gravityX;
+    private double gravityY;
+    private double gravityZ;
+
+    public TrackingScheduler(Scheduler scheduler, Resources resources, TrackingDelegate delegate, PowerMonitor powerMonitor,
+                             double updateInterval, boolean useAccelerometer, boolean adaptiveSampling, boolean gnssDutyCycle) {
+        this.scheduler = scheduler;
+        this.resources = resources;
+        this.delegate = delegate;
+        this.powerMonitor = powerMonitor;
+        this.updateInterval = updateInterval;
+        this.useAccelerometer = useAccelerometer;
+        this.adaptiveSampling = adaptiveSampling;
+        this.gnssDutyCycle = gnssDutyCycle;
+        motionResampler = new MotionResampler(updateInterval, this);
+    }
+
+    // Starts the GNSS localization used for the step length calibration and acquires the wake lock, both are held until released.
+    // With the GNSS duty cycle, the localization is only started once it is needed (see updateLocationDemand).
+    // Registering and running a foreground service is not enough to prevent the CPU from sleeping when the device is in sleep.
+    public void acquireResources() {
+        if (hasResources) {
+            return;
+        }
+
+        hasResources = true;
+        lastCalibrationTime = 0;
+        locationIdleSince = 0;
+        if (!gnssDutyCycle) {
+            startLocationUpdates();
+        }
+        resources.acquireWakeLock();
+        powerMonitor.wakeLockDidAcquire(scheduler.elapsedRealtime());
+    }
+
+    public void releaseResources() {
+        if (!hasResources) {
+            return;
+        }
+
+        hasResources = false;
+        stopLocationUpdates();
+        resources.releaseWakeLock();
+        powerMonitor.wakeLockDidRelease(scheduler.elapsedRealtime());
+    }
+
+    // Requests the location updates again, e.g., after the distance filter has been changed
+    public void restartLocationUpdates() {
+        if (!hasResources || (gnssDutyCycle && !isLocationOn)) {
+            return;
+        }
+
+        stopLocationUpdates();
+        startLocationUpdates();
+    }
+
+    // Called for every datapoint with the date of the last step (milliseconds since epoch, 0 if none or without calibration) ...
+    // ... and whether the current cadence has been calibrated (see StepLengthModel.isCalibrated)
+    public void updateLocationDemand(long lastStepDate, boolean isCadenceCalibrated) {
+        if (!gnssDutyCycle || !hasResources) {
+            return;
+        }
+
+        long currentTime = scheduler.elapsedRealtime();
+        boolean isWalking = lastStepDate != 0 && scheduler.currentTimeMillis()-lastStepDate <= STEP_TIMEOUT;
+        boolean isRecalibrationDue = lastCalibrationTime == 0 || currentTime-lastCalibrationTime >= RECALIBRATION_INTERVAL;
+        if (isWalking && (!isCadenceCalibrated || isRecalibrationDue)) {
+            locationIdleSince = 0;
+            if (!isLocationOn) {
+                startLocationUpdates();
+            }
+        } else if (isLocationOn) {
+            if (locationIdleSince == 0) {
+                locationIdleSince = currentTime;
+            } else if (currentTime-locationIdleSince >= LOCATION_IDLE_DURATION) {
+                locationIdleSince = 0;
+                stopLocationUpdates();
+            }
+        }
+    }
+
+    // Called whenever a band of the step length model has been calibrated, the receiver is then not needed until the recalibration is due
+    public void calibrationDidOccur() {
+        lastCalibrationTime = scheduler.elapsedRealtime();
+    }
+
+    private void startLocationUpdates() {
+        if (resources.startLocationUpdates()) {
+            isLocationOn = true;
+            powerMonitor.gnssDidStart(scheduler.elapsedRealtime());
+        }
+    }
+
+    private void stopLocationUpdates() {
+        if (!isLocationOn) {
+            return;
+        }
+
+        isLocationOn = false;
+        resources.stopLocationUpdates();
+        powerMonitor.gnssDidStop(scheduler.elapsedRealtime());
+    }
+
+    // Registers the motion sensor and starts passing on datapoints
+    public void startTracking() {
+        gravityFilter.reset();
+        motionResampler.reset();
+        sensorClockOffset = scheduler.currentTimeMillis() - scheduler.elapsedRealtime();
+        isLowRate = false;
+        lowMotionSince = 0;
+        registerMotionSensor();
+        isTracking = true;
+
+        // With adaptive sampling, the datapoints are passed on from the sensor events through the resampler instead.
+        if (!adaptiveSampling) {
+            scheduler.removeCallbacks(timerRunnable);
+            scheduler.postDelayed(timerRunnable, (long) (updateInterval*1000));
+        }
+    }
+
+    public void stopTracking() {
+        scheduler.removeCallbacks(timerRunnable);
+        resources.unregisterMotionSensor();
+        powerMonitor.sensorsDidUnregister(scheduler.elapsedRealtime());
+        isTracking = false;
+        // Without datapoints, the demand for the localization is not updated anymore
+        if (gnssDutyCycle) {
+            locationIdleSince = 0;
+            stopLocationUpdates();
+        }
+    }
+
+    public boolean isLowRate() {
+        return isLowRate;
+    }
+
+    // Passes the most recent gravity values on once per update interval.
+    private final Runnable timerRunnable = new Runnable() {
+        public void run() {
+            long processingStart = System.nanoTime();
+            powerMonitor.timerDidFire();
+            if (isTracking) {
+                scheduler.postDelayed(this, (long) (updateInterval*1000));
+            }
+            delegate.motionDataDidOccur(gravityX, gravityY, gravityZ, scheduler.currentTimeMillis());
+            powerMonitor.processingDidEnd(processingStart);
+        }
+    };
+
+    // The gravity sensor is a virtual sensor on many devices that keeps the gyroscope running.
+    // Optionally, gravity is derived from the accelerometer only (see GravityFilter).
+    // At the low rate there are no strides whose impacts need to be filtered, so that the accelerometer is reduced as well.
+    private void registerMotionSensor() {
+        double samplingInterval = isLowRate ? LOW_RATE_UPDATE_INTERVAL : updateInterval;
+        if (useAccelerometer && !isLowRate) {
+            samplingInterval = Math.min(samplingInterval, ACCELEROMETER_UPDATE_INTERVAL);
+        }
+
+        resources.registerMotionSensor(useAccelerometer, samplingInterval);
+        powerMonitor.sensorsDidRegister(scheduler.elapsedRealtime(), isLowRate);
+    }
+
+    // Called for every event of the motion sensor, with its timestamp (nanoseconds, elapsed realtime) and values (m/s^2)
+    public void sensorEventDidOccur(long timestamp, double x, double y, double z) {
+        long processingStart = System.nanoTime();
+        powerMonitor.sensorEventDidOccur();
+
+        if (useAccelerometer) {
+            gravityFilter.addSample(timestamp, x, y, z);
+            gravityX = gravityFilter.getGravityX();
+            gravityY = gravityFilter.getGravityY();
+            gravityZ = gravityFilter.getGravityZ();
+        } else {
+            gravityX = x;
+            gravityY = y;
+            gravityZ = z;
+        }
+
+        if (adaptiveSampling && isTracking) {
+            motionResampler.addSample(timestamp, gravityX, gravityY, gravityZ);
+            updateSamplingRate();
+        }
+        powerMonitor.processingDidEnd(processingStart);
+    }
+
+    // Reduces the sensor rate after the motion energy has been low for a while, and restores it as soon as the energy rises.
+    private void updateSamplingRate() {
+        double motionEnergy = motionResampler.getMotionEnergy();
+
+        if (isLowRate) {
+            if (motionEnergy > HIGH_MOTION_ENERGY) {
+                isLowRate = false;
+                lowMotionSince = 0;
+                registerMotionSensor();
+            }
+        } else if (motionEnergy < LOW_MOTION_ENERGY) {
+            long currentTime = scheduler.elapsedRealtime();
+            if (lowMotionSince == 0) {
+                lowMotionSince = currentTime;
+            } else if (currentTime-lowMotionSince >= LOW_MOTION_DURATION) {
+                isLowRate = true;
+                registerMotionSensor();
+            }
+        } else {
+            lowMotionSince = 0;
+        }
+    }
+
+    // Called from within the MotionResampler for every point of the uniform grid.
+    @Override
+    public void gridPointDidOccur(long timestamp, double x, double y, double z) {
+        delegate.motionDataDidOccur(x, y, z, timestamp/1000000 + sensorClockOffset);
+    }
+
+    // Sensors, localization, and wake lock of the device, or fakes of them in the JVM tests
+    public interface Resources {
+        // Replaces a previously registered motion sensor, the events are passed to sensorEventDidOccur
+        void registerMotionSensor(boolean accelerometer, double samplingInterval);
+        void unregisterMotionSensor();
+        // Returns false if the localization could not be started (e.g., without permission)
+        boolean startLocationUpdates();
+        void stopLocationUpdates();
+        void acquireWakeLock();
+        void releaseWakeLock();
+    }
+
+    public interface TrackingDelegate {
+        // Datapoint on the grid of the update interval, with the wall clock time (milliseconds since epoch)
+        void motionDataDidOccur(double x, double y, double z, long timestamp);
+    }
+}
@@ -32,13 +32,35 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class stepdistplugin extends CordovaPlugin implements DistanceService.DistanceServiceDelegate {
 
     private DistanceService distanceService;
 
-    private CallbackContext pluginInfoEventCallback;
-    private CallbackContext distanceEventCallback;
-    
+    // Several JavaScript contexts may subscribe to the events of this plugin instance.
+    private final List<CallbackContext> pluginInfoEventCallbacks = new CopyOnWriteArrayList<>();
+    private final List<CallbackContext> distanceEventCallbacks = new CopyOnWriteArrayList<>();
+
+    // Single steps are sent as packed binary batches instead of one JSON event per step.
+    // Each subscription has its own batcher, so that its batch size and delay are kept when another context subscribes.
+    private final List<StepBatcher> stepBatchers = new CopyOnWriteArrayList<>();
+
+    // Results sent to JavaScript while the callbacks are kept, part of the power statistics.
+    private final AtomicLong bridgeEvents = new AtomicLong();
+
+    // Events from the DistanceService are delivered on this executor, not on the main looper that processes the sensor data.
+    private ScheduledExecutorService eventExecutor;
+
+    // Distance events are coalesced to at most one per configured update interval (milliseconds), so that bursts of sensor data do not flood the bridge.
+    private volatile long distanceEventInterval;
+
     private Context applicationContext;
 
     // In order to communicate with the DistanceService which constitutes a foreground service (see Android documentation).
@@ -47,7 +69,7 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             distanceService = ((DistanceService.LocalBinder)service).getService();
-            distanceService.setDelegate(stepdistplugin.this);
+            distanceService.addListener(stepdistplugin.this, eventExecutor, distanceEventInterval);
             distanceService.sendPluginInfo();
         }
 
@@ -63,6 +85,7 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
         super.initialize(cordova, webView);
 
         distanceService = null;
+        eventExecutor = Executors.newSingleThreadScheduledExecutor();
         applicationContext = this.cordova.getActivity().getApplicationContext();
         createNotificationChannel();
     }
@@ -85,20 +108,24 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
         if (action.equals("startLocalization")) {
-            pluginInfoEventCallback = callbackContext;
-            startLocalization(args.getJSONObject(0));
+            pluginInfoEventCallbacks.add(callbackContext);
+            startLocalization(args.getJSONObject(0), callbackContext);
             return true;
         } else if (action.equals("stopLocalization")) {
             stopLocalization();
-            pluginInfoEventCallback = null;
             return true;
         } else if (action.equals("startMeasuringDistance")) {
-            distanceEventCallback = callbackContext;
+            distanceEventCallbacks.add(callbackContext);
             startMeasuringDistance(args.getBoolean(0));
             return true;
         } else if (action.equals("stopMeasuringDistance")) {
             stopMeasuringDistance();
-            distanceEventCallback = null;
+            return true;
+        } else if (action.equals("pauseMeasuringDistance")) {
+            pauseMeasuringDistance();
+            return true;
+        } else if (action.equals("resumeMeasuringDistance")) {
+            resumeMeasuringDistance(args.getBoolean(0), callbackContext);
             return true;
         } else if (action.equals("setBodyHeight")) {
             setBodyHeight(args.getDouble(0), callbackContext);
@@ -106,6 +133,27 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
         } else if (action.equals("resetData")) {
             resetData(callbackContext);
             return true;
+        } else if (action.equals("updateOptions")) {
+            updateOptions(args.getJSONObject(0), callbackContext);
+            return true;
+        } else if (action.equals("exportSession")) {
+            exportSession(args.getString(0), callbackContext);
+            return true;
+        } else if (action.equals("subscribeSteps")) {
+            subscribeSteps(args.optJSONObject(0), callbackContext);
+            return true;
+        } else if (action.equals("unsubscribeSteps")) {
+            unsubscribeSteps();
+            return true;
+        } else if (action.equals("getPowerStats")) {
+            getPowerStats(args.optBoolean(0, false), callbackContext);
+            return true;
+        } else if (action.equals("openSegment") || action.equals("closeSegment") || action.equals("getSegment")) {
+            updateSegment(action, args.getString(0), callbackContext);
+            return true;
+        } else if (action.equals("importSensorLog")) {
+            importSensorLog(args.getString(0), args.getJSONObject(1), callbackContext);
+            return true;
         }
 
         return false;
@@ -113,16 +161,18 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
 
     // Plugin life cycle method. Starts the localization in order to get a GNSS fix for the step length calibration.
     // Starts the foreground service (see Android documentation) for the background processing.
-    private void startLocalization(JSONObject options) throws JSONException {
+    private void startLocalization(JSONObject options, CallbackContext callbackContext) throws JSONException {
         if (!PermissionHelper.hasPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)) {
             PermissionHelper.requestPermission(this, 0, Manifest.permission.ACCESS_FINE_LOCATION);
 
             PluginResult pluginInfoResult = new PluginResult(PluginResult.Status.ERROR);
-            pluginInfoEventCallback.sendPluginResult(pluginInfoResult);
+            pluginInfoEventCallbacks.remove(callbackContext);
+            callbackContext.sendPluginResult(pluginInfoResult);
 
             return;
         }
 
+        distanceEventInterval = Math.round(options.getDouble("updateInterval")*1000);
         Intent serviceIntent = new Intent(applicationContext, DistanceService.class);
 
         serviceIntent.putExtra("horizontalDistanceFilter", options.getInt("horizontalDistanceFilter"));
@@ -137,6 +187,12 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
         serviceIntent.putExtra("deviationAmplitude", options.getDouble("deviationAmplitude"));
         serviceIntent.putExtra("minStrideAmplitude", options.getDouble("minStrideAmplitude"));
         serviceIntent.putExtra("smoothingTimeframe", options.getInt("smoothingTimeframe"));
+        serviceIntent.putExtra("gravitySource", options.optString("gravitySource", "sensor"));
+        serviceIntent.putExtra("adaptiveSampling", options.optBoolean("adaptiveSampling", false));
+        serviceIntent.putExtra("provisionalSteps", options.optBoolean("provisionalSteps", false));
+        serviceIntent.putExtra("activityClassification", options.optBoolean("activityClassification", false));
+        serviceIntent.putExtra("gnssDutyCycle", options.optBoolean("gnssDutyCycle", true));
+        serviceIntent.putExtra("enableTracing", options.optBoolean("enableTracing", false));
 
         applicationContext.bindService(serviceIntent, serviceConnection, Context.BIND_AUTO_CREATE);
     }
@@ -144,18 +200,22 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
     // Stops the localization and background processing.
     private void stopLocalization() {
         if (distanceService != null) {
+            distanceService.removeListener(this);
             applicationContext.unbindService(serviceConnection);
 
             PluginResult result = new PluginResult(PluginResult.Status.OK);
-            pluginInfoEventCallback.sendPluginResult(result);
+            for (CallbackContext callbackContext : pluginInfoEventCallbacks) {
+                callbackContext.sendPluginResult(result);
+            }
         }
+        pluginInfoEventCallbacks.clear();
     }
 
     // Starts the main distance estimation and step length calibration.
     private void startMeasuringDistance(boolean enableGPSCalibration) {
         distanceService.startMeasuringDistance(enableGPSCalibration);
         
-        distanceDidChange(0, 0, 0);
+        distanceDidChange(0, 0, 0, 0, 0);
     }
 
     // Stops the main distance estimation and step length calibration.
@@ -163,7 +223,34 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
         distanceService.stopMeasuringDistance();
 
         PluginResult result = new PluginResult(PluginResult.Status.OK);
-        distanceEventCallback.sendPluginResult(result);
+        for (CallbackContext callbackContext : distanceEventCallbacks) {
+            callbackContext.sendPluginResult(result);
+        }
+        distanceEventCallbacks.clear();
+    }
+
+    // Pauses the distance estimation, the distance events end until the measurement is resumed.
+    private void pauseMeasuringDistance() {
+        if (distanceService != null) {
+            distanceService.pauseMeasuringDistance();
+        }
+
+        PluginResult result = new PluginResult(PluginResult.Status.OK);
+        for (CallbackContext callbackContext : distanceEventCallbacks) {
+            callbackContext.sendPluginResult(result);
+        }
+        distanceEventCallbacks.clear();
+    }
+
+    // Resumes a paused measurement with its steps and distance, or starts a new one if there is none.
+    private void resumeMeasuringDistance(boolean enableGPSCalibration, CallbackContext callbackContext) {
+        if (distanceService == null) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR));
+            return;
+        }
+
+        distanceEventCallbacks.add(callbackContext);
+        distanceService.resumeMeasuringDistance(enableGPSCalibration);
     }
 
     // Sets the body height and enables the heuristic formula to estimate the walking distance based on step frequency and body height.
@@ -184,14 +271,169 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
         callbackContext.sendPluginResult(pluginResult);
     }
 
+    // Changes algorithm parameters while the plugin is running, without restarting the distance estimation.
+    private void updateOptions(JSONObject options, CallbackContext callbackContext) {
+        if (distanceService == null) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR));
+            return;
+        }
+
+        distanceService.updateOptions(options);
+
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK);
+        callbackContext.sendPluginResult(pluginResult);
+    }
+
+    // Exports the current or last session as CSV or GPX file and returns the path of the file, ...
+    // ... along with the number of records that are missing, as they have been dropped while the journal was behind.
+    private void exportSession(String format, final CallbackContext callbackContext) {
+        if (distanceService == null) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR));
+            return;
+        }
+
+        distanceService.exportSession(format, new SessionRecorder.ExportCallback() {
+            @Override
+            public void exportDidFinish(String path, long droppedRecords) {
+                JSONObject exportInfo = new JSONObject();
+                try {
+                    exportInfo.put("path", path);
+                    exportInfo.put("droppedRecords", droppedRecords);
+                } catch (JSONException e) {
+                    System.out.println("Error exportInfo");
+                }
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, exportInfo));
+            }
+
+            @Override
+            public void exportDidFail(String message) {
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.IO_EXCEPTION, message));
+            }
+        });
+    }
+
+    // Opens, closes, or returns a named segment of the running measurement and returns its steps, distance, and elevation.
+    // Segments are offsets of the running totals, so that the step counter is not reset as with stopMeasuringDistance.
+    private void updateSegment(String action, String name, final CallbackContext callbackContext) {
+        if (distanceService == null) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR));
+            return;
+        }
+
+        SegmentTracker.SegmentCallback callback = new SegmentTracker.SegmentCallback() {
+            @Override
+            public void segmentDidChange(JSONObject segment) {
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, segment));
+            }
+
+            @Override
+            public void segmentDidFail(String message) {
+                callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+            }
+        };
+
+        if (action.equals("openSegment")) {
+            distanceService.openSegment(name, callback);
+        } else if (action.equals("closeSegment")) {
+            distanceService.closeSegment(name, callback);
+        } else {
+            distanceService.getSegment(name, callback);
+        }
+    }
+
+    // Replays a sensor log (CSV file) through a separate step counter and returns the number of steps along with statistics of the import.
+    // Runs on the thread pool of Cordova, the running distance estimation is not affected.
+    private void importSensorLog(final String path, final JSONObject options, final CallbackContext callbackContext) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    StepCounter stepCounter = new StepCounter(options);
+                    SensorLogImporter importer = new SensorLogImporter(stepCounter, options.getDouble("updateInterval"));
+                    File file = new File(path.startsWith("file://") ? path.substring("file://".length()) : path);
+                    JSONObject result = importer.importFile(file, options.optString("gravitySource", "auto"));
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
+                } catch (IOException e) {
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.IO_EXCEPTION, e.getMessage()));
+                } catch (JSONException e) {
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage()));
+                }
+            }
+        });
+    }
+
+    // Subscribes to single steps, which are delivered as ArrayBuffer with StepBatcher.RECORD_SIZE bytes per step.
+    // A batch is sent once it holds maxBatchSize steps or its oldest step is maxBatchDelay milliseconds old.
+    private void subscribeSteps(JSONObject options, final CallbackContext callbackContext) {
+        int maxBatchSize = options != null ? options.optInt("maxBatchSize", 32) : 32;
+        long maxBatchDelay = options != null ? options.optLong("maxBatchDelay", 1000) : 1000;
+
+        stepBatchers.add(new StepBatcher(eventExecutor, maxBatchSize, maxBatchDelay, new StepBatcher.BatchCallback() {
+            @Override
+            public void batchDidFill(byte[] packedSteps) {
+                PluginResult stepsResult = new PluginResult(PluginResult.Status.OK, packedSteps);
+                stepsResult.setKeepCallback(true);
+                callbackContext.sendPluginResult(stepsResult);
+                bridgeEvents.incrementAndGet();
+            }
+        }));
+    }
+
+    private void unsubscribeSteps() {
+        // Each batcher is removed before its last batch is flushed, so that no step is added after the flush
+        // The callbacks are dropped without a final result, onSteps only ever receives batches
+        for (StepBatcher batcher : stepBatchers) {
+            stepBatchers.remove(batcher);
+            batcher.flush();
+        }
+    }
+
+    // Returns the counted activities of the DistanceService and the events sent to JavaScript, in total and per hour.
+    // Optionally starts a new period afterwards, e.g., before the next configuration is measured.
+    private void getPowerStats(boolean reset, CallbackContext callbackContext) throws JSONException {
+        if (distanceService == null) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR));
+            return;
+        }
+
+        JSONObject powerStats = distanceService.getPowerStats(reset);
+        long bridgeEvents = reset ? this.bridgeEvents.getAndSet(0) : this.bridgeEvents.get();
+        double hours = powerStats.getLong("elapsedMillis")/3600000.0;
+        powerStats.put("bridgeEvents", bridgeEvents);
+        powerStats.put("bridgeEventsPerHour", Math.round(bridgeEvents/hours));
+
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, powerStats));
+    }
+
+    // Called from within the DistanceService for every single step.
+    @Override
+    public void stepDidOccur(long timestamp, float stepsPerSecond, float strideAmplitude) {
+        for (StepBatcher batcher : stepBatchers) {
+            batcher.addStep(timestamp, stepsPerSecond, strideAmplitude);
+        }
+    }
+
+    // Called from within the DistanceService when already delivered steps have been withdrawn.
+    @Override
+    public void stepsDidTruncate(int withdrawnSteps) {
+        for (StepBatcher batcher : stepBatchers) {
+            batcher.addTruncation(withdrawnSteps);
+        }
+    }
+
     // Called from within the DistanceService. Sends distance, steps, and elevation to the plugin interface.
     @Override
-    public void distanceDidChange(int distanceTraveled, int stepsTaken, int relativeAltitudeGain) {
+    public void distanceDidChange(int distanceTraveled, int stepsTaken, int provisionalStepsTaken, int relativeAltitudeGain, int stepsPerMinute) {
+        DistanceService distanceService = this.distanceService;
+        LatencyTracer latencyTracer = distanceService != null ? distanceService.getLatencyTracer() : null;
+        long traceStart = latencyTracer != null ? latencyTracer.beginSection("distanceDidChange") : 0;
+
         JSONObject distanceInfo = new JSONObject();
         try {
             distanceInfo.put("distance", distanceTraveled);
             distanceInfo.put("steps", stepsTaken);
+            distanceInfo.put("provisionalSteps", provisionalStepsTaken);
             distanceInfo.put("elevation", relativeAltitudeGain);
+            distanceInfo.put("stepsPerMinute", stepsPerMinute);
         } catch (JSONException e) {
             System.out.println("Error distanceInfo");
         }
@@ -199,7 +441,15 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
         PluginResult distanceInfoResult = new PluginResult(PluginResult.Status.OK, distanceInfo);
         distanceInfoResult.setKeepCallback(true);
 
-        distanceEventCallback.sendPluginResult(distanceInfoResult);
+        for (CallbackContext callbackContext : distanceEventCallbacks) {
+            callbackContext.sendPluginResult(distanceInfoResult);
+            bridgeEvents.incrementAndGet();
+        }
+
+        if (latencyTracer != null) {
+            latencyTracer.endSection("distanceDidChange", traceStart);
+            latencyTracer.eventDidReachBridge();
+        }
     }
 
     // Called from within the DistanceService. Sends status information to the plugin interface.
@@ -219,13 +469,18 @@ public class stepdistplugin extends CordovaPlugin implements DistanceService.Dis
         PluginResult pluginInfoResult = new PluginResult(PluginResult.Status.OK, pluginInfo);
         pluginInfoResult.setKeepCallback(true);
 
-        pluginInfoEventCallback.sendPluginResult(pluginInfoResult);
+        for (CallbackContext callbackContext : pluginInfoEventCallbacks) {
+            callbackContext.sendPluginResult(pluginInfoResult);
+            bridgeEvents.incrementAndGet();
+        }
     }
 
     @Override
     public void onDestroy() {
         stopMeasuringDistance();
         stopLocalization();
+        unsubscribeSteps();
+        eventExecutor.shutdown();
         super.onDestroy();
     }
 }
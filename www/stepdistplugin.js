@@ -28,6 +28,34 @@ var deviationAmplitude = 0.35;
 var minStrideAmplitude = 0.2;
 var smoothingTimeframe = 6;
 
+// Source of the gravity data on Android: "sensor" uses the (often gyroscope-fused) gravity sensor, ...
+// ... "accelerometer" derives gravity from the filtered direction of the acceleration to save power (see GravityFilter).
+// Strides appear smaller to the accelerometer, so that the swaying of a vehicle is more likely to be counted ...
+// ... if it is not recognized by the activity classification (see GravitySourceReplayTest).
+var gravitySource = "sensor";
+
+// Reduce the sensor rate on Android while the device is hardly moved, samples are resampled for the step counting.
+var adaptiveSampling = false;
+
+// Report provisional steps on Android right after each stride in the raw data, before the steps are confirmed.
+// Provisional steps are passed separately in the walking distance event and may be withdrawn later.
+var provisionalSteps = false;
+
+// Suspend the step counting and the step length calibration on Android while riding a vehicle (detected by GNSS speed).
+// Disabled by default, as the rate of walks that are mistaken for a ride has not been validated on real sessions yet.
+var activityClassification = false;
+
+// Keep GNSS on Android only on while the step length of the current cadence is to be calibrated, instead of during the whole session.
+// The relative altitude gain is then only measured while GNSS is on. Has no effect with the activity classification, which needs the GNSS speed.
+var gnssDutyCycle = true;
+
+// Record latency spans from the sensor sample to the JavaScript event on Android, ...
+// ... as android.os.Trace sections and as Chrome trace file (see traceFile in getPowerStats), also switchable by updateOptions.
+var enableTracing = false;
+
+// Size of a single step within the binary step batches (see StepBatcher on Android).
+var stepRecordSize = 16;
+
 // Enable GNSS calibration by default.
 var enableGNSSCalibration = true;
 
@@ -95,7 +123,13 @@ var startLocalization = function() {
         deviationLength: deviationLength,
         deviationAmplitude: deviationAmplitude,
         minStrideAmplitude: minStrideAmplitude,
-        smoothingTimeframe: smoothingTimeframe
+        smoothingTimeframe: smoothingTimeframe,
+        gravitySource: gravitySource,
+        adaptiveSampling: adaptiveSampling,
+        provisionalSteps: provisionalSteps,
+        activityClassification: activityClassification,
+        gnssDutyCycle: gnssDutyCycle,
+        enableTracing: enableTracing
       };
       
     exec(onPluginStatusEvent, error, "stepdistplugin", "startLocalization", [options]);
@@ -176,5 +210,98 @@ module.exports = {
 
     resetData: function() {
         exec(success, error, "stepdistplugin", "resetData", []);
+    },
+
+    // Pauses the distance estimation while keeping steps, distance, and the state of the step counter (Android only).
+    // Walking distance events are resumed by resumeMeasuringDistance, also after the app has been restarted.
+    pauseMeasuringDistance: function() {
+        exec(success, error, "stepdistplugin", "pauseMeasuringDistance", []);
+    },
+
+    resumeMeasuringDistance: function() {
+        exec(onDistanceWalked, error, "stepdistplugin", "resumeMeasuringDistance", [enableGNSSCalibration]);
+    },
+
+    // Changes parameters of the running algorithm, e.g. {smoothingTimeframe: 8, deviationAmplitude: 0.3}
+    // The update interval and the gravity source cannot be changed this way (Android only).
+    updateOptions: function(options) {
+        exec(success, error, "stepdistplugin", "updateOptions", [options]);
+    },
+
+    // Writes the current or last session to a file ("csv" or "gpx") and passes {path, droppedRecords} to onExported (Android only).
+    // Records that could not be written while the storage was behind are missing, their number is also given in the file.
+    exportSession: function(format, onExported, onError) {
+        exec(onExported, onError || error, "stepdistplugin", "exportSession", [format]);
+    },
+
+    // Passes the power-relevant activities (wakeups, processing time, GNSS and sensor time, bridge events) ...
+    // ... in total and per hour to onStats, reset starts a new period afterwards (Android only).
+    getPowerStats: function(onStats, reset) {
+        exec(onStats, error, "stepdistplugin", "getPowerStats", [reset === true]);
+    },
+
+    // Named segments (e.g., laps) of the running measurement, which may overlap (Android only).
+    // onSegment receives {name, isOpen, startTime, endTime, steps, distance, elevation}, reopening a name restarts the segment.
+    openSegment: function(name, onSegment, onError) {
+        exec(onSegment || success, onError || error, "stepdistplugin", "openSegment", [name]);
+    },
+
+    closeSegment: function(name, onSegment, onError) {
+        exec(onSegment || success, onError || error, "stepdistplugin", "closeSegment", [name]);
+    },
+
+    getSegment: function(name, onSegment, onError) {
+        exec(onSegment, onError || error, "stepdistplugin", "getSegment", [name]);
+    },
+
+    // Replays a CSV sensor log (e.g., exported by phyphox, Physics Toolbox, or an Android sensor logger) through the step counter ...
+    // ... and passes the number of steps to onImported, gravitySource is "sensor", "accelerometer", or "auto" (Android only).
+    importSensorLog: function(path, onImported, onError, gravitySource) {
+        var options = {
+            updateInterval: updateInterval,
+            betterStrideFactor: betterStrideFactor,
+            deviationLength: deviationLength,
+            deviationAmplitude: deviationAmplitude,
+            minStrideAmplitude: minStrideAmplitude,
+            smoothingTimeframe: smoothingTimeframe,
+            gravitySource: gravitySource || "auto"
+        };
+        exec(onImported, onError || error, "stepdistplugin", "importSensorLog", [path, options]);
+    },
+
+    // Subscribes to single steps, which are passed to onSteps in batches as ArrayBuffer (Android only).
+    // A batch is sent once it holds options.maxBatchSize steps (default 32) or is options.maxBatchDelay ms old (default 1000).
+    // Each subscription keeps its own options. Use decodeSteps to unpack a batch.
+    subscribeSteps: function(onSteps, options) {
+        exec(onSteps, error, "stepdistplugin", "subscribeSteps", [options || {}]);
+    },
+
+    unsubscribeSteps: function() {
+        exec(success, error, "stepdistplugin", "unsubscribeSteps", []);
+    },
+
+    // Unpacks a batch of steps, each step consists of timestamp (ms since epoch), stepsPerSecond, and strideAmplitude (m/s^2).
+    // If previously passed steps have been replaced by the step counter, the batch holds {withdrawnSteps: n} instead, ...
+    // ... which withdraws the last n steps that were passed before.
+    decodeSteps: function(batch) {
+        var steps = [];
+        if (!(batch instanceof ArrayBuffer)) {
+            return steps;
+        }
+
+        var view = new DataView(batch);
+        for (var offset = 0; offset + stepRecordSize <= view.byteLength; offset += stepRecordSize) {
+            var timestamp = view.getUint32(offset, true) + view.getInt32(offset + 4, true)*4294967296;
+            if (timestamp < 0) {
+                steps.push({withdrawnSteps: -timestamp});
+            } else {
+                steps.push({
+                    timestamp: timestamp,
+                    stepsPerSecond: view.getFloat32(offset + 8, true),
+                    strideAmplitude: view.getFloat32(offset + 12, true)
+                });
+            }
+        }
+        return steps;
     }
 }